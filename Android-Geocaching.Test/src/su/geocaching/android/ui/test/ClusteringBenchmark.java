@@ -0,0 +1,359 @@
+package su.geocaching.android.ui.test;
+
+import android.os.Debug;
+import junit.framework.TestCase;
+import su.geocaching.android.controller.apimanager.GeoRect;
+import su.geocaching.android.controller.selectmap.geocachegroup.GeoCacheClusterIndex;
+import su.geocaching.android.controller.selectmap.geocachegroup.GeoCacheListAnalyzer;
+import su.geocaching.android.controller.selectmap.geocachegroup.IncrementalClusterQuery;
+import su.geocaching.android.controller.selectmap.geocachegroup.KMeans;
+import su.geocaching.android.controller.selectmap.geocachegroup.MercatorProjector;
+import su.geocaching.android.model.GeoCache;
+import su.geocaching.android.model.GeoPoint;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Measures grouping of geocaches on synthetic lists: uniform, dense cities and linear trails of 1k, 10k and 100k geocaches.
+ * Reports time of operation, iterations of KMeans and allocated bytes per geocache.
+ * <p/>
+ * It needs no device, so it can be run on desktop JVM with android.jar and junit in class path:
+ * <pre>
+ * java junit.textui.TestRunner su.geocaching.android.ui.test.ClusteringBenchmark
+ * </pre>
+ * Test fails if iterations or allocations exceed limits of this class. Time depends on machine, so results are also
+ * compared with baseline file given by system property clustering.baseline: operation fails if it is
+ * {@link #TIME_TOLERANCE} times slower, allocates {@link #BYTES_TOLERANCE} times more or needs more iterations than
+ * in baseline. Baseline is written by run with -Dclustering.baseline.update=true.
+ */
+public class ClusteringBenchmark extends TestCase {
+    private static final int[] NUMBERS_OF_CACHES = {1000, 10000, 100000};
+    private static final int MAP_WIDTH = 480;
+    private static final int MAP_HEIGHT = 800;
+    private static final int FINGER_SIZE_X = 60;
+    private static final int FINGER_SIZE_Y = 80;
+    private static final GeoRect AREA = new GeoRect(new GeoPoint(60.5, 29.5), new GeoPoint(59.5, 31.5));
+    private static final int PAN_STEPS = 100;
+
+    // operation is repeated at least this time and this number of times
+    private static final long MIN_MEASURE_NS = 500 * 1000 * 1000L;
+    private static final long WARM_UP_NS = 200 * 1000 * 1000L;
+    private static final int MIN_RUNS = 3;
+    private static final double TIME_TOLERANCE = 1.5;
+    // shorter operations are too noisy to compare time with baseline
+    private static final long MIN_COMPARED_NS = 1000 * 1000L;
+    private static final double BYTES_TOLERANCE = 1.2;
+    // limits of allocated bytes per geocache, every operation can also allocate FIXED_BYTES
+    private static final double MAX_KMEANS_BYTES = 8;
+    private static final double MAX_PROJECTION_BYTES = 1;
+    private static final double MAX_INDEX_BYTES = 800;
+    private static final double MAX_ANALYZER_BYTES = 800;
+    private static final double MAX_PAN_BYTES = 8;
+    private static final long FIXED_BYTES = 64 * 1024;
+    private static final int MAX_KMEANS_ITERATIONS = 200;
+
+    private static final String BASELINE_PROPERTY = "clustering.baseline";
+    private static final String UPDATE_BASELINE_PROPERTY = "clustering.baseline.update";
+    private static final String NS_SUFFIX = ".ns";
+    private static final String ITERATIONS_SUFFIX = ".iterations";
+    private static final String BYTES_SUFFIX = ".bytes";
+
+    private final Properties results = new Properties();
+
+    private enum Distribution {
+        UNIFORM, CITY_DENSE, TRAIL_LINEAR
+    }
+
+    /**
+     * Operation which is measured
+     */
+    private interface Operation {
+        /**
+         * @return number of iterations if operation has them, otherwise 0
+         */
+        int run();
+    }
+
+    public void testUniform() throws IOException {
+        benchmark(Distribution.UNIFORM);
+    }
+
+    public void testCityDense() throws IOException {
+        benchmark(Distribution.CITY_DENSE);
+    }
+
+    public void testTrailLinear() throws IOException {
+        benchmark(Distribution.TRAIL_LINEAR);
+    }
+
+    private void benchmark(Distribution distribution) throws IOException {
+        for (int numberOfCaches : NUMBERS_OF_CACHES) {
+            final List<GeoCache> caches = generateCaches(distribution, numberOfCaches);
+            final MercatorProjector projector = new MercatorProjector(AREA, MAP_WIDTH, MAP_HEIGHT);
+            final double[] latitudes = new double[numberOfCaches];
+            final double[] longitudes = new double[numberOfCaches];
+            for (int i = 0; i < numberOfCaches; i++) {
+                latitudes[i] = caches.get(i).getGeoPoint().getLatitude();
+                longitudes[i] = caches.get(i).getGeoPoint().getLongitude();
+            }
+            final int[] x = new int[numberOfCaches];
+            final int[] y = new int[numberOfCaches];
+            projector.toScreenLocations(latitudes, longitudes, x, y);
+            String name = distribution.name().toLowerCase(Locale.ENGLISH) + "." + numberOfCaches;
+
+            measure(name + ".kmeans", numberOfCaches, MAX_KMEANS_BYTES, new Operation() {
+                @Override
+                public int run() {
+                    int sizeX = MAP_WIDTH / FINGER_SIZE_X;
+                    int sizeY = MAP_HEIGHT / FINGER_SIZE_Y;
+                    int[] centroidX = new int[sizeX * sizeY];
+                    int[] centroidY = new int[sizeX * sizeY];
+                    for (int i = 0; i < centroidX.length; i++) {
+                        centroidX[i] = (int) ((i / sizeY + 0.5) * FINGER_SIZE_X);
+                        centroidY[i] = (int) ((i % sizeY + 0.5) * FINGER_SIZE_Y);
+                    }
+                    KMeans kMeans = new KMeans(x, y, centroidX, centroidY, FINGER_SIZE_X, FINGER_SIZE_Y, null);
+                    return kMeans.getIterations();
+                }
+            });
+
+            measure(name + ".projection", numberOfCaches, MAX_PROJECTION_BYTES, new Operation() {
+                @Override
+                public int run() {
+                    projector.toScreenLocations(latitudes, longitudes, x, y);
+                    return 0;
+                }
+            });
+
+            measure(name + ".index", numberOfCaches, MAX_INDEX_BYTES, new Operation() {
+                @Override
+                public int run() {
+                    new GeoCacheClusterIndex(caches, null);
+                    return 0;
+                }
+            });
+
+            measure(name + ".analyzer", numberOfCaches, MAX_ANALYZER_BYTES, new Operation() {
+                @Override
+                public int run() {
+                    GeoCacheListAnalyzer analyzer = new GeoCacheListAnalyzer(projector, AREA, MAP_WIDTH, MAP_HEIGHT, null, true);
+                    analyzer.getGroupedList(caches, null);
+                    return 0;
+                }
+            });
+
+            final GeoCacheClusterIndex index = new GeoCacheClusterIndex(caches, null);
+            final List<GeoRect> viewPorts = generatePan();
+            measure(name + ".pan", numberOfCaches, MAX_PAN_BYTES, new Operation() {
+                @Override
+                public int run() {
+                    IncrementalClusterQuery query = new IncrementalClusterQuery(index);
+                    for (GeoRect viewPort : viewPorts) {
+                        query.update(viewPort, GeoCacheClusterIndex.getZoom(viewPort, MAP_WIDTH));
+                    }
+                    return 0;
+                }
+            });
+        }
+        checkBaseline();
+    }
+
+    private void measure(String name, int numberOfCaches, double maxBytesPerCache, Operation operation) {
+        // warm up, JIT has to compile the operation before measurement
+        long warmUpStart = System.nanoTime();
+        do {
+            operation.run();
+        } while (System.nanoTime() - warmUpStart < WARM_UP_NS);
+
+        int runs = 0, iterations = 0;
+        long time = 0, bytes = 0;
+        // the fastest run is compared, others are slowed down by GC and other processes
+        long nsPerOperation = Long.MAX_VALUE;
+        while (runs < MIN_RUNS || time < MIN_MEASURE_NS) {
+            long allocatedBefore = getAllocatedBytes();
+            long startTime = System.nanoTime();
+            iterations += operation.run();
+            long runTime = System.nanoTime() - startTime;
+            bytes += getAllocatedBytes() - allocatedBefore;
+            time += runTime;
+            nsPerOperation = Math.min(nsPerOperation, runTime);
+            runs++;
+        }
+        long bytesPerOperation = bytes / runs;
+        double allocationRate = bytes * 1E9 / time / (1 << 20);
+        System.out.println(String.format(Locale.ENGLISH, "%-30s %12d ns/op %4d iterations %10.1f bytes/cache %8.1f MB/s",
+                name, nsPerOperation, iterations / runs, (double) bytesPerOperation / numberOfCaches, allocationRate));
+
+        results.setProperty(name + NS_SUFFIX, Long.toString(nsPerOperation));
+        results.setProperty(name + ITERATIONS_SUFFIX, Integer.toString(iterations / runs));
+        assertTrue(name + " iterations: " + iterations / runs, iterations / runs <= MAX_KMEANS_ITERATIONS);
+        if (isAllocationCounted()) {
+            results.setProperty(name + BYTES_SUFFIX, Long.toString(bytesPerOperation));
+            assertTrue(name + " bytes: " + bytesPerOperation, bytesPerOperation <= maxBytesPerCache * numberOfCaches + FIXED_BYTES);
+        }
+    }
+
+    /**
+     * Compares results with baseline file or writes them to it
+     */
+    private void checkBaseline() throws IOException {
+        String baselineFile = System.getProperty(BASELINE_PROPERTY);
+        if (baselineFile == null) return;
+
+        Properties baseline = new Properties();
+        try {
+            FileInputStream in = new FileInputStream(baselineFile);
+            try {
+                baseline.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            if (!Boolean.getBoolean(UPDATE_BASELINE_PROPERTY)) throw e;
+            // the first run, baseline is created
+        }
+
+        if (Boolean.getBoolean(UPDATE_BASELINE_PROPERTY)) {
+            baseline.putAll(results);
+            FileOutputStream out = new FileOutputStream(baselineFile);
+            try {
+                baseline.store(out, "ClusteringBenchmark baseline");
+            } finally {
+                out.close();
+            }
+            return;
+        }
+
+        for (Object key : results.keySet()) {
+            String name = (String) key;
+            String expected = baseline.getProperty(name);
+            if (expected == null) continue;
+            long value = Long.parseLong(results.getProperty(name));
+            long limit = Long.parseLong(expected);
+            if (name.endsWith(NS_SUFFIX)) {
+                if (limit < MIN_COMPARED_NS) continue;
+                limit *= TIME_TOLERANCE;
+            } else if (name.endsWith(BYTES_SUFFIX)) {
+                limit = (long) (limit * BYTES_TOLERANCE) + FIXED_BYTES;
+            }
+            assertTrue(String.format("%s is %d, baseline is %s", name, value, expected), value <= limit);
+        }
+    }
+
+    private static List<GeoCache> generateCaches(Distribution distribution, int numberOfCaches) {
+        Random random = new Random(numberOfCaches + distribution.ordinal());
+        double top = AREA.tl.getLatitude(), bottom = AREA.br.getLatitude();
+        double left = AREA.tl.getLongitude(), right = AREA.br.getLongitude();
+        List<GeoCache> caches = new ArrayList<GeoCache>(numberOfCaches);
+        switch (distribution) {
+            case UNIFORM:
+                for (int i = 0; i < numberOfCaches; i++) {
+                    caches.add(createCache(i + 1, bottom + random.nextDouble() * (top - bottom), left + random.nextDouble() * (right - left)));
+                }
+                break;
+            case CITY_DENSE:
+                // most of geocaches are in a few cities, the rest are spread around
+                double[][] cities = new double[20][];
+                for (int i = 0; i < cities.length; i++) {
+                    cities[i] = new double[]{bottom + random.nextDouble() * (top - bottom), left + random.nextDouble() * (right - left),
+                            0.005 + random.nextDouble() * 0.05};
+                }
+                for (int i = 0; i < numberOfCaches; i++) {
+                    if (random.nextInt(5) == 0) {
+                        caches.add(createCache(i + 1, bottom + random.nextDouble() * (top - bottom), left + random.nextDouble() * (right - left)));
+                    } else {
+                        double[] city = cities[random.nextInt(cities.length)];
+                        caches.add(createCache(i + 1, clamp(city[0] + random.nextGaussian() * city[2], bottom, top),
+                                clamp(city[1] + random.nextGaussian() * city[2] * 2, left, right)));
+                    }
+                }
+                break;
+            case TRAIL_LINEAR:
+                // geocaches follow a few long trails with small steps
+                int trails = 10;
+                for (int trail = 0; trail < trails; trail++) {
+                    double latitude = bottom + random.nextDouble() * (top - bottom);
+                    double longitude = left + random.nextDouble() * (right - left);
+                    double direction = random.nextDouble() * 2 * Math.PI;
+                    double step = (top - bottom) * 2 / numberOfCaches * trails;
+                    for (int i = trail * numberOfCaches / trails; i < (trail + 1) * numberOfCaches / trails; i++) {
+                        direction += random.nextGaussian() * 0.1;
+                        latitude += Math.sin(direction) * step;
+                        longitude += Math.cos(direction) * step * 2;
+                        if (latitude < bottom || latitude > top || longitude < left || longitude > right) {
+                            // turn back at the border of area
+                            direction += Math.PI;
+                            latitude = clamp(latitude, bottom, top);
+                            longitude = clamp(longitude, left, right);
+                        }
+                        caches.add(createCache(i + 1, latitude + random.nextGaussian() * step / 10, longitude + random.nextGaussian() * step / 5));
+                    }
+                }
+                break;
+        }
+        return caches;
+    }
+
+    /**
+     * @return view ports of map which is panned diagonally through the area on zoom 12
+     */
+    private static List<GeoRect> generatePan() {
+        List<GeoRect> viewPorts = new ArrayList<GeoRect>(PAN_STEPS);
+        double longitudeSpan = 360.0 * MAP_WIDTH / (256 << 12);
+        double latitudeSpan = longitudeSpan * MAP_HEIGHT / MAP_WIDTH / 2;
+        double top = AREA.tl.getLatitude(), left = AREA.tl.getLongitude();
+        double latitudeStep = (top - AREA.br.getLatitude() - latitudeSpan) / PAN_STEPS;
+        double longitudeStep = (AREA.br.getLongitude() - left - longitudeSpan) / PAN_STEPS;
+        for (int i = 0; i < PAN_STEPS; i++) {
+            double latitude = top - i * latitudeStep;
+            double longitude = left + i * longitudeStep;
+            viewPorts.add(new GeoRect(new GeoPoint(latitude, longitude), new GeoPoint(latitude - latitudeSpan, longitude + longitudeSpan)));
+        }
+        return viewPorts;
+    }
+
+    private static GeoCache createCache(int id, double latitude, double longitude) {
+        GeoCache geoCache = new GeoCache();
+        geoCache.setId(id);
+        geoCache.setGeoPoint(new GeoPoint(latitude, longitude));
+        return geoCache;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static boolean isDalvik() {
+        return System.getProperty("java.vm.name", "").startsWith("Dalvik");
+    }
+
+    private static boolean isAllocationCounted() {
+        return getAllocatedBytes() >= 0;
+    }
+
+    /**
+     * @return bytes allocated by current thread so far, -1 if it can't be counted
+     */
+    private static long getAllocatedBytes() {
+        if (isDalvik()) {
+            Debug.startAllocCounting();
+            return Debug.getThreadAllocSize();
+        }
+        // com.sun.management.ThreadMXBean of desktop JVM
+        try {
+            Object threadBean = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(threadBean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
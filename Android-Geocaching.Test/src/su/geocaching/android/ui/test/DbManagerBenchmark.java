@@ -0,0 +1,137 @@
+package su.geocaching.android.ui.test;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import su.geocaching.android.controller.managers.DbManager;
+import su.geocaching.android.controller.managers.LogManager;
+import su.geocaching.android.model.GeoCache;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Measures lookups of favorite geocaches in database of version 6 and in the same database migrated by
+ * {@link DbManager}. Checks that migration keeps geocaches, checkpoints and photos.
+ */
+public class DbManagerBenchmark extends AndroidTestCase {
+    private static final String TAG = "DbManagerBenchmark";
+    private static final String DATABASE_NAME = "DbManagerBenchmark.db";
+    private static final int NUMBER_OF_CACHES = 5000;
+    private static final int CHECKPOINTS_PER_CACHE = 2;
+    private static final int PHOTOS_PER_CACHE = 3;
+    private static final int NUMBER_OF_LOOKUPS = 500;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testLookups() throws Exception {
+        int[] ids = getLookupIds();
+
+        SQLiteDatabase oldDb = SQLiteDatabase.openOrCreateDatabase(getContext().getDatabasePath(DATABASE_NAME), null);
+        fillVersion6(oldDb);
+        long time = System.nanoTime();
+        for (int id : ids) {
+            query(oldDb, "select cid from cache where cid=" + id);
+            query(oldDb, "select * from cache where cid=" + id);
+            query(oldDb, "select * from chekpoints where cache_id=" + id);
+            query(oldDb, "select photos from cache where cid=" + id);
+        }
+        time = System.nanoTime() - time;
+        oldDb.close();
+        LogManager.d(TAG, "version 6, caches: %d, us/lookup: %d", NUMBER_OF_CACHES, time / 1000 / ids.length);
+
+        time = System.nanoTime();
+        DbManager dbManager = new DbManager(getContext(), DATABASE_NAME);
+        LogManager.d(TAG, "migration, ms: %d", (System.nanoTime() - time) / 1000000);
+        try {
+            assertEquals(NUMBER_OF_CACHES, dbManager.getFavoritesGeoCaches().size());
+            time = System.nanoTime();
+            for (int id : ids) {
+                assertTrue(dbManager.isCacheStored(id));
+                GeoCache geoCache = dbManager.getCacheByID(id);
+                ArrayList<GeoCache> checkpoints = dbManager.getCheckpointsArrayById(id);
+                Collection<URL> photos = dbManager.getCachePhotosById(id);
+
+                assertEquals(getLatitude(id), geoCache.getGeoPoint().getLatitude(), 1E-6);
+                assertEquals(getLongitude(id), geoCache.getGeoPoint().getLongitude(), 1E-6);
+                assertEquals(CHECKPOINTS_PER_CACHE, checkpoints.size());
+                assertEquals(PHOTOS_PER_CACHE, photos.size());
+                assertEquals(getPhotoUrl(id, 0), photos.iterator().next().toString());
+            }
+            time = System.nanoTime() - time;
+            LogManager.d(TAG, "version 7, caches: %d, us/lookup: %d", NUMBER_OF_CACHES, time / 1000 / ids.length);
+        } finally {
+            dbManager.close();
+        }
+    }
+
+    /**
+     * Creates tables as they were in version 6: geocaches aren't keyed, coordinates are in microdegrees,
+     * photos are joined in one string
+     */
+    private static void fillVersion6(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE cache (cid INTEGER, name STRING, type INTEGER, status INTEGER, lantitude INTEGER, longtitude INTEGER, text STRING, notetext STRING, user_notes STRING, photos STRING);");
+        db.execSQL("CREATE TABLE chekpoints (cid INTEGER PRIMARY KEY AUTOINCREMENT, cache_id INTEGER, checkpoint_id INTEGER, name STRING, lantitude INTEGER, longtitude INTEGER, status INTEGER);");
+        db.execSQL("CREATE TABLE http_validators (url STRING PRIMARY KEY, cache_id INTEGER, etag STRING, last_modified STRING);");
+        db.beginTransaction();
+        try {
+            for (int id = 1; id <= NUMBER_OF_CACHES; id++) {
+                StringBuilder photos = new StringBuilder();
+                for (int i = 0; i < PHOTOS_PER_CACHE; i++) {
+                    if (i > 0) photos.append("; ");
+                    photos.append(getPhotoUrl(id, i));
+                }
+                db.execSQL("INSERT INTO cache VALUES (?, ?, 0, 0, ?, ?, ?, ?, NULL, ?)", new Object[]{
+                        id, "Geocache " + id, (int) (getLatitude(id) * 1E6), (int) (getLongitude(id) * 1E6),
+                        "<p>Description of geocache</p>", "<p>Notebook of geocache</p>", photos.toString()});
+                for (int i = 1; i <= CHECKPOINTS_PER_CACHE; i++) {
+                    db.execSQL("INSERT INTO chekpoints (cache_id, checkpoint_id, name, lantitude, longtitude, status) VALUES (?, ?, ?, ?, ?, 0)", new Object[]{
+                            id, i, "Checkpoint " + i, (int) (getLatitude(id) * 1E6) + i, (int) (getLongitude(id) * 1E6) + i});
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.setVersion(6);
+    }
+
+    private static void query(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        assertTrue(cursor.moveToFirst());
+        cursor.close();
+    }
+
+    private static int[] getLookupIds() {
+        Random random = new Random(NUMBER_OF_CACHES);
+        int[] ids = new int[NUMBER_OF_LOOKUPS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + random.nextInt(NUMBER_OF_CACHES);
+        }
+        return ids;
+    }
+
+    private static double getLatitude(int id) {
+        return 40 + (id % 3000) * 0.01;
+    }
+
+    private static double getLongitude(int id) {
+        return 20 + (id / 3000) * 0.01 + (id % 7) * 0.001;
+    }
+
+    private static String getPhotoUrl(int id, int position) {
+        return "http://pda.geocaching.su/pictures/caches/" + id + "_" + position + ".jpg";
+    }
+}
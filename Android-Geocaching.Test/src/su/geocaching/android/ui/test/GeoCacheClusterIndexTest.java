@@ -0,0 +1,197 @@
+package su.geocaching.android.ui.test;
+
+import junit.framework.TestCase;
+import su.geocaching.android.controller.apimanager.GeoRect;
+import su.geocaching.android.controller.selectmap.geocachegroup.GeoCacheClusterIndex;
+import su.geocaching.android.controller.selectmap.geocachegroup.IncrementalClusterQuery;
+import su.geocaching.android.model.GeoCache;
+import su.geocaching.android.model.GeoCacheStatus;
+import su.geocaching.android.model.GeoCacheType;
+import su.geocaching.android.model.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class GeoCacheClusterIndexTest extends TestCase {
+
+    private static GeoCache createCache(int id, double latitude, double longitude) {
+        GeoCache geoCache = new GeoCache();
+        geoCache.setId(id);
+        geoCache.setGeoPoint(new GeoPoint(latitude, longitude));
+        return geoCache;
+    }
+
+    private static GeoRect createRect(double maxLatitude, double minLongitude, double minLatitude, double maxLongitude) {
+        return new GeoRect(new GeoPoint(maxLatitude, minLongitude), new GeoPoint(minLatitude, maxLongitude));
+    }
+
+    private static List<GeoCache> createCaches() {
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        // two geocaches in Saint Petersburg 300 m from each other and one in Moscow
+        caches.add(createCache(1, 59.939, 30.315));
+        caches.add(createCache(2, 59.939, 30.320));
+        caches.add(createCache(3, 55.75, 37.6));
+        return caches;
+    }
+
+    public void testGeoCachesAreNotGroupedOnHighZoom() {
+        List<GeoCache> caches = createCaches();
+        GeoCacheClusterIndex index = new GeoCacheClusterIndex(caches, null);
+
+        List<GeoCache> result = index.getClusters(createRect(60, 30, 59.9, 30.4), GeoCacheClusterIndex.MAX_ZOOM);
+        assertEquals(2, result.size());
+        assertTrue(result.contains(caches.get(0)));
+        assertTrue(result.contains(caches.get(1)));
+    }
+
+    public void testCloseGeoCachesAreGroupedOnLowZoom() {
+        GeoCacheClusterIndex index = new GeoCacheClusterIndex(createCaches(), null);
+
+        List<GeoCache> result = index.getClusters(createRect(61, 29, 54, 39), 6);
+        assertEquals(2, result.size());
+        int groups = 0;
+        for (GeoCache geoCache : result) {
+            if (geoCache.getType() == GeoCacheType.GROUP) {
+                groups++;
+                assertEquals(2, geoCache.getGroupSize());
+                assertEquals(59.939, geoCache.getGeoPoint().getLatitude(), 1E-6);
+                assertEquals(30.3175, geoCache.getGeoPoint().getLongitude(), 1E-6);
+            } else {
+                assertEquals(3, geoCache.getId());
+            }
+        }
+        assertEquals(1, groups);
+    }
+
+    public void testAllGeoCachesAreGroupedOnLowestZoom() {
+        GeoCacheClusterIndex index = new GeoCacheClusterIndex(createCaches(), null);
+
+        List<GeoCache> result = index.getClusters(createRect(85, -180, -85, 180), 0);
+        assertEquals(1, result.size());
+        assertEquals(GeoCacheType.GROUP, result.get(0).getType());
+        assertEquals(3, result.get(0).getGroupSize());
+    }
+
+    public void testViewPortAcross180Meridian() {
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        caches.add(createCache(1, 65, 179.5));
+        caches.add(createCache(2, 65, -179.5));
+        caches.add(createCache(3, 65, 0));
+        GeoCacheClusterIndex index = new GeoCacheClusterIndex(caches, null);
+
+        List<GeoCache> result = index.getClusters(createRect(66, 170, 64, -170), GeoCacheClusterIndex.MAX_ZOOM);
+        assertEquals(2, result.size());
+        assertFalse(result.contains(caches.get(2)));
+    }
+
+    public void testClustersAreTheSameObjects() {
+        GeoCacheClusterIndex index = new GeoCacheClusterIndex(createCaches(), null);
+
+        List<GeoCache> first = index.getClusters(createRect(85, -180, -85, 180), 0);
+        List<GeoCache> second = index.getClusters(createRect(85, -180, -85, 180), 0);
+        assertSame(first.get(0), second.get(0));
+        assertTrue(first.get(0).getId() < 0);
+    }
+
+    public void testClustersAreTheSameObjectsForConcurrentQueries() throws InterruptedException {
+        Random random = new Random(5);
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        for (int i = 1; i <= 5000; i++) {
+            caches.add(createCache(i, 59 + random.nextDouble(), 30 + 2 * random.nextDouble()));
+        }
+        final GeoCacheClusterIndex index = new GeoCacheClusterIndex(caches, null);
+        final GeoRect world = createRect(85, -180, -85, 180);
+        final List<List<GeoCache>> results = new ArrayList<List<GeoCache>>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final List<GeoCache> result = new ArrayList<GeoCache>();
+            results.add(result);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int zoom = 0; zoom <= GeoCacheClusterIndex.MAX_ZOOM; zoom++) {
+                        result.addAll(index.getClusters(world, zoom));
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (List<GeoCache> result : results) {
+            assertEquals(results.get(0).size(), result.size());
+            for (int i = 0; i < result.size(); i++) {
+                assertSame(results.get(0).get(i), result.get(i));
+            }
+        }
+    }
+
+    public void testIncrementalQueryIsTheSameAsNewQuery() {
+        Random random = new Random(3);
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        for (int i = 1; i <= 5000; i++) {
+            caches.add(createCache(i, 59 + random.nextDouble(), 30 + 2 * random.nextDouble()));
+        }
+        GeoCacheClusterIndex index = new GeoCacheClusterIndex(caches, null);
+        IncrementalClusterQuery query = new IncrementalClusterQuery(index);
+        Set<GeoCache> shown = new HashSet<GeoCache>();
+
+        double latitude = 59.5, longitude = 31;
+        int zoom = 12;
+        for (int i = 0; i < 200; i++) {
+            if (i % 50 == 49) {
+                zoom++;
+            }
+            latitude += (random.nextDouble() - 0.5) * 0.02;
+            longitude += (random.nextDouble() - 0.5) * 0.04;
+            GeoRect viewPort = createRect(latitude + 0.05, longitude - 0.1, latitude - 0.05, longitude + 0.1);
+            query.update(viewPort, zoom);
+            shown.removeAll(query.getRemoved());
+            shown.addAll(query.getAdded());
+
+            IncrementalClusterQuery newQuery = new IncrementalClusterQuery(index);
+            newQuery.update(viewPort, zoom);
+            assertEquals(new HashSet<GeoCache>(newQuery.getClusters()), shown);
+            assertEquals(new HashSet<GeoCache>(query.getClusters()), shown);
+            // everything inside of view port is shown
+            assertTrue(shown.containsAll(index.getClusters(viewPort, zoom)));
+        }
+    }
+
+    public void testIndexIsBuiltForTheSameList() {
+        List<GeoCache> caches = createCaches();
+        GeoCacheClusterIndex index = new GeoCacheClusterIndex(caches, null);
+
+        assertTrue(index.isBuiltFor(new ArrayList<GeoCache>(caches)));
+        caches.remove(2);
+        assertFalse(index.isBuiltFor(caches));
+    }
+
+    public void testIndexIsNotBuiltForChangedGeoCaches() {
+        GeoCacheClusterIndex index = new GeoCacheClusterIndex(createCaches(), null);
+
+        List<GeoCache> reversed = createCaches();
+        Collections.reverse(reversed);
+        assertTrue(index.isBuiltFor(reversed));
+
+        List<GeoCache> moved = createCaches();
+        moved.get(0).setGeoPoint(new GeoPoint(59.939, 30.316));
+        assertFalse(index.isBuiltFor(moved));
+
+        List<GeoCache> changedStatus = createCaches();
+        changedStatus.get(1).setStatus(GeoCacheStatus.NOT_VALID);
+        assertFalse(index.isBuiltFor(changedStatus));
+
+        List<GeoCache> renamed = createCaches();
+        renamed.get(2).setName("Renamed");
+        assertFalse(index.isBuiltFor(renamed));
+    }
+}
@@ -0,0 +1,252 @@
+package su.geocaching.android.ui.test;
+
+import junit.framework.TestCase;
+import su.geocaching.android.controller.apimanager.GeoCacheCoordinates;
+import su.geocaching.android.controller.apimanager.GeoCacheMemoryStorage;
+import su.geocaching.android.controller.apimanager.GeoRect;
+import su.geocaching.android.model.GeoCache;
+import su.geocaching.android.model.GeoCacheStatus;
+import su.geocaching.android.model.GeoCacheType;
+import su.geocaching.android.model.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GeoCacheMemoryStorageTest extends TestCase {
+
+    private static GeoCache createCache(int id, double latitude, double longitude) {
+        GeoCache geoCache = new GeoCache();
+        geoCache.setId(id);
+        geoCache.setGeoPoint(new GeoPoint(latitude, longitude));
+        return geoCache;
+    }
+
+    private static GeoRect createRect(double maxLatitude, double minLongitude, double minLatitude, double maxLongitude) {
+        return new GeoRect(new GeoPoint(maxLatitude, minLongitude), new GeoPoint(minLatitude, maxLongitude));
+    }
+
+    public void testGetCaches() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage();
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        caches.add(createCache(1, 59.9, 30.3));
+        caches.add(createCache(2, 59.95, 30.35));
+        caches.add(createCache(3, 55.75, 37.6));
+        storage.addCaches(caches, createRect(60, 29, 55, 38));
+
+        List<GeoCache> result = storage.getCaches(createRect(60, 30, 59.5, 31));
+        assertEquals(2, result.size());
+        assertTrue(result.contains(caches.get(0)));
+        assertTrue(result.contains(caches.get(1)));
+    }
+
+    public void testGetCoordinates() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage();
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        caches.add(createCache(1, 59.9, 30.3));
+        caches.add(createCache(2, 55.75, 37.6));
+        storage.addCaches(caches, createRect(60, 29, 55, 38));
+
+        GeoCacheCoordinates coordinates = new GeoCacheCoordinates();
+        storage.getCoordinates(createRect(60, 30, 59.5, 31), coordinates);
+        assertEquals(1, coordinates.size());
+        assertEquals(59.9, coordinates.getLatitudes()[0], 1E-6);
+        assertEquals(30.3, coordinates.getLongitudes()[0], 1E-6);
+    }
+
+    public void testGetCachesAcross180Meridian() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage();
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        caches.add(createCache(1, 65, 179.5));
+        caches.add(createCache(2, 65, -179.5));
+        caches.add(createCache(3, 65, 0));
+        storage.addCaches(caches, createRect(66, 170, 64, -170));
+
+        List<GeoCache> result = storage.getCaches(createRect(66, 170, 64, -170));
+        assertEquals(2, result.size());
+        assertFalse(result.contains(caches.get(2)));
+    }
+
+    public void testDuplicatesAreNotReturnedTwice() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage();
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        caches.add(createCache(1, 59.9, 30.3));
+        storage.addCaches(caches, createRect(60, 30, 59, 31));
+        storage.addCaches(caches, createRect(61, 30, 59, 31));
+
+        assertEquals(1, storage.getCaches(createRect(61, 30, 59, 31)).size());
+    }
+
+    public void testUncoveredRectsOfFullyCoveredRect() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage();
+        storage.addCaches(new ArrayList<GeoCache>(), createRect(60, 30, 59, 31));
+        storage.addCaches(new ArrayList<GeoCache>(), createRect(60, 31, 59, 32));
+
+        assertTrue(storage.getUncoveredRects(createRect(59.8, 30.5, 59.2, 31.5)).isEmpty());
+        assertTrue(storage.isRectangleStored(createRect(59.8, 30.5, 59.2, 31.5)));
+    }
+
+    public void testUncoveredRectsAfterPan() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage();
+        storage.addCaches(new ArrayList<GeoCache>(), createRect(60, 30, 59, 31));
+
+        List<GeoRect> uncovered = storage.getUncoveredRects(createRect(60, 30.5, 59, 31.5));
+        assertEquals(1, uncovered.size());
+        GeoRect rect = uncovered.get(0);
+        assertEquals(31.0, rect.tl.getLongitude());
+        assertEquals(31.5, rect.br.getLongitude());
+        assertEquals(60.0, rect.tl.getLatitude());
+        assertEquals(59.0, rect.br.getLatitude());
+    }
+
+    public void testFieldsOfGeoCacheAreStored() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage();
+        GeoCache geoCache = createCache(7, 59.123456, -30.654321);
+        geoCache.setName("Белые ночи");
+        geoCache.setType(GeoCacheType.VIRTUAL);
+        geoCache.setStatus(GeoCacheStatus.NOT_CONFIRMED);
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        caches.add(geoCache);
+        caches.add(createCache(8, 59.5, -30.5));
+        storage.addCaches(caches, createRect(60, -31, 59, -30));
+
+        List<GeoCache> result = storage.getCaches(createRect(59.2, -31, 59, -30.6));
+        assertEquals(1, result.size());
+        GeoCache stored = result.get(0);
+        assertEquals(7, stored.getId());
+        assertEquals("Белые ночи", stored.getName());
+        assertEquals(GeoCacheType.VIRTUAL, stored.getType());
+        assertEquals(GeoCacheStatus.NOT_CONFIRMED, stored.getStatus());
+        assertEquals(59.123456, stored.getGeoPoint().getLatitude(), 1E-9);
+        assertEquals(-30.654321, stored.getGeoPoint().getLongitude(), 1E-9);
+        assertNull(storage.getCaches(createRect(60, -30.6, 59.2, -30)).get(0).getName());
+    }
+
+    public void testManyCachesAreAddedAndEvicted() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage(1000);
+        for (int region = 0; region < 10; region++) {
+            List<GeoCache> caches = new ArrayList<GeoCache>();
+            for (int i = 0; i < 300; i++) {
+                GeoCache geoCache = createCache(region * 1000 + i, 50.5, region + i / 1000.0);
+                geoCache.setName("Cache " + geoCache.getId());
+                caches.add(geoCache);
+            }
+            storage.addCaches(caches, createRect(51, region, 50, region + 1));
+        }
+
+        // each rectangle keeps 300 caches, so only three rectangles fit the limit
+        assertEquals(900, storage.size());
+        assertTrue(storage.getCaches(createRect(51, 0, 50, 6.9)).isEmpty());
+        List<GeoCache> result = storage.getCaches(createRect(51, 9, 50, 10));
+        assertEquals(300, result.size());
+        for (GeoCache geoCache : result) {
+            assertEquals("Cache " + geoCache.getId(), geoCache.getName());
+        }
+    }
+
+    public void testLeastRecentlyUsedRectangleIsEvicted() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage(2);
+        List<GeoCache> first = new ArrayList<GeoCache>();
+        first.add(createCache(1, 59.5, 30.5));
+        storage.addCaches(first, createRect(60, 30, 59, 31));
+        List<GeoCache> second = new ArrayList<GeoCache>();
+        second.add(createCache(2, 59.5, 31.5));
+        storage.addCaches(second, createRect(60, 31, 59, 32));
+
+        // first rectangle is used, so second one is evicted
+        assertEquals(1, storage.getCaches(createRect(60, 30, 59, 31)).size());
+        List<GeoCache> third = new ArrayList<GeoCache>();
+        third.add(createCache(3, 59.5, 32.5));
+        storage.addCaches(third, createRect(60, 32, 59, 33));
+
+        assertEquals(2, storage.size());
+        assertTrue(storage.isRectangleStored(createRect(60, 30, 59, 31)));
+        assertFalse(storage.isRectangleStored(createRect(60, 31, 59, 32)));
+        assertTrue(storage.getCaches(createRect(60, 31, 59, 32)).isEmpty());
+        assertTrue(storage.isRectangleStored(createRect(60, 32, 59, 33)));
+    }
+
+    public void testCacheOfTwoRectanglesIsKeptUntilBothAreEvicted() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage(100);
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        caches.add(createCache(1, 59.5, 31));
+        storage.addCaches(caches, createRect(60, 30, 59, 31.5));
+        storage.addCaches(caches, createRect(60, 30.5, 59, 32));
+
+        storage.trimMemory(0.5f);
+        assertEquals(1, storage.size());
+        assertFalse(storage.isRectangleStored(createRect(60, 30, 59, 30.5)));
+        assertEquals(1, storage.getCaches(createRect(60, 30.5, 59, 32)).size());
+
+        storage.trimMemory(0);
+        assertEquals(0, storage.size());
+        assertTrue(storage.getCaches(createRect(60, 30, 59, 32)).isEmpty());
+        assertFalse(storage.isRectangleStored(createRect(60, 30.5, 59, 32)));
+    }
+
+    public void testNamesAreKeptWhenSlotsAreReusedAfterClear() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage(1);
+        List<GeoCache> caches = new ArrayList<GeoCache>();
+        for (int i = 0; i < 8; i++) {
+            caches.add(createNamedCache(i + 1, 59.5, 30.5, 300));
+        }
+        storage.addCaches(caches, createRect(60, 30, 59, 31));
+        storage.trimMemory(0);
+
+        storage.addCaches(createList(createNamedCache(100, 59.5, 30.5, 2000)), createRect(60, 30, 59, 31));
+        // the first rectangle is evicted, its name is garbage of name pool now
+        storage.addCaches(createList(createNamedCache(101, 59.5, 31.5, 1)), createRect(60, 31, 59, 32));
+        // the long name compacts pool while the slot taken after clear is filled
+        storage.addCaches(createList(createNamedCache(102, 59.5, 32.5, 1), createNamedCache(103, 59.5, 32.6, 2100)),
+                createRect(60, 32, 59, 33));
+
+        List<GeoCache> result = storage.getCaches(createRect(60, 32, 59, 33));
+        assertEquals(2, result.size());
+        for (GeoCache geoCache : result) {
+            assertEquals(createName(geoCache.getId(), geoCache.getId() == 103 ? 2100 : 1), geoCache.getName());
+        }
+    }
+
+    public void testChangedGeoCacheIsUpdated() {
+        GeoCacheMemoryStorage storage = new GeoCacheMemoryStorage();
+        GeoCache geoCache = createNamedCache(1, 59.5, 30.5, 10);
+        geoCache.setStatus(GeoCacheStatus.VALID);
+        storage.addCaches(createList(geoCache, createNamedCache(2, 59.5, 30.6, 10)), createRect(60, 30, 59, 31));
+
+        // the same geocache is downloaded again with another rectangle
+        GeoCache changed = createNamedCache(1, 59.55, 31.5, 20);
+        changed.setStatus(GeoCacheStatus.NOT_VALID);
+        changed.setType(GeoCacheType.VIRTUAL);
+        storage.addCaches(createList(changed), createRect(60, 30, 59, 32));
+
+        assertEquals(2, storage.size());
+        List<GeoCache> result = storage.getCaches(createRect(60, 31, 59, 32));
+        assertEquals(1, result.size());
+        GeoCache stored = result.get(0);
+        assertEquals(1, stored.getId());
+        assertEquals(GeoCacheStatus.NOT_VALID, stored.getStatus());
+        assertEquals(GeoCacheType.VIRTUAL, stored.getType());
+        assertEquals(createName(1, 20), stored.getName());
+        assertEquals(59.55, stored.getGeoPoint().getLatitude(), 1E-9);
+        // geocache is not found at its old place
+        List<GeoCache> oldPlace = storage.getCaches(createRect(60, 30, 59, 31));
+        assertEquals(1, oldPlace.size());
+        assertEquals(2, oldPlace.get(0).getId());
+    }
+
+    private static GeoCache createNamedCache(int id, double latitude, double longitude, int nameLength) {
+        GeoCache geoCache = createCache(id, latitude, longitude);
+        geoCache.setName(createName(id, nameLength));
+        return geoCache;
+    }
+
+    private static String createName(int id, int length) {
+        char[] name = new char[length];
+        Arrays.fill(name, (char) ('a' + id % 26));
+        return new String(name);
+    }
+
+    private static List<GeoCache> createList(GeoCache... caches) {
+        return new ArrayList<GeoCache>(Arrays.asList(caches));
+    }
+}
@@ -0,0 +1,73 @@
+package su.geocaching.android.ui.test;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import org.xml.sax.InputSource;
+import su.geocaching.android.controller.apimanager.GeoCachesSaxHandler;
+import su.geocaching.android.controller.managers.LogManager;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures parsing of 1031.ajax.php responses. Reports throughput and allocations per geocache.
+ */
+public class GeoCacheSaxHandlerBenchmark extends AndroidTestCase {
+    private static final String TAG = "GeoCacheSaxHandlerBenchmark";
+    private static final int[] NUMBERS_OF_CACHES = {1000, 10000, 100000};
+    private static final int NUMBER_OF_TESTS = 5;
+
+    public void testParse() throws Exception {
+        for (int numberOfCaches : NUMBERS_OF_CACHES) {
+            benchmark(numberOfCaches, false);
+            benchmark(numberOfCaches, true);
+        }
+    }
+
+    private void benchmark(int numberOfCaches, boolean internNames) throws Exception {
+        String xml = generateXml(numberOfCaches);
+        SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+        // warm up
+        parser.parse(new InputSource(new StringReader(xml)), new GeoCachesSaxHandler(null, internNames));
+
+        long time = 0, allocations = 0;
+        for (int i = 0; i < NUMBER_OF_TESTS; i++) {
+            GeoCachesSaxHandler handler = new GeoCachesSaxHandler(null, internNames);
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            long startTime = System.nanoTime();
+            parser.parse(new InputSource(new StringReader(xml)), handler);
+            time += System.nanoTime() - startTime;
+            Debug.stopAllocCounting();
+            allocations += Debug.getThreadAllocCount();
+            assertEquals(numberOfCaches, handler.getGeoCaches().size());
+        }
+        time /= NUMBER_OF_TESTS;
+        allocations /= NUMBER_OF_TESTS;
+
+        LogManager.d(TAG, "caches: %d, intern: %b, caches/s: %d, allocations/cache: %.1f",
+                numberOfCaches, internNames, numberOfCaches * 1000000000L / Math.max(time, 1), (double) allocations / numberOfCaches);
+    }
+
+    /**
+     * @return response in the format of 1031.ajax.php
+     */
+    private static String generateXml(int numberOfCaches) {
+        Random random = new Random(numberOfCaches);
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<data>\n");
+        for (int i = 0; i < numberOfCaches; i++) {
+            xml.append("<c><id>").append(i + 1).append("</id><cn>").append(random.nextInt(100))
+                    .append("</cn><a>").append(random.nextInt(100))
+                    .append("</a><n>Geocache ").append(random.nextInt(numberOfCaches))
+                    .append("</n><la>").append(String.format(Locale.ENGLISH, "%.10f", 40 + random.nextDouble() * 30))
+                    .append("</la><ln>").append(String.format(Locale.ENGLISH, "%.10f", 20 + random.nextDouble() * 120))
+                    .append("</ln><ct>").append(1 + random.nextInt(8))
+                    .append("</ct><st>").append(1 + random.nextInt(3))
+                    .append("</st></c>\n");
+        }
+        return xml.append("</data>").toString();
+    }
+}
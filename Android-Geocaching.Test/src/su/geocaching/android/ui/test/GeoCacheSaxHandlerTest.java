@@ -0,0 +1,59 @@
+package su.geocaching.android.ui.test;
+
+import junit.framework.TestCase;
+import org.xml.sax.InputSource;
+import su.geocaching.android.controller.apimanager.GeoCachesSaxHandler;
+import su.geocaching.android.model.GeoCache;
+import su.geocaching.android.model.GeoCacheStatus;
+import su.geocaching.android.model.GeoCacheType;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.StringReader;
+import java.util.List;
+
+public class GeoCacheSaxHandlerTest extends TestCase {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<data>\n" +
+            "<c>\n" +
+            "  <id>8901</id>\n" +
+            "  <cn>10</cn>\n" +
+            "  <a>47</a>\n" +
+            "  <n>Geocache &amp; name</n>\n" +
+            "  <la> 59.6952333333 </la>\n" +
+            "  <ln>-29.3968666667</ln>\n" +
+            "  <ct>3</ct>\n" +
+            "  <st>2</st>\n" +
+            "</c>\n" +
+            "<C><ID>12</ID><N>Upper</N><LA>60</LA><LN>30.5</LN><CT>8</CT><ST>3</ST></C>\n" +
+            "</data>";
+
+    private static List<GeoCache> parse(String xml) throws Exception {
+        GeoCachesSaxHandler handler = new GeoCachesSaxHandler();
+        SAXParserFactory.newInstance().newSAXParser().parse(new InputSource(new StringReader(xml)), handler);
+        return handler.getGeoCaches();
+    }
+
+    public void testParse() throws Exception {
+        List<GeoCache> geoCaches = parse(XML);
+        assertEquals(2, geoCaches.size());
+
+        GeoCache geoCache = geoCaches.get(0);
+        assertEquals(8901, geoCache.getId());
+        assertEquals("Geocache & name", geoCache.getName());
+        assertEquals(Double.parseDouble("59.6952333333"), geoCache.getGeoPoint().getLatitude());
+        assertEquals(Double.parseDouble("-29.3968666667"), geoCache.getGeoPoint().getLongitude());
+        assertEquals(GeoCacheType.VIRTUAL, geoCache.getType());
+        assertEquals(GeoCacheStatus.NOT_VALID, geoCache.getStatus());
+    }
+
+    public void testParseUpperCaseTags() throws Exception {
+        GeoCache geoCache = parse(XML).get(1);
+        assertEquals(12, geoCache.getId());
+        assertEquals("Upper", geoCache.getName());
+        assertEquals(60d, geoCache.getGeoPoint().getLatitude());
+        assertEquals(30.5, geoCache.getGeoPoint().getLongitude());
+        assertEquals(GeoCacheType.CONTEST, geoCache.getType());
+        assertEquals(GeoCacheStatus.NOT_CONFIRMED, geoCache.getStatus());
+    }
+}
@@ -9,10 +9,15 @@ import junit.framework.TestSuite;
  */
 public class GeocachingTestSuite extends TestSuite {
     public GeocachingTestSuite() {
-        //addTestSuite(KMeansTest.class);
+        addTestSuite(KMeansTest.class);
         addTestSuite(CompassHelperTest.class);
         addTestSuite(SexagesimalTest.class);
-        //addTestSuite(GeoCacheSaxHandlerTest.class);
+        addTestSuite(GeoCacheMemoryStorageTest.class);
+        addTestSuite(GeoCacheSaxHandlerTest.class);
+        addTestSuite(HtmlPageTransformerTest.class);
+        addTestSuite(GeoCacheClusterIndexTest.class);
+        addTestSuite(MercatorProjectorTest.class);
+        addTestSuite(GoogleMarkerIconsTest.class);
     }
 
     public static Test suite() {
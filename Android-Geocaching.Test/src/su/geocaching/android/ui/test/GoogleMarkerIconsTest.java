@@ -0,0 +1,22 @@
+package su.geocaching.android.ui.test;
+
+import junit.framework.TestCase;
+import su.geocaching.android.ui.map.GoogleMarkerIcons;
+
+public class GoogleMarkerIconsTest extends TestCase {
+
+    public void testSmallGroupsHaveExactSize() {
+        for (int size = 2; size < 10; size++) {
+            assertEquals(size, GoogleMarkerIcons.getGroupSizeBucket(size));
+            assertEquals(Integer.toString(size), GoogleMarkerIcons.getGroupLabel(size));
+        }
+    }
+
+    public void testLargeGroupsAreLabeledByBucket() {
+        assertEquals("10+", GoogleMarkerIcons.getGroupLabel(GoogleMarkerIcons.getGroupSizeBucket(19)));
+        assertEquals("20+", GoogleMarkerIcons.getGroupLabel(GoogleMarkerIcons.getGroupSizeBucket(20)));
+        assertEquals("500+", GoogleMarkerIcons.getGroupLabel(GoogleMarkerIcons.getGroupSizeBucket(999)));
+        assertEquals("1k+", GoogleMarkerIcons.getGroupLabel(GoogleMarkerIcons.getGroupSizeBucket(1500)));
+        assertEquals("10k+", GoogleMarkerIcons.getGroupLabel(GoogleMarkerIcons.getGroupSizeBucket(123456)));
+    }
+}
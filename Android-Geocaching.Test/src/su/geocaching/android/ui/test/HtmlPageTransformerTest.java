@@ -0,0 +1,66 @@
+package su.geocaching.android.ui.test;
+
+import junit.framework.TestCase;
+import su.geocaching.android.controller.apimanager.HtmlPageTransformer;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HtmlPageTransformerTest extends TestCase {
+
+    private static String transform(String page, List<String> links) throws IOException {
+        StringBuilder text = new StringBuilder();
+        new HtmlPageTransformer(text, links).transform(new StringReader(page));
+        return text.toString();
+    }
+
+    public void testRemovesLineBreaks() throws IOException {
+        assertEquals("<p>firstsecond</p>", transform("<p>first\r\nsecond\n</p>\r", null));
+    }
+
+    public void testReplacesCharset() throws IOException {
+        String page = "<meta content=\"text/html; charset=windows-1251\">windows-windows-1251";
+        assertEquals("<meta content=\"text/html; charset=UTF-8\">windows-UTF-8", transform(page, null));
+    }
+
+    public void testDoesNotReplaceCharsetSplitByLineBreak() throws IOException {
+        assertEquals("windows-1251", transform("windows-\r\n1251", null));
+    }
+
+    public void testKeepsIncompleteCharsetAtTheEnd() throws IOException {
+        assertEquals("text windows-125", transform("text windows-125", null));
+    }
+
+    public void testExtractsPhotoLinks() throws IOException {
+        List<String> links = new ArrayList<String>();
+        String page = "<a href=\"http://pda.geocaching.su/1.jpg\"><img src=\"t1.jpg\"></a>\r\n" +
+                "<a href=\"http://geocaching.su/\">site</a>" +
+                "<a href=\"http://pda.geocaching.su/2.jpg\"><img src=\"t2.jpg\" alt=\"\"></a>";
+        transform(page, links);
+        assertEquals(2, links.size());
+        assertEquals("http://pda.geocaching.su/1.jpg", links.get(0));
+        assertEquals("http://pda.geocaching.su/2.jpg", links.get(1));
+    }
+
+    public void testExtractsLinkStartedInsideBrokenLink() throws IOException {
+        List<String> links = new ArrayList<String>();
+        transform("<a href=\"1.jpg\"><img <a href=\"2.jpg\"><img src=\"2\"></a>", links);
+        assertEquals(1, links.size());
+        assertEquals("2.jpg", links.get(0));
+    }
+
+    public void testExtractsLinksWithoutText() throws IOException {
+        List<String> links = new ArrayList<String>();
+        HtmlPageTransformer transformer = new HtmlPageTransformer(null, links);
+        char[] page = "<a href=\"1.jpg\"><img src=\"1\"></a>".toCharArray();
+        // page comes by small parts
+        for (int i = 0; i < page.length; i += 3) {
+            transformer.write(page, i, Math.min(3, page.length - i));
+        }
+        transformer.finish();
+        assertEquals(1, links.size());
+        assertEquals("1.jpg", links.get(0));
+    }
+}
@@ -1,36 +1,27 @@
 package su.geocaching.android.ui.test;
 
-import android.test.AndroidTestCase;
+import junit.framework.TestCase;
 import su.geocaching.android.controller.managers.LogManager;
-import su.geocaching.android.controller.selectmap.geocachegroup.Centroid;
-import su.geocaching.android.controller.selectmap.geocachegroup.GeoCacheView;
 import su.geocaching.android.controller.selectmap.geocachegroup.KMeans;
-import su.geocaching.android.model.GeoCache;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Random;
 
 /**
  * @author: Yuri Denison
  * @since: 17.03.11
  */
-public class KMeansTest extends AndroidTestCase {
+public class KMeansTest extends TestCase {
     private static final int MAX_NUMBER_OF_VIEW = 5020;
     private static final int MIN_NUMBER_OF_VIEW = 10;
-    private static final int STEP = 100;
+    private static final int STEP = 500;
     private static final int NUMBER_OF_TESTS = 5;
     private static final int SCREEN_WIDTH = 640;
     private static final int SCREEN_HEIGHT = 480;
     private static final int FINGER_SIZE_X = 80;
     private static final int FINGER_SIZE_Y = 60;
-    private int iter = 0;
     public static final String TAG = "KMeans"; //KMeansTest.class.getName();
 
-
-    @Override
-    protected void setUp() throws Exception {
-        super.setUp();
-    }
+    private final Random random = new Random(17);
 
     public void testMultiply() {
         for (int i = MIN_NUMBER_OF_VIEW; i < MAX_NUMBER_OF_VIEW; i += STEP) {
@@ -38,54 +29,141 @@ public class KMeansTest extends AndroidTestCase {
         }
     }
 
+    public void testParallelAssignment() {
+        // long lists are assigned by a few threads
+        withNumberOfViewTest(20000);
+    }
+
+    public void testPointsOutOfScreen() {
+        int[] x = {-500, -480, 1000, 1010, 300};
+        int[] y = {-100, -90, 2000, 1990, 200};
+        checkResult(x, y);
+    }
+
+    public void testEqualPoints() {
+        int[] x = {40, 40, 40, 120};
+        int[] y = {30, 30, 30, 30};
+        checkResult(x, y);
+    }
+
+    public void testNoPoints() {
+        checkResult(new int[0], new int[0]);
+    }
+
     public void withNumberOfViewTest(int numberOfView) {
         long value = 0, iteration = 0;
         for (int i = 0; i < NUMBER_OF_TESTS; i++) {
-            value += singleTest(numberOfView);
-            iteration += iter;
+            int[] x = new int[numberOfView];
+            int[] y = new int[numberOfView];
+            for (int j = 0; j < numberOfView; j++) {
+                x[j] = random.nextInt(SCREEN_WIDTH);
+                y[j] = random.nextInt(SCREEN_HEIGHT);
+            }
+            long startTime = System.currentTimeMillis();
+            KMeans kMeans = checkResult(x, y);
+            value += System.currentTimeMillis() - startTime;
+            iteration += kMeans.getIterations();
         }
         value /= NUMBER_OF_TESTS;
         iteration /= NUMBER_OF_TESTS;
         LogManager.d(TAG, numberOfView + ", " + iteration + ", " + value);
     }
 
-    private List<GeoCacheView> generatePoints(int numberOfView) {
-        List<GeoCacheView> points = new LinkedList<GeoCacheView>();
-        for (int i = 0; i < numberOfView; i++) {
-            points.add(
-                    new GeoCacheView(
-                            (int) (SCREEN_WIDTH * Math.random()),
-                            (int) (SCREEN_HEIGHT * Math.random()),
-                            new GeoCache()
-                    ));
+    /**
+     * Compares KMeans with straightforward implementation which checks every centroid for every point
+     */
+    private KMeans checkResult(int[] x, int[] y) {
+        int[] centroidX = generateCentroidsX();
+        int[] centroidY = generateCentroidsY();
+        int[] expectedX = centroidX.clone();
+        int[] expectedY = centroidY.clone();
+        int[] expectedCount = new int[centroidX.length];
+        int[] expectedFirst = new int[centroidX.length];
+        kMeans(x, y, expectedX, expectedY, expectedCount, expectedFirst);
+
+        KMeans kMeans = new KMeans(x, y, centroidX, centroidY, FINGER_SIZE_X, FINGER_SIZE_Y, null);
+        for (int c = 0; c < centroidX.length; c++) {
+            assertEquals(expectedX[c], centroidX[c]);
+            assertEquals(expectedY[c], centroidY[c]);
+            assertEquals(expectedCount[c], kMeans.getCount(c));
+            assertEquals(expectedFirst[c], kMeans.getFirstPoint(c));
         }
-        return points;
+        return kMeans;
     }
 
-    private List<Centroid> generateCentroids() {
-        List<Centroid> centroids = new LinkedList<Centroid>();
+    private int[] generateCentroidsX() {
+        int sizeX = SCREEN_WIDTH / FINGER_SIZE_X;
+        int sizeY = SCREEN_HEIGHT / FINGER_SIZE_Y;
+        int[] centroidX = new int[sizeX * sizeY];
+        for (int i = 0; i < centroidX.length; i++) {
+            centroidX[i] = (int) ((i / sizeY + 0.5) * FINGER_SIZE_X);
+        }
+        return centroidX;
+    }
+
+    private int[] generateCentroidsY() {
+        int sizeX = SCREEN_WIDTH / FINGER_SIZE_X;
+        int sizeY = SCREEN_HEIGHT / FINGER_SIZE_Y;
+        int[] centroidY = new int[sizeX * sizeY];
+        for (int i = 0; i < centroidY.length; i++) {
+            centroidY[i] = (int) ((i % sizeY + 0.5) * FINGER_SIZE_Y);
+        }
+        return centroidY;
+    }
 
-        for (int i = 0; i < SCREEN_WIDTH / FINGER_SIZE_X; i++) {
-            for (int j = 0; j < SCREEN_HEIGHT / FINGER_SIZE_Y; j++) {
-                centroids.add(new Centroid(
-                        (int) ((i + 0.5) * FINGER_SIZE_X),
-                        (int) ((j + 0.5) * FINGER_SIZE_Y),
-                        null
-                ));
+    private static void kMeans(int[] x, int[] y, int[] centroidX, int[] centroidY, int[] count, int[] first) {
+        int[] assignment = new int[x.length];
+        for (int i = 0; i < x.length; i++) {
+            assignment[i] = findClosestCentroid(x[i], y[i], centroidX, centroidY);
+        }
+        boolean ready = false;
+        while (!ready) {
+            ready = true;
+            long[] sumX = new long[centroidX.length];
+            long[] sumY = new long[centroidX.length];
+            int[] number = new int[centroidX.length];
+            for (int i = 0; i < x.length; i++) {
+                sumX[assignment[i]] += x[i];
+                sumY[assignment[i]] += y[i];
+                number[assignment[i]]++;
+            }
+            for (int c = 0; c < centroidX.length; c++) {
+                if (number[c] > 0) {
+                    centroidX[c] = (int) (sumX[c] / number[c]);
+                    centroidY[c] = (int) (sumY[c] / number[c]);
+                }
+            }
+            for (int i = 0; i < x.length; i++) {
+                int closest = findClosestCentroid(x[i], y[i], centroidX, centroidY);
+                if (closest != assignment[i]) {
+                    assignment[i] = closest;
+                    ready = false;
+                }
+            }
+        }
+        for (int c = 0; c < centroidX.length; c++) {
+            first[c] = -1;
+        }
+        for (int i = 0; i < x.length; i++) {
+            count[assignment[i]]++;
+            if (first[assignment[i]] == -1) {
+                first[assignment[i]] = i;
             }
         }
-        return centroids;
     }
 
-    private long singleTest(int numberOfView) {
-        List<GeoCacheView> points = generatePoints(numberOfView);
-        List<Centroid> centroids = generateCentroids();
-        long startTime = System.currentTimeMillis();
-        //KMeans k = new KMeans(points, centroids);
-        //k.getCentroids();
-        //iter = k.getIterations();
-        long time = System.currentTimeMillis() - startTime;
-        // LogManager.d(TAG, "" + time);
-        return time;
+    private static int findClosestCentroid(int x, int y, int[] centroidX, int[] centroidY) {
+        long minDistance = Long.MAX_VALUE;
+        int result = -1;
+        for (int c = 0; c < centroidX.length; c++) {
+            long dx = x - centroidX[c];
+            long dy = y - centroidY[c];
+            long distance = dx * dx + dy * dy;
+            if (distance < minDistance) {
+                result = c;
+                minDistance = distance;
+            }
+        }
+        return result;
     }
 }
@@ -0,0 +1,66 @@
+package su.geocaching.android.ui.test;
+
+import junit.framework.TestCase;
+import su.geocaching.android.controller.apimanager.GeoRect;
+import su.geocaching.android.controller.selectmap.geocachegroup.MercatorProjector;
+import su.geocaching.android.model.GeoPoint;
+
+public class MercatorProjectorTest extends TestCase {
+    private static final int MAP_WIDTH = 480;
+    private static final int MAP_HEIGHT = 800;
+
+    private static GeoRect createRect(double maxLatitude, double minLongitude, double minLatitude, double maxLongitude) {
+        return new GeoRect(new GeoPoint(maxLatitude, minLongitude), new GeoPoint(minLatitude, maxLongitude));
+    }
+
+    public void testCornersOfViewPort() {
+        MercatorProjector projector = new MercatorProjector(createRect(60, 30, 59, 31), MAP_WIDTH, MAP_HEIGHT);
+        int[] x = new int[3];
+        int[] y = new int[3];
+        projector.toScreenLocations(new double[]{60, 59, 59.5}, new double[]{30, 31, 30.5}, x, y);
+
+        assertEquals(0, x[0]);
+        assertEquals(0, y[0]);
+        assertEquals(MAP_WIDTH, x[1]);
+        assertEquals(MAP_HEIGHT, y[1]);
+        assertEquals(MAP_WIDTH / 2, x[2]);
+        // Mercator stretches northern part
+        assertTrue(y[2] > MAP_HEIGHT / 2);
+    }
+
+    public void testViewPortAcross180Meridian() {
+        MercatorProjector projector = new MercatorProjector(createRect(10, 170, -10, -170), MAP_WIDTH, MAP_HEIGHT);
+        int[] x = new int[2];
+        int[] y = new int[2];
+        projector.toScreenLocations(new double[]{0, 0}, new double[]{180, -175}, x, y);
+
+        assertEquals(MAP_WIDTH / 2, x[0]);
+        assertEquals(MAP_WIDTH * 3 / 4, x[1]);
+    }
+
+    public void testFromScreenLocationIsReverse() {
+        MercatorProjector projector = new MercatorProjector(createRect(55.8, 37.5, 55.7, 37.7), MAP_WIDTH, MAP_HEIGHT);
+        int[] x = new int[1];
+        int[] y = new int[1];
+        projector.toScreenLocations(new double[]{55.75}, new double[]{37.6123}, x, y);
+        GeoPoint point = projector.fromScreenLocation(x[0], y[0]);
+
+        // one pixel is less than 0.001 degree
+        assertEquals(55.75, point.getLatitude(), 1E-3);
+        assertEquals(37.6123, point.getLongitude(), 1E-3);
+    }
+
+    public void testTileArea() {
+        GeoRect world = MercatorProjector.getTileArea(0, 0, 0);
+        assertEquals(-180, world.tl.getLongitude(), 1E-9);
+        assertEquals(180, world.br.getLongitude(), 1E-9);
+        assertEquals(85.0511, world.tl.getLatitude(), 1E-4);
+        assertEquals(-85.0511, world.br.getLatitude(), 1E-4);
+
+        // south-east quarter of the world
+        GeoRect tile = MercatorProjector.getTileArea(1, 1, 1);
+        assertEquals(0, tile.tl.getLatitude(), 1E-9);
+        assertEquals(0, tile.tl.getLongitude(), 1E-9);
+        assertEquals(180, tile.br.getLongitude(), 1E-9);
+    }
+}
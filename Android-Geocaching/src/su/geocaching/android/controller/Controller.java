@@ -9,8 +9,11 @@ import android.os.Vibrator;
 import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
+import su.geocaching.android.controller.apimanager.GeoCacheDiskStorage;
 import su.geocaching.android.controller.apimanager.GeocachingSuApiManager;
 import su.geocaching.android.controller.apimanager.IApiManager;
+import su.geocaching.android.controller.apimanager.NetworkScheduler;
+import su.geocaching.android.controller.apimanager.PhotoDownloadScheduler;
 import su.geocaching.android.controller.managers.*;
 import su.geocaching.android.model.GeoCache;
 import su.geocaching.android.ui.BuildConfig;
@@ -36,6 +39,9 @@ public class Controller {
     private Context applicationContext;
 
     private IApiManager apiManager;
+    private PhotoDownloadScheduler photoDownloadScheduler;
+    private NetworkScheduler networkScheduler;
+    private GeoCacheDiskStorage geoCacheDiskStorage;
 
     private AccurateUserLocationManager locationManager;
     private LowPowerUserLocationManager lowPowerLocationManager;
@@ -98,6 +104,39 @@ public class Controller {
         return apiManager;
     }
 
+    /**
+     * @return scheduler which downloads photos of geocaches in order of their priority
+     */
+    public synchronized PhotoDownloadScheduler getPhotoDownloadScheduler() {
+        if (photoDownloadScheduler == null) {
+            LogManager.d(TAG, "photo download scheduler wasn't init yet. init.");
+            photoDownloadScheduler = new PhotoDownloadScheduler();
+        }
+        return photoDownloadScheduler;
+    }
+
+    /**
+     * @return scheduler which collects background network jobs into bursts
+     */
+    public synchronized NetworkScheduler getNetworkScheduler() {
+        if (networkScheduler == null) {
+            LogManager.d(TAG, "network scheduler wasn't init yet. init.");
+            networkScheduler = new NetworkScheduler();
+        }
+        return networkScheduler;
+    }
+
+    /**
+     * @return storage of downloaded lists of geocaches which is kept between runs of application
+     */
+    public synchronized GeoCacheDiskStorage getGeoCacheDiskStorage() {
+        if (geoCacheDiskStorage == null) {
+            LogManager.d(TAG, "geocache disk storage wasn't init yet. init.");
+            geoCacheDiskStorage = new GeoCacheDiskStorage(applicationContext);
+        }
+        return geoCacheDiskStorage;
+    }
+
     /**
      * @return connection manager which can send to IConnectionAware updates of Internet connection status
      */
@@ -332,6 +371,19 @@ public class Controller {
 
     public void onTerminate() {
         dbManager.close();
+        if (geoCacheDiskStorage != null) {
+            geoCacheDiskStorage.close();
+        }
+    }
+
+    /**
+     * Releases memory caches when system asks application to trim memory
+     *
+     * @param level
+     *         one of ComponentCallbacks2.TRIM_MEMORY_* levels
+     */
+    public void onTrimMemory(int level) {
+        getApiManager().trimMemory(MemoryManager.getKeptShare(level));
     }
 
     public synchronized SelectMapViewModel getSelectMapViewModel() {
@@ -14,6 +14,21 @@ public class GeocachingApplication extends Application {
         Controller.getInstance().setApplicationContext(getApplicationContext());
     }
 
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        Controller.getInstance().onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    /**
+     * Called since API 14 only, older versions get onLowMemory
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        Controller.getInstance().onTrimMemory(level);
+    }
+
     @Override
     public void onTerminate() {
         super.onTerminate();
@@ -16,6 +16,8 @@ public class AdvancedDownloadInfoTask extends AsyncTask<Void, Void, String> {
     private static final String TAG = AdvancedDownloadInfoTask.class.getCanonicalName();
 
     private InfoViewModel infoViewModel;
+    // stored with text when task is finished
+    private final HttpValidators validators = new HttpValidators();
 
 
     public AdvancedDownloadInfoTask(InfoViewModel infoViewModel) {
@@ -29,7 +31,11 @@ public class AdvancedDownloadInfoTask extends AsyncTask<Void, Void, String> {
 
     @Override
     protected String doInBackground(Void... arg0) {
-        String cacheInfo = Controller.getInstance().getApiManager().getInfo(this.infoViewModel.getGeoCachceId());
+        String cacheInfo = Controller.getInstance().getApiManager().getInfo(this.infoViewModel.getGeoCachceId(), validators);
+        if (cacheInfo == IApiManager.NOT_MODIFIED) {
+            // stored text already contains checkpoint links
+            return Controller.getInstance().getDbManager().getCacheInfoById(this.infoViewModel.getGeoCachceId());
+        }
         if (cacheInfo != null) {
             cacheInfo = CheckpointManager.insertCheckpointsLink(cacheInfo);
         }
@@ -45,6 +51,6 @@ public class AdvancedDownloadInfoTask extends AsyncTask<Void, Void, String> {
             return;
         }
 
-        this.infoViewModel.geocacheInfoDownloaded(result);
+        this.infoViewModel.geocacheInfoDownloaded(result, validators);
     }
 }
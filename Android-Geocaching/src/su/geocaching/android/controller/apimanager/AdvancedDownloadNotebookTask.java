@@ -17,6 +17,8 @@ public class AdvancedDownloadNotebookTask extends AsyncTask<Void, Void, String>
     private static final String TAG = AdvancedDownloadNotebookTask.class.getCanonicalName();
 
     private InfoViewModel infoViewModel;
+    // stored with text when task is finished
+    private final HttpValidators validators = new HttpValidators();
 
     public AdvancedDownloadNotebookTask(InfoViewModel infoViewModel) {
         this.infoViewModel = infoViewModel;
@@ -29,7 +31,11 @@ public class AdvancedDownloadNotebookTask extends AsyncTask<Void, Void, String>
 
     @Override
     protected String doInBackground(Void... arg0) {
-        String cacheNotebook = Controller.getInstance().getApiManager().getNotebook(this.infoViewModel.getGeoCachceId());
+        String cacheNotebook = Controller.getInstance().getApiManager().getNotebook(this.infoViewModel.getGeoCachceId(), validators);
+        if (cacheNotebook == IApiManager.NOT_MODIFIED) {
+            // stored text already contains checkpoint links
+            return Controller.getInstance().getDbManager().getCacheNotebookTextById(this.infoViewModel.getGeoCachceId());
+        }
         if (cacheNotebook != null) {
             cacheNotebook = CheckpointManager.insertCheckpointsLink(cacheNotebook);
         }
@@ -45,6 +51,6 @@ public class AdvancedDownloadNotebookTask extends AsyncTask<Void, Void, String>
             return;
         }
 
-        this.infoViewModel.geocacheNotebookDownloaded(result);
+        this.infoViewModel.geocacheNotebookDownloaded(result, validators);
     }
 }
@@ -19,6 +19,8 @@ public class AdvancedDownloadPhotoUrlsTask extends AsyncTask<Void, Void, List<UR
     private static final String TAG = AdvancedDownloadPhotoUrlsTask.class.getCanonicalName();
 
     private InfoViewModel infoViewModel;
+    // stored with list when task is finished
+    private final HttpValidators validators = new HttpValidators();
 
     public AdvancedDownloadPhotoUrlsTask(InfoViewModel infoViewModel) {
         this.infoViewModel = infoViewModel;
@@ -31,7 +33,7 @@ public class AdvancedDownloadPhotoUrlsTask extends AsyncTask<Void, Void, List<UR
 
     @Override
     protected List<URL> doInBackground(Void... arg0) {
-        List<URL> photoList = Controller.getInstance().getApiManager().getPhotoList(this.infoViewModel.getGeoCachceId());
+        List<URL> photoList = Controller.getInstance().getApiManager().getPhotoList(this.infoViewModel.getGeoCachceId(), validators);
         return photoList;
     }
 
@@ -44,6 +46,6 @@ public class AdvancedDownloadPhotoUrlsTask extends AsyncTask<Void, Void, List<UR
             return;
         }
 
-        this.infoViewModel.geocachePhotoListDownloaded(result);
+        this.infoViewModel.geocachePhotoListDownloaded(result, validators);
     }
 }
@@ -8,6 +8,8 @@ import su.geocaching.android.model.GeoCacheType;
 import su.geocaching.android.ui.selectmap.SelectMapViewModel;
 
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -16,8 +18,12 @@ import java.util.ListIterator;
  *
  * @author Nikita Bumakov
  */
-public class DownloadGeoCachesTask extends AsyncTask<GeoRect, Integer, List<GeoCache>> {
+public class DownloadGeoCachesTask extends AsyncTask<GeoRect, List<GeoCache>, List<GeoCache>> {
     private final SelectMapViewModel selectMapViewModel;
+    // ids of geocaches which were already published, parts of the list can overlap
+    private final HashSet<Integer> publishedIds = new HashSet<Integer>();
+    // false if list of some parts of the area failed to download
+    private boolean isComplete;
 
     public DownloadGeoCachesTask(SelectMapViewModel selectMapViewModel) {
         this.selectMapViewModel = selectMapViewModel;
@@ -25,11 +31,38 @@ public class DownloadGeoCachesTask extends AsyncTask<GeoRect, Integer, List<GeoC
 
     @Override
     protected List<GeoCache> doInBackground(GeoRect... params) {
-        List<GeoCache> gcList = Controller.getInstance().getApiManager().getGeoCacheList(params[0]);
+        List<GeoCache> gcList = Controller.getInstance().getApiManager().getGeoCacheList(params[0], new GeoCacheListListener() {
+            @Override
+            public void onGeoCachesParsed(List<GeoCache> geoCaches) {
+                publishGeoCaches(geoCaches);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return DownloadGeoCachesTask.this.isCancelled();
+            }
+        });
+        if (isCancelled()) return null;
+        isComplete = Controller.getInstance().getApiManager().isGeoCacheListStored(params[0]);
         filterCacheList(gcList);
         return gcList;
     }
 
+    @SuppressWarnings("unchecked")
+    private synchronized void publishGeoCaches(List<GeoCache> geoCaches) {
+        if (isCancelled()) return;
+        List<GeoCache> part = new LinkedList<GeoCache>();
+        for (GeoCache geoCache : geoCaches) {
+            if (publishedIds.add(geoCache.getId())) {
+                part.add(geoCache);
+            }
+        }
+        filterCacheList(part);
+        if (!part.isEmpty()) {
+            publishProgress(part);
+        }
+    }
+
     private synchronized void filterCacheList(List<GeoCache> list) {
         EnumSet<GeoCacheType> typeSet = Controller.getInstance().getPreferencesManager().getTypeFilter();
         EnumSet<GeoCacheStatus> statusSet = Controller.getInstance().getPreferencesManager().getStatusFilter();
@@ -43,8 +76,15 @@ public class DownloadGeoCachesTask extends AsyncTask<GeoRect, Integer, List<GeoC
         }
     }
 
+    @Override
+    protected void onProgressUpdate(List<GeoCache>... parts) {
+        for (List<GeoCache> part : parts) {
+            selectMapViewModel.geocacheListPartDownloaded(this, part);
+        }
+    }
+
     @Override
     protected void onPostExecute(List<GeoCache> gcList) {
-        selectMapViewModel.geocacheListDownloaded(gcList);
+        selectMapViewModel.geocacheListDownloaded(this, gcList, isComplete);
     }
 }
@@ -0,0 +1,498 @@
+package su.geocaching.android.controller.apimanager;
+
+import su.geocaching.android.model.GeoCache;
+import su.geocaching.android.model.GeoCacheStatus;
+import su.geocaching.android.model.GeoCacheType;
+import su.geocaching.android.model.GeoPoint;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact storage of geocaches in primitive arrays: every field of geocache is a column, geocache is a slot
+ * in all columns. Coordinates are kept in E6 format, names share one char pool. GeoCache objects are created
+ * only for geocaches returned by query, so large sets of geocaches take a few dozens of bytes per geocache.
+ * <p/>
+ * Every geocache has reference counter, geocache is removed when it is released as many times as it was retained.
+ * Geocaches are indexed by fixed lat/lon grid for rectangle queries.
+ */
+class GeoCacheColumnStore {
+
+    private static final double CELL_SIZE = 0.1; // degrees
+    private static final int ROWS = (int) Math.ceil(180 / CELL_SIZE);
+    private static final int COLUMNS = (int) Math.ceil(360 / CELL_SIZE);
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NO_SLOT = -1;
+
+    private static final GeoCacheType[] TYPES = GeoCacheType.values();
+    private static final GeoCacheStatus[] STATUSES = GeoCacheStatus.values();
+
+    // columns
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int[] latitudesE6 = new int[INITIAL_CAPACITY];
+    private int[] longitudesE6 = new int[INITIAL_CAPACITY];
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private byte[] statuses = new byte[INITIAL_CAPACITY];
+    private int[] nameOffsets = new int[INITIAL_CAPACITY];
+    private int[] nameLengths = new int[INITIAL_CAPACITY];
+    private int[] references = new int[INITIAL_CAPACITY];
+
+    // slots below this one were used at least once, free ones are in freeSlots
+    private int slotsUsed;
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeSlotsCount;
+    private int size;
+
+    private char[] namePool = new char[INITIAL_CAPACITY * 16];
+    private int namePoolSize;
+    // chars of removed names, pool is compacted when they take a half of it
+    private int namePoolGarbage;
+
+    // id -> slot, open addressing with linear probing
+    private int[] idKeys = new int[INITIAL_CAPACITY * 2];
+    private int[] idSlots = newIdSlots(INITIAL_CAPACITY * 2);
+
+    private final HashMap<Long, Cell> cells = new HashMap<Long, Cell>();
+
+    /**
+     * Receives slots of geocaches found by query
+     */
+    private interface SlotCollector {
+        void add(int slot);
+    }
+
+    /**
+     * Slots of geocaches which lie in one cell of grid
+     */
+    private static class Cell {
+        private int[] slots = new int[4];
+        private int size;
+
+        private void add(int slot) {
+            if (size == slots.length) {
+                slots = copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        private void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];
+                    return;
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds geocache or increments its reference counter if geocache with the same id is already stored.
+     * Stored fields of geocache are overwritten in the latter case, so downloaded changes are not lost.
+     */
+    public void retain(GeoCache geoCache) {
+        int slot = findSlot(geoCache.getId());
+        if (slot != NO_SLOT) {
+            references[slot]++;
+            update(slot, geoCache);
+            return;
+        }
+
+        slot = allocateSlot();
+        GeoPoint point = geoCache.getGeoPoint();
+        ids[slot] = geoCache.getId();
+        latitudesE6[slot] = (int) Math.round(point.getLatitude() * 1E6);
+        longitudesE6[slot] = (int) Math.round(point.getLongitude() * 1E6);
+        types[slot] = (byte) geoCache.getType().ordinal();
+        statuses[slot] = (byte) geoCache.getStatus().ordinal();
+        references[slot] = 1;
+        putName(slot, geoCache.getName());
+        putSlot(ids[slot], slot);
+        getOrCreateCell(latitudesE6[slot], longitudesE6[slot]).add(slot);
+        size++;
+    }
+
+    /**
+     * Decrements reference counter of geocache and removes geocache if it is not referenced any more
+     */
+    public void release(int id) {
+        int slot = findSlot(id);
+        if (slot == NO_SLOT || --references[slot] > 0) return;
+
+        removeFromCell(slot);
+        removeSlot(id);
+        dropName(slot);
+        if (freeSlotsCount == freeSlots.length) {
+            freeSlots = copyOf(freeSlots, freeSlotsCount * 2);
+        }
+        freeSlots[freeSlotsCount++] = slot;
+        size--;
+    }
+
+    /**
+     * Overwrites fields of stored geocache in place, because geocache could be changed since previous download
+     */
+    private void update(int slot, GeoCache geoCache) {
+        GeoPoint point = geoCache.getGeoPoint();
+        int latitudeE6 = (int) Math.round(point.getLatitude() * 1E6);
+        int longitudeE6 = (int) Math.round(point.getLongitude() * 1E6);
+        if (getCellKey(latitudeE6, longitudeE6) != getCellKey(latitudesE6[slot], longitudesE6[slot])) {
+            removeFromCell(slot);
+            getOrCreateCell(latitudeE6, longitudeE6).add(slot);
+        }
+        latitudesE6[slot] = latitudeE6;
+        longitudesE6[slot] = longitudeE6;
+        types[slot] = (byte) geoCache.getType().ordinal();
+        statuses[slot] = (byte) geoCache.getStatus().ordinal();
+        if (!isSameName(slot, geoCache.getName())) {
+            dropName(slot);
+            putName(slot, geoCache.getName());
+        }
+    }
+
+    private void removeFromCell(int slot) {
+        long key = getCellKey(latitudesE6[slot], longitudesE6[slot]);
+        Cell cell = cells.get(key);
+        cell.remove(slot);
+        if (cell.size == 0) {
+            cells.remove(key);
+        }
+    }
+
+    public void clear() {
+        // slots are filled again from the first one, compaction of name pool must not see their old names
+        Arrays.fill(nameLengths, 0, slotsUsed, NO_SLOT);
+        slotsUsed = 0;
+        freeSlotsCount = 0;
+        size = 0;
+        namePoolSize = 0;
+        namePoolGarbage = 0;
+        idSlots = newIdSlots(idSlots.length);
+        cells.clear();
+    }
+
+    /**
+     * Adds to result all stored geocaches which lie in the rectangle
+     *
+     * @param rect
+     *         search area, may cross 180 meridian
+     * @param result
+     *         list for found geocaches
+     */
+    public void query(GeoRect rect, final List<GeoCache> result) {
+        collect(rect, new SlotCollector() {
+            @Override
+            public void add(int slot) {
+                result.add(createGeoCache(slot));
+            }
+        });
+    }
+
+    /**
+     * Adds to result coordinates of all stored geocaches which lie in the rectangle, GeoCache objects are not created
+     *
+     * @param rect
+     *         search area, may cross 180 meridian
+     */
+    public void queryCoordinates(GeoRect rect, final GeoCacheCoordinates result) {
+        collect(rect, new SlotCollector() {
+            @Override
+            public void add(int slot) {
+                result.add(latitudesE6[slot] / 1E6, longitudesE6[slot] / 1E6);
+            }
+        });
+    }
+
+    private void collect(GeoRect rect, SlotCollector result) {
+        int minRow = getRow(rect.br.getLatitude());
+        int maxRow = getRow(rect.tl.getLatitude());
+        int minColumn = getColumn(rect.tl.getLongitude());
+        int maxColumn = getColumn(rect.br.getLongitude());
+
+        long cellsInRect;
+        if (rect.br.getLongitude() >= rect.tl.getLongitude()) {
+            cellsInRect = (long) (maxRow - minRow + 1) * (maxColumn - minColumn + 1);
+        } else {
+            // rectangle crosses 180 meridian, 4ex 160:-160
+            cellsInRect = (long) (maxRow - minRow + 1) * (COLUMNS - minColumn + maxColumn + 1);
+        }
+
+        if (cellsInRect > cells.size()) {
+            // rectangle is large compared to the number of occupied cells, so walk occupied cells only
+            for (Cell cell : cells.values()) {
+                addContained(cell, rect, result);
+            }
+            return;
+        }
+
+        if (rect.br.getLongitude() >= rect.tl.getLongitude()) {
+            queryCells(minRow, maxRow, minColumn, maxColumn, rect, result);
+        } else {
+            queryCells(minRow, maxRow, minColumn, COLUMNS - 1, rect, result);
+            queryCells(minRow, maxRow, 0, maxColumn, rect, result);
+        }
+    }
+
+    private void queryCells(int minRow, int maxRow, int minColumn, int maxColumn, GeoRect rect, SlotCollector result) {
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                Cell cell = cells.get(getKey(row, column));
+                if (cell != null) {
+                    addContained(cell, rect, result);
+                }
+            }
+        }
+    }
+
+    private void addContained(Cell cell, GeoRect rect, SlotCollector result) {
+        for (int i = 0; i < cell.size; i++) {
+            int slot = cell.slots[i];
+            if (contains(rect, latitudesE6[slot] / 1E6, longitudesE6[slot] / 1E6)) {
+                result.add(slot);
+            }
+        }
+    }
+
+    /**
+     * The same check as {@link GeoRect#contains(GeoPoint)}, without creating of point
+     */
+    private static boolean contains(GeoRect rect, double latitude, double longitude) {
+        if (latitude > rect.tl.getLatitude() || latitude < rect.br.getLatitude()) return false;
+        if (rect.br.getLongitude() > rect.tl.getLongitude()) {
+            return longitude >= rect.tl.getLongitude() && longitude <= rect.br.getLongitude();
+        }
+        return longitude >= rect.tl.getLongitude() || longitude <= rect.br.getLongitude();
+    }
+
+    private GeoCache createGeoCache(int slot) {
+        GeoCache geoCache = new GeoCache();
+        geoCache.setId(ids[slot]);
+        geoCache.setGeoPoint(new GeoPoint(latitudesE6[slot] / 1E6, longitudesE6[slot] / 1E6));
+        geoCache.setType(TYPES[types[slot]]);
+        geoCache.setStatus(STATUSES[statuses[slot]]);
+        if (nameLengths[slot] != NO_SLOT) {
+            geoCache.setName(new String(namePool, nameOffsets[slot], nameLengths[slot]));
+        }
+        return geoCache;
+    }
+
+    private int allocateSlot() {
+        if (freeSlotsCount > 0) {
+            return freeSlots[--freeSlotsCount];
+        }
+        if (slotsUsed == ids.length) {
+            int capacity = slotsUsed * 2;
+            ids = copyOf(ids, capacity);
+            latitudesE6 = copyOf(latitudesE6, capacity);
+            longitudesE6 = copyOf(longitudesE6, capacity);
+            types = copyOf(types, capacity);
+            statuses = copyOf(statuses, capacity);
+            nameOffsets = copyOf(nameOffsets, capacity);
+            nameLengths = copyOf(nameLengths, capacity);
+            references = copyOf(references, capacity);
+        }
+        return slotsUsed++;
+    }
+
+    /**
+     * @param name
+     *         name of geocache, null is kept as length NO_SLOT
+     */
+    private void putName(int slot, String name) {
+        if (name == null) {
+            nameLengths[slot] = NO_SLOT;
+            return;
+        }
+        int length = name.length();
+        if (namePoolSize + length > namePool.length) {
+            if (namePoolGarbage > namePoolSize / 2) {
+                compactNamePool();
+            }
+            if (namePoolSize + length > namePool.length) {
+                char[] pool = new char[Math.max(namePool.length * 2, namePoolSize + length)];
+                System.arraycopy(namePool, 0, pool, 0, namePoolSize);
+                namePool = pool;
+            }
+        }
+        name.getChars(0, length, namePool, namePoolSize);
+        nameOffsets[slot] = namePoolSize;
+        nameLengths[slot] = length;
+        namePoolSize += length;
+    }
+
+    private boolean isSameName(int slot, String name) {
+        if (name == null || nameLengths[slot] == NO_SLOT) {
+            return name == null && nameLengths[slot] == NO_SLOT;
+        }
+        int length = nameLengths[slot];
+        if (name.length() != length) return false;
+        int offset = nameOffsets[slot];
+        for (int i = 0; i < length; i++) {
+            if (namePool[offset + i] != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks name of slot as garbage of pool
+     */
+    private void dropName(int slot) {
+        if (nameLengths[slot] > 0) {
+            namePoolGarbage += nameLengths[slot];
+        }
+        nameLengths[slot] = NO_SLOT;
+    }
+
+    /**
+     * Moves names of stored geocaches to the beginning of pool in place
+     */
+    private void compactNamePool() {
+        // names are moved in order of their offsets, so moved name never overwrites name which is not moved yet
+        int[] slots = new int[size];
+        int count = 0;
+        for (int slot = 0; slot < slotsUsed; slot++) {
+            // names of free slots are already dropped
+            if (nameLengths[slot] > 0) {
+                slots[count++] = slot;
+            }
+        }
+        sortByNameOffset(slots, count);
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = slots[i];
+            System.arraycopy(namePool, nameOffsets[slot], namePool, offset, nameLengths[slot]);
+            nameOffsets[slot] = offset;
+            offset += nameLengths[slot];
+        }
+        namePoolSize = offset;
+        namePoolGarbage = 0;
+    }
+
+    private void sortByNameOffset(int[] slots, int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) nameOffsets[slots[i]] << 32) | slots[i];
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < count; i++) {
+            slots[i] = (int) keys[i];
+        }
+    }
+
+    private Cell getOrCreateCell(int latitudeE6, int longitudeE6) {
+        long key = getCellKey(latitudeE6, longitudeE6);
+        Cell cell = cells.get(key);
+        if (cell == null) {
+            cell = new Cell();
+            cells.put(key, cell);
+        }
+        return cell;
+    }
+
+    private int findSlot(int id) {
+        int mask = idKeys.length - 1;
+        for (int i = hash(id) & mask; idSlots[i] != NO_SLOT; i = (i + 1) & mask) {
+            if (idKeys[i] == id) return idSlots[i];
+        }
+        return NO_SLOT;
+    }
+
+    private void putSlot(int id, int slot) {
+        // keep the table at most half full, so probe sequences are short
+        if (size * 2 >= idKeys.length) {
+            int[] oldKeys = idKeys;
+            int[] oldSlots = idSlots;
+            idKeys = new int[oldKeys.length * 2];
+            idSlots = newIdSlots(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldSlots[i] != NO_SLOT) {
+                    insertSlot(oldKeys[i], oldSlots[i]);
+                }
+            }
+        }
+        insertSlot(id, slot);
+    }
+
+    private void insertSlot(int id, int slot) {
+        int mask = idKeys.length - 1;
+        int i = hash(id) & mask;
+        while (idSlots[i] != NO_SLOT) {
+            i = (i + 1) & mask;
+        }
+        idKeys[i] = id;
+        idSlots[i] = slot;
+    }
+
+    /**
+     * Removes id from table and shifts back following entries of its probe sequence, so no tombstones are needed
+     */
+    private void removeSlot(int id) {
+        int mask = idKeys.length - 1;
+        int i = hash(id) & mask;
+        while (idKeys[i] != id || idSlots[i] == NO_SLOT) {
+            if (idSlots[i] == NO_SLOT) return;
+            i = (i + 1) & mask;
+        }
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (idSlots[j] == NO_SLOT) break;
+            int home = hash(idKeys[j]) & mask;
+            // entry j can be moved to i if its home position is not in cyclic interval (i, j]
+            boolean between = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!between) {
+                idKeys[i] = idKeys[j];
+                idSlots[i] = idSlots[j];
+                i = j;
+            }
+        }
+        idSlots[i] = NO_SLOT;
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int[] newIdSlots(int length) {
+        int[] slots = new int[length];
+        Arrays.fill(slots, NO_SLOT);
+        return slots;
+    }
+
+    private static long getCellKey(int latitudeE6, int longitudeE6) {
+        return getKey(getRow(latitudeE6 / 1E6), getColumn(longitudeE6 / 1E6));
+    }
+
+    private static int getRow(double latitude) {
+        int row = (int) Math.floor((latitude + 90) / CELL_SIZE);
+        return Math.max(0, Math.min(ROWS - 1, row));
+    }
+
+    private static int getColumn(double longitude) {
+        int column = (int) Math.floor((longitude + 180) / CELL_SIZE);
+        return Math.max(0, Math.min(COLUMNS - 1, column));
+    }
+
+    private static long getKey(int row, int column) {
+        return ((long) row << 32) | column;
+    }
+
+    // Arrays.copyOf is available since API 9 only
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    private static byte[] copyOf(byte[] array, int length) {
+        byte[] copy = new byte[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+}
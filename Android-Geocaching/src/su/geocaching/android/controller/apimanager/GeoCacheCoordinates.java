@@ -0,0 +1,49 @@
+package su.geocaching.android.controller.apimanager;
+
+/**
+ * Coordinates of geocaches without other fields. It is used for drawing of large number of geocaches,
+ * where GeoCache objects would take too much memory.
+ */
+public class GeoCacheCoordinates {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return latitudes of geocaches, only the first {@link #size()} of them are valid
+     */
+    public double[] getLatitudes() {
+        return latitudes;
+    }
+
+    /**
+     * @return longitudes of geocaches, only the first {@link #size()} of them are valid
+     */
+    public double[] getLongitudes() {
+        return longitudes;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    void add(double latitude, double longitude) {
+        if (size == latitudes.length) {
+            double[] newLatitudes = new double[size * 2];
+            double[] newLongitudes = new double[size * 2];
+            System.arraycopy(latitudes, 0, newLatitudes, 0, size);
+            System.arraycopy(longitudes, 0, newLongitudes, 0, size);
+            latitudes = newLatitudes;
+            longitudes = newLongitudes;
+        }
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        size++;
+    }
+}
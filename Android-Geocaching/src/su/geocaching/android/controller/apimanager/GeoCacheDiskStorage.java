@@ -0,0 +1,216 @@
+package su.geocaching.android.controller.apimanager;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import su.geocaching.android.controller.managers.LogManager;
+import su.geocaching.android.model.GeoCache;
+import su.geocaching.android.model.GeoCacheStatus;
+import su.geocaching.android.model.GeoCacheType;
+import su.geocaching.android.model.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps downloaded lists of geocaches between runs of application. Rectangles which were downloaded are stored
+ * with time of download:
+ * <ul>
+ * <li>rectangle downloaded less than {@link #FRESH_AGE_MS} ago is treated as downloaded and is not requested again</li>
+ * <li>geocaches of older rectangles are shown at once, while the list is downloaded again</li>
+ * <li>geocaches and rectangles older than {@link #MAX_AGE_MS} are deleted</li>
+ * </ul>
+ * Coordinates are stored in E6 format and indexed, so rectangle queries don't scan the whole table.
+ * Database is separate from database of favorite geocaches, it can be dropped at any time.
+ */
+public class GeoCacheDiskStorage extends SQLiteOpenHelper {
+    private static final String TAG = GeoCacheDiskStorage.class.getCanonicalName();
+
+    public static final long FRESH_AGE_MS = 60 * 60 * 1000L;
+    public static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static final String DATABASE_NAME_BASE = "CacheListBase.db";
+    private static final String DATABASE_CACHES_NAME_TABLE = "list_caches";
+    private static final String DATABASE_RECTS_NAME_TABLE = "list_rects";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String COLUMN_ID = "cid";
+    private static final String COLUMN_NAME = "name";
+    private static final String COLUMN_TYPE = "type";
+    private static final String COLUMN_STATUS = "status";
+    private static final String COLUMN_LAT = "lat";
+    private static final String COLUMN_LON = "lon";
+    private static final String COLUMN_TOP = "max_lat";
+    private static final String COLUMN_BOTTOM = "min_lat";
+    private static final String COLUMN_LEFT = "min_lon";
+    private static final String COLUMN_RIGHT = "max_lon";
+    private static final String COLUMN_UPDATED = "updated";
+
+    private static final String SQL_CREATE_CACHES_TABLE = String.format(
+            "CREATE TABLE %s (%s INTEGER PRIMARY KEY, %s STRING, %s INTEGER, %s INTEGER, %s INTEGER, %s INTEGER, %s INTEGER);",
+            DATABASE_CACHES_NAME_TABLE, COLUMN_ID, COLUMN_NAME, COLUMN_TYPE, COLUMN_STATUS, COLUMN_LAT, COLUMN_LON, COLUMN_UPDATED);
+    private static final String SQL_CREATE_CACHES_INDEX = String.format(
+            "CREATE INDEX %s_%s_%s ON %s (%s, %s);",
+            DATABASE_CACHES_NAME_TABLE, COLUMN_LAT, COLUMN_LON, DATABASE_CACHES_NAME_TABLE, COLUMN_LAT, COLUMN_LON);
+    private static final String SQL_CREATE_RECTS_TABLE = String.format(
+            "CREATE TABLE %s (%s INTEGER, %s INTEGER, %s INTEGER, %s INTEGER, %s INTEGER);",
+            DATABASE_RECTS_NAME_TABLE, COLUMN_TOP, COLUMN_LEFT, COLUMN_BOTTOM, COLUMN_RIGHT, COLUMN_UPDATED);
+
+    private SQLiteDatabase db;
+
+    public GeoCacheDiskStorage(Context context) {
+        super(context, DATABASE_NAME_BASE, null, DATABASE_VERSION);
+        db = getWritableDatabase();
+        deleteExpired();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL(SQL_CREATE_CACHES_TABLE);
+            db.execSQL(SQL_CREATE_CACHES_INDEX);
+            db.execSQL(SQL_CREATE_RECTS_TABLE);
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            LogManager.e(TAG, e.toString(), e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // stored lists can be downloaded again
+        db.execSQL("DROP TABLE IF EXISTS " + DATABASE_CACHES_NAME_TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + DATABASE_RECTS_NAME_TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * @return stored geocaches in the rectangle, including geocaches of rectangles which are not fresh any more
+     */
+    public synchronized List<GeoCache> getCaches(GeoRect rect) {
+        List<GeoCache> geoCaches = new ArrayList<GeoCache>();
+        for (GeoRect part : rect.split()) {
+            Cursor cursor = db.query(DATABASE_CACHES_NAME_TABLE, new String[]{COLUMN_ID, COLUMN_NAME, COLUMN_TYPE, COLUMN_STATUS, COLUMN_LAT, COLUMN_LON},
+                    String.format("%s BETWEEN ? AND ? AND %s BETWEEN ? AND ?", COLUMN_LAT, COLUMN_LON), getRange(part), null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    GeoCache geoCache = new GeoCache();
+                    geoCache.setId(cursor.getInt(0));
+                    geoCache.setName(cursor.getString(1));
+                    geoCache.setType(GeoCacheType.values()[cursor.getInt(2)]);
+                    geoCache.setStatus(GeoCacheStatus.values()[cursor.getInt(3)]);
+                    geoCache.setGeoPoint(new GeoPoint(cursor.getInt(4) / 1E6, cursor.getInt(5) / 1E6));
+                    geoCaches.add(geoCache);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        LogManager.d(TAG, "%d geocaches of %s are stored on disk", geoCaches.size(), rect);
+        return geoCaches;
+    }
+
+    /**
+     * @return rectangles which intersect the given one and were downloaded less than {@link #FRESH_AGE_MS} ago.
+     *         Returned rectangles don't cross 180 meridian.
+     */
+    public synchronized List<GeoRect> getFreshRects(GeoRect rect) {
+        List<GeoRect> rects = new ArrayList<GeoRect>();
+        String freshTime = Long.toString(System.currentTimeMillis() - FRESH_AGE_MS);
+        for (GeoRect part : rect.split()) {
+            Cursor cursor = db.query(DATABASE_RECTS_NAME_TABLE, new String[]{COLUMN_TOP, COLUMN_LEFT, COLUMN_BOTTOM, COLUMN_RIGHT},
+                    String.format("%s > ? AND %s < ? AND %s > ? AND %s < ? AND %s > ?", COLUMN_TOP, COLUMN_BOTTOM, COLUMN_RIGHT, COLUMN_LEFT, COLUMN_UPDATED),
+                    new String[]{toE6String(part.br.getLatitude()), toE6String(part.tl.getLatitude()),
+                            toE6String(part.tl.getLongitude()), toE6String(part.br.getLongitude()), freshTime},
+                    null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    rects.add(new GeoRect(new GeoPoint(cursor.getInt(0) / 1E6, cursor.getInt(1) / 1E6),
+                            new GeoPoint(cursor.getInt(2) / 1E6, cursor.getInt(3) / 1E6)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return rects;
+    }
+
+    /**
+     * Stores downloaded list of the rectangle. Stored geocaches of the rectangle which are not in the list
+     * any more are deleted.
+     */
+    public synchronized void addCaches(List<GeoCache> geoCaches, GeoRect rect) {
+        long now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (GeoRect part : rect.split()) {
+                String[] range = getRange(part);
+                db.delete(DATABASE_CACHES_NAME_TABLE, String.format("%s BETWEEN ? AND ? AND %s BETWEEN ? AND ?", COLUMN_LAT, COLUMN_LON), range);
+                // older rectangles which are covered by the new one are not needed
+                db.delete(DATABASE_RECTS_NAME_TABLE, String.format("%s >= ? AND %s <= ? AND %s >= ? AND %s <= ?", COLUMN_BOTTOM, COLUMN_TOP, COLUMN_LEFT, COLUMN_RIGHT), range);
+
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_TOP, toE6(part.tl.getLatitude()));
+                values.put(COLUMN_LEFT, toE6(part.tl.getLongitude()));
+                values.put(COLUMN_BOTTOM, toE6(part.br.getLatitude()));
+                values.put(COLUMN_RIGHT, toE6(part.br.getLongitude()));
+                values.put(COLUMN_UPDATED, now);
+                db.insert(DATABASE_RECTS_NAME_TABLE, null, values);
+            }
+
+            ContentValues values = new ContentValues();
+            for (GeoCache geoCache : geoCaches) {
+                values.clear();
+                values.put(COLUMN_ID, geoCache.getId());
+                values.put(COLUMN_NAME, geoCache.getName());
+                values.put(COLUMN_TYPE, geoCache.getType().ordinal());
+                values.put(COLUMN_STATUS, geoCache.getStatus().ordinal());
+                values.put(COLUMN_LAT, toE6(geoCache.getGeoPoint().getLatitude()));
+                values.put(COLUMN_LON, toE6(geoCache.getGeoPoint().getLongitude()));
+                values.put(COLUMN_UPDATED, now);
+                db.replace(DATABASE_CACHES_NAME_TABLE, null, values);
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLException e) {
+            LogManager.e(TAG, e.toString(), e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public synchronized void deleteExpired() {
+        String[] expiredTime = new String[]{Long.toString(System.currentTimeMillis() - MAX_AGE_MS)};
+        int caches = db.delete(DATABASE_CACHES_NAME_TABLE, COLUMN_UPDATED + " < ?", expiredTime);
+        int rects = db.delete(DATABASE_RECTS_NAME_TABLE, COLUMN_UPDATED + " < ?", expiredTime);
+        LogManager.d(TAG, "Expired geocaches deleted: %d, rectangles: %d", caches, rects);
+    }
+
+    public synchronized void clear() {
+        db.delete(DATABASE_CACHES_NAME_TABLE, null, null);
+        db.delete(DATABASE_RECTS_NAME_TABLE, null, null);
+    }
+
+    /**
+     * @param rect
+     *         rectangle which doesn't cross 180 meridian
+     * @return arguments for "lat BETWEEN ? AND ? AND lon BETWEEN ? AND ?"
+     */
+    private static String[] getRange(GeoRect rect) {
+        return new String[]{toE6String(rect.br.getLatitude()), toE6String(rect.tl.getLatitude()),
+                toE6String(rect.tl.getLongitude()), toE6String(rect.br.getLongitude())};
+    }
+
+    private static int toE6(double degrees) {
+        return (int) Math.round(degrees * 1E6);
+    }
+
+    private static String toE6String(double degrees) {
+        return Integer.toString(toE6(degrees));
+    }
+}
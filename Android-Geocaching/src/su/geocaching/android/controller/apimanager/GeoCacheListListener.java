@@ -0,0 +1,19 @@
+package su.geocaching.android.controller.apimanager;
+
+import su.geocaching.android.model.GeoCache;
+
+import java.util.List;
+
+/**
+ * Receives parts of geocache list while it is being downloaded. Can be called from several threads.
+ */
+public interface GeoCacheListListener {
+
+    void onGeoCachesParsed(List<GeoCache> geoCaches);
+
+    /**
+     * @return true if result is not needed any more. Download is aborted when all requests which wait for it
+     *         are cancelled.
+     */
+    boolean isCancelled();
+}
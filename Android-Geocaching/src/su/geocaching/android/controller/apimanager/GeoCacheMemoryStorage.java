@@ -3,50 +3,238 @@ package su.geocaching.android.controller.apimanager;
 import su.geocaching.android.controller.managers.LogManager;
 import su.geocaching.android.model.GeoCache;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+/**
+ * Keeps downloaded geocaches and rectangles which are covered by downloads. Memory is limited by number
+ * of geocaches: when it is exceeded, least recently used rectangles are dropped together with their geocaches,
+ * so dropped area is not treated as covered any more and is downloaded again when needed.
+ * Geocaches are kept in compact {@link GeoCacheColumnStore}, GeoCache objects are created only by getCaches.
+ */
 public class GeoCacheMemoryStorage {
-    private HashSet<GeoCache> geoCaches = new HashSet<GeoCache>();
-    private List<GeoRect> rectangles = new LinkedList<GeoRect>();
+    // every geocache is retained once by each region which contains it
+    private GeoCacheColumnStore geoCaches = new GeoCacheColumnStore();
+    // least recently used region is the first one
+    private LinkedList<Region> regions = new LinkedList<Region>();
+    private final int maxCaches;
 
     private static final String TAG = GeoCacheMemoryStorage.class.getCanonicalName();
+    // if uncovered area splits into more parts, the parts are fetched as their bounding rectangle
+    private static final int MAX_UNCOVERED_PARTS = 4;
+    // rough size of geocache in column store with its name and index entries
+    private static final int ESTIMATED_CACHE_BYTES = 100;
+    // part of heap which can be taken by stored geocaches
+    private static final int HEAP_SHARE_DIVIDER = 16;
+    private static final int MIN_CACHES = 500;
 
-    public boolean isRectangleStored(GeoRect newRect) {
-        for (GeoRect rect : rectangles) {
-            if (rect.contains(newRect)) return true;
+    /**
+     * Downloaded rectangle with ids of geocaches which were downloaded for it
+     */
+    private static class Region {
+        private final GeoRect rect;
+        private int[] ids = new int[0];
+        private int size;
+
+        private Region(GeoRect rect) {
+            this.rect = rect;
+        }
+
+        private void add(int id) {
+            if (size == ids.length) {
+                int[] newIds = new int[Math.max(16, size * 2)];
+                System.arraycopy(ids, 0, newIds, 0, size);
+                ids = newIds;
+            }
+            ids[size++] = id;
+        }
+    }
+
+    public GeoCacheMemoryStorage() {
+        this(getDefaultMaxCaches());
+    }
+
+    /**
+     * @param maxCaches
+     *         number of geocaches after which least recently used rectangles are dropped
+     */
+    public GeoCacheMemoryStorage(int maxCaches) {
+        this.maxCaches = maxCaches;
+    }
+
+    private static int getDefaultMaxCaches() {
+        long budget = Runtime.getRuntime().maxMemory() / HEAP_SHARE_DIVIDER;
+        return (int) Math.max(MIN_CACHES, Math.min(Integer.MAX_VALUE, budget / ESTIMATED_CACHE_BYTES));
+    }
+
+    public synchronized boolean isRectangleStored(GeoRect newRect) {
+        for (Region region : regions) {
+            if (region.rect.contains(newRect)) return true;
+        }
+        return getUncoveredRects(newRect).isEmpty();
+    }
+
+    /**
+     * Calculates which parts of the rectangle are not covered by union of stored rectangles
+     *
+     * @param newRect
+     *         requested rectangle
+     * @return list of rectangles which have to be downloaded. Empty if newRect is fully covered.
+     */
+    public synchronized List<GeoRect> getUncoveredRects(GeoRect newRect) {
+        List<GeoRect> uncovered = newRect.split();
+        for (Region region : regions) {
+            for (GeoRect storedPart : region.rect.split()) {
+                List<GeoRect> rest = new LinkedList<GeoRect>();
+                for (GeoRect part : uncovered) {
+                    rest.addAll(part.subtract(storedPart));
+                }
+                uncovered = rest;
+                if (uncovered.isEmpty()) return uncovered;
+            }
+        }
+
+        if (uncovered.size() > MAX_UNCOVERED_PARTS) {
+            // too fragmented, don't send many tiny requests
+            List<GeoRect> bounds = new LinkedList<GeoRect>();
+            for (GeoRect part : newRect.split()) {
+                List<GeoRect> inPart = new LinkedList<GeoRect>();
+                for (GeoRect rect : uncovered) {
+                    if (part.contains(rect)) inPart.add(rect);
+                }
+                if (!inPart.isEmpty()) bounds.add(GeoRect.getBounds(inPart));
+            }
+            uncovered = bounds;
         }
-        return false;
+        LogManager.d(TAG, "Uncovered parts of %s: %d", newRect, uncovered.size());
+        return uncovered;
     }
 
-    private void addRectangle(GeoRect newRect) {
-        // remove old rectangles if new rectangle covers them
-        Iterator<GeoRect> it = rectangles.iterator();
+    private void addRectangle(Region newRegion) {
+        // remove old rectangles if new rectangle covers them, their geocaches belong to the new one now
+        Iterator<Region> it = regions.iterator();
         while (it.hasNext()) {
-            GeoRect rect = it.next();
-            if (newRect.contains(rect)) it.remove();
+            Region region = it.next();
+            if (newRegion.rect.contains(region.rect)) {
+                it.remove();
+                for (int i = 0; i < region.size; i++) {
+                    newRegion.add(region.ids[i]);
+                }
+            }
         }
+        removeDuplicates(newRegion);
         // add new rectangle
-        rectangles.add(newRect);
+        regions.addLast(newRegion);
     }
 
-    public List<GeoCache> getCaches(GeoRect rect) {
-        List<GeoCache> filteredGeoCaches = new LinkedList<GeoCache>();
-        for (GeoCache gc : geoCaches) {
-            if (rect.contains(gc.getGeoPoint())) {
-                filteredGeoCaches.add(gc);
+    /**
+     * Leaves one reference of region to every geocache
+     */
+    private void removeDuplicates(Region region) {
+        Arrays.sort(region.ids, 0, region.size);
+        int size = 0;
+        for (int i = 0; i < region.size; i++) {
+            if (size > 0 && region.ids[size - 1] == region.ids[i]) {
+                geoCaches.release(region.ids[i]);
+            } else {
+                region.ids[size++] = region.ids[i];
             }
         }
+        region.size = size;
+    }
+
+    public synchronized List<GeoCache> getCaches(GeoRect rect) {
+        List<GeoCache> filteredGeoCaches = new LinkedList<GeoCache>();
+        geoCaches.query(rect, filteredGeoCaches);
+        touch(rect);
         LogManager.d(TAG, "Number of geocaches on the screen: %d", filteredGeoCaches.size());
         return filteredGeoCaches;
     }
 
-    public void addCaches(List<GeoCache> newCaches, GeoRect rect) {
-        geoCaches.addAll(newCaches);
-        addRectangle(rect);
+    /**
+     * Adds coordinates of stored geocaches which lie in the rectangle. Order of rectangles is not changed,
+     * so drawing of stored geocaches doesn't keep them in memory.
+     */
+    public synchronized void getCoordinates(GeoRect rect, GeoCacheCoordinates result) {
+        geoCaches.queryCoordinates(rect, result);
+    }
+
+    /**
+     * Marks rectangle as stored. Used when all parts of the rectangle were downloaded separately.
+     */
+    public synchronized void addStoredRectangle(GeoRect rect) {
+        addRectangle(new Region(rect));
+    }
+
+    public synchronized void addCaches(List<GeoCache> newCaches, GeoRect rect) {
+        Region region = new Region(rect);
+        for (GeoCache gc : newCaches) {
+            geoCaches.retain(gc);
+            region.add(gc.getId());
+        }
+        addRectangle(region);
+        trimToSize(maxCaches);
         LogManager.d(TAG, "%d caches added. Total size of memory cached geocaches: %d", newCaches.size(), geoCaches.size());
     }
-}
 
+    public synchronized int size() {
+        return geoCaches.size();
+    }
+
+    /**
+     * Drops least recently used rectangles until number of geocaches fits the limit.
+     * The most recently used rectangle is always kept.
+     */
+    public synchronized void trimToSize(int maxSize) {
+        int evicted = 0;
+        while (geoCaches.size() > maxSize && regions.size() > 1) {
+            Region region = regions.removeFirst();
+            for (int i = 0; i < region.size; i++) {
+                geoCaches.release(region.ids[i]);
+            }
+            evicted++;
+        }
+        if (evicted > 0) {
+            LogManager.d(TAG, "%d rectangles evicted, %d geocaches left", evicted, geoCaches.size());
+        }
+    }
+
+    /**
+     * Drops part of stored geocaches when system is low on memory
+     *
+     * @param keptShare
+     *         part of stored geocaches which can be kept, from 0 to 1. Everything is dropped if it is 0.
+     */
+    public synchronized void trimMemory(float keptShare) {
+        if (keptShare <= 0) {
+            clear();
+        } else {
+            trimToSize((int) (Math.min(maxCaches, geoCaches.size()) * keptShare));
+        }
+    }
+
+    public synchronized void clear() {
+        geoCaches.clear();
+        regions.clear();
+        LogManager.d(TAG, "Memory storage is cleared");
+    }
+
+    /**
+     * Moves rectangles which intersect the used area to the end of LRU order
+     */
+    private void touch(GeoRect rect) {
+        List<Region> used = new ArrayList<Region>();
+        Iterator<Region> it = regions.iterator();
+        while (it.hasNext()) {
+            Region region = it.next();
+            if (region.rect.intersects(rect)) {
+                it.remove();
+                used.add(region);
+            }
+        }
+        regions.addAll(used);
+    }
+}
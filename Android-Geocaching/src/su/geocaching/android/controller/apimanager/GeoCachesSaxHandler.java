@@ -9,6 +9,7 @@ import su.geocaching.android.model.GeoCacheStatus;
 import su.geocaching.android.model.GeoCacheType;
 import su.geocaching.android.model.GeoPoint;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -32,100 +33,259 @@ import java.util.List;
  *
  * @author Nikita Bumakov
  */
-class GeoCachesSaxHandler extends DefaultHandler {
+public class GeoCachesSaxHandler extends DefaultHandler {
 
     private static final String TAG = GeoCachesSaxHandler.class.getCanonicalName();
 
-    private final static String C = "c";
-    private final static String ID = "id";
-    private final static String CN = "cn";
-    private final static String AREA = "a";
-    private final static String NAME = "n";
-    private final static String LATITUDE = "la";
-    private final static String LONGITUDE = "ln";
-    private final static String CACHE_TYPE = "ct";
-    private final static String STATUS = "st";
+    // tags of the document
+    private static final int UNKNOWN = 0;
+    private static final int C = 1;
+    private static final int ID = 2;
+    private static final int CN = 3;
+    private static final int AREA = 4;
+    private static final int NAME = 5;
+    private static final int LATITUDE = 6;
+    private static final int LONGITUDE = 7;
+    private static final int CACHE_TYPE = 8;
+    private static final int STATUS = 9;
+
+    private static final int BATCH_SIZE = 50;
+    // numbers with more digits are parsed by Double.parseDouble to keep precision
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    /**
+     * Message of exception which aborts parsing when listener is cancelled
+     */
+    public static final String CANCELLED = "Parsing is cancelled";
 
     private GeoCache geoCache;
     private double latitude, longitude;
-    private String text;
+    // text of current element, reused for all elements
+    private char[] text = new char[64];
+    private int textLength;
     private LinkedList<GeoCache> geoCacheList;
+    private final GeoCacheListListener listener;
+    private final boolean internNames;
+    private List<GeoCache> batch;
+
+    public GeoCachesSaxHandler() {
+        this(null);
+    }
+
+    /**
+     * @param listener
+     *         receives parsed geocaches by batches while document is being parsed, may be null
+     */
+    public GeoCachesSaxHandler(GeoCacheListListener listener) {
+        this(listener, false);
+    }
+
+    /**
+     * @param listener
+     *         receives parsed geocaches by batches while document is being parsed, may be null
+     * @param internNames
+     *         intern names of geocaches, useful when the same geocaches are parsed many times
+     */
+    public GeoCachesSaxHandler(GeoCacheListListener listener, boolean internNames) {
+        this.listener = listener;
+        this.internNames = internNames;
+    }
 
     @Override
     public void characters(char[] ch, int start, int length) throws SAXException {
-        text += new String(ch, start, length);
-        super.characters(ch, start, length);
+        if (textLength + length > text.length) {
+            char[] newText = new char[Math.max(text.length * 2, textLength + length)];
+            System.arraycopy(text, 0, newText, 0, textLength);
+            text = newText;
+        }
+        System.arraycopy(ch, start, text, textLength, length);
+        textLength += length;
     }
 
     @Override
     public void startDocument() throws SAXException {
         geoCacheList = new LinkedList<GeoCache>();
-        super.startDocument();
+        batch = new ArrayList<GeoCache>(BATCH_SIZE);
     }
 
     @Override
     public void startElement(String uri, String localName, String name, Attributes attributes) throws SAXException {
-        if (localName.equalsIgnoreCase(C)) {
+        if (getTag(localName) == C) {
             geoCache = new GeoCache();
-        } else {
-            text = "";
         }
-        super.startElement(uri, localName, name, attributes);
+        textLength = 0;
     }
 
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
-        if (text != null) {
-            text = text.trim();
+        switch (getTag(localName)) {
+            case ID:
+                geoCache.setId(parseInt(0));
+                break;
+            case CN:
+                // TODO What is CN?
+                break;
+            case AREA:
+                break;
+            case NAME:
+                geoCache.setName(parseString());
+                break;
+            case LATITUDE:
+                latitude = parseCoordinate();
+                break;
+            case LONGITUDE:
+                longitude = parseCoordinate();
+                break;
+            case CACHE_TYPE:
+                setGeoCacheType(parseInt(1));
+                break;
+            case STATUS:
+                setGeoCacheStatus(parseInt(1));
+                break;
+            case C:
+                geoCache.setGeoPoint(new GeoPoint(latitude, longitude));
+                geoCacheList.add(geoCache);
+                if (listener != null) {
+                    if (listener.isCancelled()) {
+                        throw new SAXException(CANCELLED);
+                    }
+                    batch.add(geoCache);
+                    if (batch.size() >= BATCH_SIZE) {
+                        flushBatch();
+                    }
+                }
+                break;
         }
+        textLength = 0;
+    }
 
-        if (localName.equalsIgnoreCase(ID)) {
-            int id = parseInt(text, 0);
-            geoCache.setId(id);
-        } else if (localName.equalsIgnoreCase(CN)) {
-            // TODO What is CN?
-        } else if (localName.equalsIgnoreCase(AREA)) {
-        } else if (localName.equalsIgnoreCase(NAME)) {
-            geoCache.setName(text);
-        } else if (localName.equalsIgnoreCase(LATITUDE)) {
-            latitude = parseCoordinate(text);
-        } else if (localName.equalsIgnoreCase(LONGITUDE)) {
-            longitude = parseCoordinate(text);
-        } else if (localName.equalsIgnoreCase(CACHE_TYPE)) {
-            int type = parseCacheParameter(text);
-            setGeoCacheType(type);
-        } else if (localName.equalsIgnoreCase(STATUS)) {
-            int status = parseCacheParameter(text);
-            setGeoCacheStatus(status);
-        } else if (localName.equalsIgnoreCase(C)) {
-            geoCache.setGeoPoint(new GeoPoint(latitude, longitude));
-            geoCacheList.add(geoCache);
+    /**
+     * Recognizes tag without allocations, case insensitive
+     */
+    private static int getTag(String localName) {
+        switch (localName.length()) {
+            case 1:
+                switch (Character.toLowerCase(localName.charAt(0))) {
+                    case 'c':
+                        return C;
+                    case 'a':
+                        return AREA;
+                    case 'n':
+                        return NAME;
+                }
+                break;
+            case 2:
+                char first = Character.toLowerCase(localName.charAt(0));
+                char second = Character.toLowerCase(localName.charAt(1));
+                switch (first) {
+                    case 'i':
+                        return second == 'd' ? ID : UNKNOWN;
+                    case 'l':
+                        if (second == 'a') return LATITUDE;
+                        if (second == 'n') return LONGITUDE;
+                        break;
+                    case 'c':
+                        if (second == 'n') return CN;
+                        if (second == 't') return CACHE_TYPE;
+                        break;
+                    case 's':
+                        return second == 't' ? STATUS : UNKNOWN;
+                }
+                break;
         }
+        return UNKNOWN;
+    }
 
-        super.endElement(uri, localName, qName);
+    private int trimStart() {
+        int start = 0;
+        while (start < textLength && text[start] <= ' ') start++;
+        return start;
     }
 
-    private static double parseCoordinate(String coordinate) {
-        double result = 0;
+    private int trimEnd(int start) {
+        int end = textLength;
+        while (end > start && text[end - 1] <= ' ') end--;
+        return end;
+    }
+
+    private String parseString() {
+        int start = trimStart();
+        String result = new String(text, start, trimEnd(start) - start);
+        return internNames ? result.intern() : result;
+    }
+
+    private int parseInt(int defaultValue) {
+        int start = trimStart();
+        int end = trimEnd(start);
+        boolean negative = start < end && text[start] == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end || end - i > 9) {
+            return parseIntSlow(start, end, defaultValue);
+        }
+        int result = 0;
+        for (; i < end; i++) {
+            int digit = text[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return parseIntSlow(start, end, defaultValue);
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    private int parseIntSlow(int start, int end, int defaultValue) {
         try {
-            result = Double.parseDouble(coordinate);
+            defaultValue = Integer.parseInt(new String(text, start, end - start));
         } catch (NumberFormatException e) {
-            LogManager.e(TAG, "parseCoordinate: Invalid numeric format", e);
+            LogManager.e(TAG, "parseInt: Invalid numeric format", e);
         }
-        return result;
+        return defaultValue;
     }
 
-    private static int parseCacheParameter(String parameter) {
-        return parseInt(parameter, 1);
+    /**
+     * Parses decimal number like 59.6952333333. Result is the same as of Double.parseDouble,
+     * because both mantissa and power of ten are exact doubles.
+     */
+    private double parseCoordinate() {
+        int start = trimStart();
+        int end = trimEnd(start);
+        boolean negative = start < end && text[start] == '-';
+        int i = negative ? start + 1 : start;
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            char c = text[i];
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9 || digits >= MAX_FAST_DIGITS) {
+                return parseCoordinateSlow(start, end);
+            }
+            mantissa = mantissa * 10 + digit;
+            digits++;
+            if (fractionDigits >= 0) fractionDigits++;
+        }
+        if (digits == 0) {
+            return parseCoordinateSlow(start, end);
+        }
+
+        double result = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -result : result;
     }
 
-    private static int parseInt(String number, int defaultValue) {
+    private double parseCoordinateSlow(int start, int end) {
+        double result = 0;
         try {
-            defaultValue = Integer.parseInt(number);
+            result = Double.parseDouble(new String(text, start, end - start));
         } catch (NumberFormatException e) {
-            LogManager.e(TAG, "parseInt: Invalid numeric format", e);
+            LogManager.e(TAG, "parseCoordinate: Invalid numeric format", e);
         }
-        return defaultValue;
+        return result;
     }
 
     private void setGeoCacheType(int type) {
@@ -177,8 +337,17 @@ class GeoCachesSaxHandler extends DefaultHandler {
         }
     }
 
+    private void flushBatch() {
+        if (batch.isEmpty()) return;
+        listener.onGeoCachesParsed(batch);
+        batch = new ArrayList<GeoCache>(BATCH_SIZE);
+    }
+
     @Override
     public void endDocument() throws SAXException {
+        if (listener != null) {
+            flushBatch();
+        }
         super.endDocument();
     }
 
@@ -2,6 +2,9 @@ package su.geocaching.android.controller.apimanager;
 
 import su.geocaching.android.model.GeoPoint;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class GeoRect {
 
     public GeoPoint tl;
@@ -51,6 +54,100 @@ public class GeoRect {
         return true;
     }
 
+    /**
+     * @return true if rectangles have common area
+     */
+    public boolean intersects(GeoRect rect) {
+        for (GeoRect part : split()) {
+            for (GeoRect otherPart : rect.split()) {
+                if (Math.min(part.tl.getLatitude(), otherPart.tl.getLatitude()) > Math.max(part.br.getLatitude(), otherPart.br.getLatitude())
+                        && Math.min(part.br.getLongitude(), otherPart.br.getLongitude()) > Math.max(part.tl.getLongitude(), otherPart.tl.getLongitude())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if rectangle crosses 180 meridian, 4ex 160:-160
+     */
+    public boolean isCrossing180() {
+        return br.getLongitude() < tl.getLongitude();
+    }
+
+    /**
+     * Splits rectangle which crosses 180 meridian into two rectangles which don't
+     *
+     * @return list of one or two rectangles which cover this rectangle
+     */
+    public List<GeoRect> split() {
+        List<GeoRect> result = new ArrayList<GeoRect>(2);
+        if (isCrossing180()) {
+            result.add(new GeoRect(tl, new GeoPoint(br.getLatitude(), 180)));
+            result.add(new GeoRect(new GeoPoint(tl.getLatitude(), -180), br));
+        } else {
+            result.add(this);
+        }
+        return result;
+    }
+
+    /**
+     * Subtracts rectangle from this one. Both rectangles must not cross 180 meridian.
+     *
+     * @param rect
+     *         rectangle to subtract
+     * @return list of non-overlapping rectangles which cover the part of this rectangle outside of rect
+     */
+    public List<GeoRect> subtract(GeoRect rect) {
+        List<GeoRect> result = new ArrayList<GeoRect>(4);
+
+        double top = tl.getLatitude();
+        double bottom = br.getLatitude();
+        double left = tl.getLongitude();
+        double right = br.getLongitude();
+
+        double cutTop = Math.min(top, rect.tl.getLatitude());
+        double cutBottom = Math.max(bottom, rect.br.getLatitude());
+        double cutLeft = Math.max(left, rect.tl.getLongitude());
+        double cutRight = Math.min(right, rect.br.getLongitude());
+
+        if (cutTop <= cutBottom || cutRight <= cutLeft) {
+            // no intersection
+            result.add(this);
+            return result;
+        }
+
+        // stripes above and below the intersection take full width, left and right ones take its height
+        if (top > cutTop) {
+            result.add(new GeoRect(new GeoPoint(top, left), new GeoPoint(cutTop, right)));
+        }
+        if (cutBottom > bottom) {
+            result.add(new GeoRect(new GeoPoint(cutBottom, left), new GeoPoint(bottom, right)));
+        }
+        if (cutLeft > left) {
+            result.add(new GeoRect(new GeoPoint(cutTop, left), new GeoPoint(cutBottom, cutLeft)));
+        }
+        if (right > cutRight) {
+            result.add(new GeoRect(new GeoPoint(cutTop, cutRight), new GeoPoint(cutBottom, right)));
+        }
+        return result;
+    }
+
+    /**
+     * @return smallest rectangle which contains all given rectangles. Rectangles must not cross 180 meridian.
+     */
+    public static GeoRect getBounds(List<GeoRect> rects) {
+        double top = -90, bottom = 90, left = 180, right = -180;
+        for (GeoRect rect : rects) {
+            top = Math.max(top, rect.tl.getLatitude());
+            bottom = Math.min(bottom, rect.br.getLatitude());
+            left = Math.min(left, rect.tl.getLongitude());
+            right = Math.max(right, rect.br.getLongitude());
+        }
+        return new GeoRect(new GeoPoint(top, left), new GeoPoint(bottom, right));
+    }
+
     @Override
     public String toString() {
         return String.format("%s : %s", tl, br);
@@ -0,0 +1,59 @@
+package su.geocaching.android.controller.apimanager;
+
+import su.geocaching.android.model.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed lat/lon tile grid used for downloading list of geocaches. Size of tile depends on size of requested area
+ * (zoom band), tiles are aligned to the grid, so the same area always produces the same requests.
+ */
+class GeoTileGrid {
+
+    // tile sizes of zoom bands in degrees, from the smallest
+    private static final double[] TILE_SIZES = {0.125, 0.5, 2, 8};
+    private static final int MAX_TILES_NUMBER = 16;
+
+    /**
+     * @param rect
+     *         requested area
+     * @return list of tiles which cover the area, or null if area is too large for tiles
+     */
+    public static List<GeoRect> getTiles(GeoRect rect) {
+        double latitudeSpan = rect.tl.getLatitude() - rect.br.getLatitude();
+        double longitudeSpan = rect.br.getLongitude() - rect.tl.getLongitude();
+        if (rect.isCrossing180()) {
+            longitudeSpan += 360;
+        }
+        double span = Math.max(latitudeSpan, longitudeSpan);
+
+        for (double tileSize : TILE_SIZES) {
+            if (tileSize * 2 < span) continue;
+
+            List<GeoRect> tiles = new ArrayList<GeoRect>();
+            for (GeoRect part : rect.split()) {
+                addTiles(part, tileSize, tiles);
+            }
+            return tiles.size() <= MAX_TILES_NUMBER ? tiles : null;
+        }
+        return null;
+    }
+
+    private static void addTiles(GeoRect rect, double tileSize, List<GeoRect> tiles) {
+        int minRow = (int) Math.floor((rect.br.getLatitude() + 90) / tileSize);
+        int maxRow = (int) Math.ceil((rect.tl.getLatitude() + 90) / tileSize);
+        int minColumn = (int) Math.floor((rect.tl.getLongitude() + 180) / tileSize);
+        int maxColumn = (int) Math.ceil((rect.br.getLongitude() + 180) / tileSize);
+
+        for (int row = minRow; row < Math.max(maxRow, minRow + 1); row++) {
+            double bottom = Math.max(-90, row * tileSize - 90);
+            double top = Math.min(90, (row + 1) * tileSize - 90);
+            for (int column = minColumn; column < Math.max(maxColumn, minColumn + 1); column++) {
+                double left = Math.max(-180, column * tileSize - 180);
+                double right = Math.min(180, (column + 1) * tileSize - 180);
+                tiles.add(new GeoRect(new GeoPoint(top, left), new GeoPoint(bottom, right)));
+            }
+        }
+    }
+}
@@ -1,13 +1,9 @@
 package su.geocaching.android.controller.apimanager;
 
-import android.net.http.AndroidHttpClient;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.HttpGet;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import su.geocaching.android.controller.Controller;
+import su.geocaching.android.controller.managers.DbManager;
 import su.geocaching.android.controller.managers.LogManager;
 import su.geocaching.android.model.GeoCache;
 
@@ -19,10 +15,15 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -40,25 +41,232 @@ public class GeocachingSuApiManager implements IApiManager {
     public static final String HTTP_PDA_GEOCACHING_SU = "http://pda.geocaching.su/";
     private static final String LINK_GEOCACHE_LIST = "http://www.geocaching.su/pages/1031.ajax.php?lngmax=%f&lngmin=%f&latmax=%f&latmin=%f&id=%d&geocaching=5767e405a17c4b0e1cbaecffdb93475d&exactly=1";
 
+    // download list of geocaches by tiles of fixed grid instead of arbitrary rectangles
+    private static final boolean TILE_FETCHING = true;
+    private static final int MAX_PARALLEL_TILE_DOWNLOADS = 3;
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final String PART_FILE_SUFFIX = ".part";
+
     private int id;
     private GeoCacheMemoryStorage memoryStorage;
+    private ExecutorService tileDownloadExecutor;
+    private InFlightDownloads inFlightDownloads;
+    private final AtomicLong receivedBytes = new AtomicLong();
 
     public GeocachingSuApiManager() {
         id = (int) (Math.random() * 1E7);
         memoryStorage = new GeoCacheMemoryStorage();
+        tileDownloadExecutor = Executors.newFixedThreadPool(MAX_PARALLEL_TILE_DOWNLOADS);
+        inFlightDownloads = new InFlightDownloads();
         LogManager.d(TAG, "new GeocachingSuApiManager Created");
     }
 
     @Override
-    public synchronized List<GeoCache> getGeoCacheList(GeoRect rect) {
+    public List<GeoCache> getGeoCacheList(GeoRect rect) {
+        return getGeoCacheList(rect, null);
+    }
+
+    @Override
+    public List<GeoCache> getGeoCacheList(GeoRect rect, GeoCacheListListener listener) {
+        return getGeoCacheList(rect, listener, false);
+    }
+
+    @Override
+    public void prefetchGeoCacheList(GeoRect rect, GeoCacheListListener listener) {
+        getGeoCacheList(rect, listener, true);
+    }
+
+    /**
+     * @param background
+     *         true if tiles are downloaded in the calling thread, false if they are downloaded in parallel
+     *         by tile download threads
+     */
+    private List<GeoCache> getGeoCacheList(GeoRect rect, GeoCacheListListener listener, boolean background) {
         LogManager.d(TAG, "getGeoCacheList");
 
-        if (!Controller.getInstance().getConnectionManager().isActiveNetworkConnected() ||
-                memoryStorage.isRectangleStored(rect)) {
+        restoreFreshRects(rect);
+        if (!Controller.getInstance().getConnectionManager().isActiveNetworkConnected()) {
             LogManager.d(TAG, "Get response from cache");
-            return memoryStorage.getCaches(rect);
+            return addStaleCaches(memoryStorage.getCaches(rect), rect);
+        }
+
+        GeoCacheListListener viewPortListener = null;
+        if (listener != null) {
+            // pass already known geocaches at once, downloaded ones will follow
+            List<GeoCache> storedGeoCaches = memoryStorage.getCaches(rect);
+            if (!memoryStorage.isRectangleStored(rect)) {
+                addStaleCaches(storedGeoCaches, rect);
+            }
+            if (!storedGeoCaches.isEmpty()) {
+                listener.onGeoCachesParsed(storedGeoCaches);
+            }
+            viewPortListener = new ViewPortFilterListener(rect, listener);
+        }
+
+        List<GeoRect> tiles = TILE_FETCHING ? GeoTileGrid.getTiles(rect) : null;
+        if (tiles != null && background) {
+            downloadTilesInBackground(tiles, viewPortListener);
+        } else if (tiles != null) {
+            downloadTiles(tiles, viewPortListener);
+        } else {
+            downloadUncoveredRects(rect, viewPortListener);
         }
 
+        return memoryStorage.getCaches(rect);
+    }
+
+    /**
+     * Moves rectangles which were recently downloaded in previous runs of application from disk to memory storage,
+     * so they are not downloaded again
+     */
+    private void restoreFreshRects(GeoRect rect) {
+        if (memoryStorage.isRectangleStored(rect)) return;
+        GeoCacheDiskStorage diskStorage = Controller.getInstance().getGeoCacheDiskStorage();
+        for (GeoRect freshRect : diskStorage.getFreshRects(rect)) {
+            if (!memoryStorage.isRectangleStored(freshRect)) {
+                memoryStorage.addCaches(diskStorage.getCaches(freshRect), freshRect);
+            }
+        }
+    }
+
+    /**
+     * Adds to the list geocaches which are stored on disk but are too old to be trusted,
+     * they are shown until the list is downloaded again
+     */
+    private static List<GeoCache> addStaleCaches(List<GeoCache> geoCaches, GeoRect rect) {
+        Set<GeoCache> known = new HashSet<GeoCache>(geoCaches);
+        for (GeoCache geoCache : Controller.getInstance().getGeoCacheDiskStorage().getCaches(rect)) {
+            if (known.add(geoCache)) {
+                geoCaches.add(geoCache);
+            }
+        }
+        return geoCaches;
+    }
+
+    /**
+     * Downloads missing tiles in parallel and waits for all of them.
+     * Tiles which are being downloaded by other requests are not downloaded again.
+     */
+    private void downloadTiles(List<GeoRect> tiles, GeoCacheListListener listener) {
+        List<InFlightDownloads.Download> waitFor = new ArrayList<InFlightDownloads.Download>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (GeoRect tile : tiles) {
+            if (memoryStorage.isRectangleStored(tile)) continue;
+            final InFlightDownloads.Download download = inFlightDownloads.start(tile, listener, waitFor);
+            if (download == null) continue;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    performDownload(download);
+                    return null;
+                }
+            });
+        }
+        LogManager.d(TAG, "Tiles: %d, to download: %d, already downloading: %d", tiles.size(), tasks.size(), waitFor.size());
+
+        try {
+            if (!tasks.isEmpty()) {
+                tileDownloadExecutor.invokeAll(tasks);
+            }
+            awaitDownloads(waitFor);
+        } catch (InterruptedException e) {
+            LogManager.w(TAG, "Tiles downloading interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Downloads missing tiles one by one in the calling thread, so they don't queue before tiles of view port
+     * in tile download threads. Tile is registered just before its download, so requests of view port
+     * don't wait for tiles which are not started yet.
+     */
+    private void downloadTilesInBackground(List<GeoRect> tiles, GeoCacheListListener listener) {
+        List<InFlightDownloads.Download> waitFor = new ArrayList<InFlightDownloads.Download>();
+        for (GeoRect tile : tiles) {
+            if (listener != null && listener.isCancelled()) break;
+            if (Thread.currentThread().isInterrupted()) break;
+            if (memoryStorage.isRectangleStored(tile)) continue;
+            InFlightDownloads.Download download = inFlightDownloads.start(tile, listener, waitFor);
+            if (download != null) {
+                performDownload(download);
+            }
+        }
+        try {
+            awaitDownloads(waitFor);
+        } catch (InterruptedException e) {
+            LogManager.w(TAG, "Tiles prefetching interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Downloads only parts of the rectangle which are not covered by already downloaded rectangles
+     * or by rectangles which are being downloaded by other requests
+     */
+    private void downloadUncoveredRects(GeoRect rect, GeoCacheListListener listener) {
+        List<GeoRect> uncoveredRects = memoryStorage.getUncoveredRects(rect);
+        if (uncoveredRects.isEmpty()) {
+            LogManager.d(TAG, "Get response from cache");
+            return;
+        }
+
+        List<InFlightDownloads.Download> waitFor = new ArrayList<InFlightDownloads.Download>();
+        boolean success = true;
+        for (GeoRect uncoveredRect : uncoveredRects) {
+            InFlightDownloads.Download download = inFlightDownloads.start(uncoveredRect, listener, waitFor);
+            if (download != null) {
+                success &= performDownload(download);
+            }
+        }
+        try {
+            awaitDownloads(waitFor);
+        } catch (InterruptedException e) {
+            LogManager.w(TAG, "Geocaches downloading interrupted", e);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (success && uncoveredRects.size() > 1 && memoryStorage.isRectangleStored(rect)) {
+            // replace downloaded parts by the whole rectangle
+            memoryStorage.addStoredRectangle(rect);
+        }
+    }
+
+    /**
+     * Downloads rectangle of registered download, stores result and releases requests which wait for it
+     *
+     * @return true if download was successful
+     */
+    private boolean performDownload(InFlightDownloads.Download download) {
+        try {
+            if (download.isCancelled()) {
+                LogManager.d(TAG, "Download of %s is cancelled before start", download.getRect());
+                return false;
+            }
+            List<GeoCache> geoCaches = downloadGeoCacheList(download.getRect(), download);
+            if (geoCaches == null) return false;
+            memoryStorage.addCaches(geoCaches, download.getRect());
+            Controller.getInstance().getGeoCacheDiskStorage().addCaches(geoCaches, download.getRect());
+            return true;
+        } finally {
+            inFlightDownloads.finish(download);
+        }
+    }
+
+    private static void awaitDownloads(List<InFlightDownloads.Download> downloads) throws InterruptedException {
+        for (InFlightDownloads.Download download : downloads) {
+            download.await();
+        }
+    }
+
+    /**
+     * Downloads geocaches in the rectangle
+     *
+     * @param listener
+     *         receives geocaches by parts while response is being parsed, may be null
+     * @return list of geocaches or null if download failed
+     */
+    private List<GeoCache> downloadGeoCacheList(GeoRect rect, GeoCacheListListener listener) {
         final GeoCachesSaxHandler handler;
         InputStreamReader inputStreamReader = null;
         try {
@@ -72,15 +280,19 @@ public class GeocachingSuApiManager implements IApiManager {
 
             inputStreamReader = getInputSteamReader(url);
             InputSource geoCacheXml = new InputSource(inputStreamReader);
-            handler = new GeoCachesSaxHandler();
+            handler = new GeoCachesSaxHandler(listener);
             parser.parse(geoCacheXml, handler);
-            memoryStorage.addCaches(handler.getGeoCaches(), rect);
+            return handler.getGeoCaches();
         } catch (MalformedURLException e) {
             LogManager.e(TAG, e.getMessage(), e);
         } catch (IOException e) {
             LogManager.e(TAG, e.getMessage(), e);
         } catch (SAXException e) {
-            LogManager.e(TAG, e.getMessage(), e);
+            if (listener != null && listener.isCancelled()) {
+                LogManager.d(TAG, "Download of %s is aborted", rect);
+            } else {
+                LogManager.e(TAG, e.getMessage(), e);
+            }
         } catch (ParserConfigurationException e) {
             LogManager.e(TAG, e.getMessage(), e);
         } finally {
@@ -92,8 +304,39 @@ public class GeocachingSuApiManager implements IApiManager {
                 }
             }
         }
+        return null;
+    }
 
-        return memoryStorage.getCaches(rect);
+    /**
+     * Passes to the wrapped listener only geocaches which lie in the view port,
+     * because downloaded tiles and rectangles can be larger than it
+     */
+    private static class ViewPortFilterListener implements GeoCacheListListener {
+        private final GeoRect viewPort;
+        private final GeoCacheListListener listener;
+
+        public ViewPortFilterListener(GeoRect viewPort, GeoCacheListListener listener) {
+            this.viewPort = viewPort;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onGeoCachesParsed(List<GeoCache> geoCaches) {
+            List<GeoCache> filtered = new ArrayList<GeoCache>(geoCaches.size());
+            for (GeoCache geoCache : geoCaches) {
+                if (viewPort.contains(geoCache.getGeoPoint())) {
+                    filtered.add(geoCache);
+                }
+            }
+            if (!filtered.isEmpty()) {
+                listener.onGeoCachesParsed(filtered);
+            }
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return listener.isCancelled();
+        }
     }
 
     private URL getCacheListUrl(double maxLatitude, double minLatitude, double maxLongitude, double minLongitude) throws MalformedURLException {
@@ -103,9 +346,10 @@ public class GeocachingSuApiManager implements IApiManager {
     }
 
     @Override
-    public String getNotebook(int cacheId) {
+    public String getNotebook(int cacheId, HttpValidators validators) {
         try {
-            return getText(getNotebookUrl(cacheId));
+            boolean isStored = getDbManager().getCacheNotebookTextById(cacheId) != null;
+            return getText(getNotebookUrl(cacheId), isStored, null, validators);
         } catch (MalformedURLException e) {
             return null;
         }
@@ -116,9 +360,10 @@ public class GeocachingSuApiManager implements IApiManager {
     }
 
     @Override
-    public String getInfo(int cacheId) {
+    public String getInfo(int cacheId, HttpValidators validators) {
         try {
-            return getText(getInfoUrl(cacheId));
+            boolean isStored = getDbManager().getCacheInfoById(cacheId) != null;
+            return getText(getInfoUrl(cacheId), isStored, null, validators);
         } catch (MalformedURLException e) {
             return null;
         }
@@ -129,16 +374,16 @@ public class GeocachingSuApiManager implements IApiManager {
     }
 
     @Override
-    public List<URL> getPhotoList(int cacheId) {
+    public List<URL> getPhotoList(int cacheId, HttpValidators validators) {
         try {
-            String photoPage = getText(getPhotoUrl(cacheId));
+            Collection<URL> storedPhotos = getDbManager().getCachePhotosById(cacheId);
+            List<String> links = new ArrayList<String>();
+            // text of photo page is not needed, only links are extracted
+            String photoPage = getText(getPhotoUrl(cacheId), storedPhotos != null, links, validators);
             if (photoPage == null) return null;
-
-            Pattern linkPattern = Pattern.compile("<a href=\"([^>]*)\"><img [^>]*></a>");
-            Matcher pageMatcher = linkPattern.matcher(photoPage);
-            ArrayList<String> links = new ArrayList<String>();
-            while (pageMatcher.find()) {
-                links.add(pageMatcher.group(1));
+            if (photoPage == NOT_MODIFIED) {
+                LogManager.d(TAG, "Photo list of %d not modified", cacheId);
+                return new ArrayList<URL>(storedPhotos);
             }
 
             List<URL> photoUrls = new ArrayList<URL>();
@@ -160,56 +405,94 @@ public class GeocachingSuApiManager implements IApiManager {
         return new URL(String.format(LINK_PHOTO_PAGE, cacheId));
     }
 
-    private String getText(URL url) {
+    /**
+     * @param isStored
+     *         true if page of geocache is stored in database, then conditional request is sent
+     * @param photoLinks
+     *         if not null, receives links to photos from the page, and text of page is not kept
+     * @param validators
+     *         if not null, receives validators of downloaded page. They are not stored here: if they were stored
+     *         before the text, lost text would be confirmed by conditional requests.
+     * @return text of page (empty if photoLinks is not null), {@link #NOT_MODIFIED} if stored page is up to date
+     *         or null if download failed
+     */
+    private String getText(URL url, boolean isStored, List<String> photoLinks, HttpValidators validators) {
         String result = null;
 
         if (Controller.getInstance().getConnectionManager().isActiveNetworkConnected()) {
             boolean success = false;
-            for (int attempt = 0; attempt < 5 && !success; attempt++)
+            for (int attempt = 0; attempt < 5 && !success; attempt++) {
+                if (attempt > 0 && !NetworkScheduler.waitBeforeRetry(attempt)) break;
                 try {
-                    result = downloadText(url);
+                    if (photoLinks != null) {
+                        photoLinks.clear();
+                    }
+                    result = downloadText(url, isStored, photoLinks, validators);
                     success = true;
                 } catch (IOException e) {
                     // result is null in this case
                     LogManager.e(TAG, "getInfo failed", e);
                 }
+            }
         }
 
         return result;
     }
 
-    private String downloadText(URL url) throws IOException {
-        StringBuilder html = new StringBuilder();
-        char[] buffer = new char[1024];
-        BufferedReader in = null;
+    private String downloadText(URL url, boolean isStored, List<String> photoLinks, HttpValidators validators) throws IOException {
+        String[] storedValidators = isStored ? getDbManager().getHttpValidators(url.toString()) : null;
+        HttpURLConnection connection = openConnection(url);
+        if (storedValidators != null) {
+            if (storedValidators[0] != null) connection.setRequestProperty("If-None-Match", storedValidators[0]);
+            if (storedValidators[1] != null) connection.setRequestProperty("If-Modified-Since", storedValidators[1]);
+        }
+        if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            LogManager.d(TAG, "Not modified: %s", url);
+            return NOT_MODIFIED;
+        }
+
+        StringBuilder html = photoLinks == null ? new StringBuilder() : null;
+        InputStreamReader in = null;
         try {
-            InputStreamReader inputStreamReader = getInputSteamReader(url);
-            in = new BufferedReader(inputStreamReader);
-            int size;
-            while ((size = in.read(buffer)) != -1) {
-                html.append(buffer, 0, size);
-            }
+            in = getInputSteamReader(connection);
+            new HtmlPageTransformer(html, photoLinks).transform(in);
         } finally {
             if (in != null) {
                 in.close();
             }
         }
 
-        String resultHtml = html.toString();
-        resultHtml = resultHtml.replace(CP1251_ENCODING, UTF8_ENCODING);
-        resultHtml = resultHtml.replaceAll("\\r|\\n", "");
+        if (validators != null) {
+            validators.set(url.toString(), connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+        }
 
-        return resultHtml;
+        return html == null ? "" : html.toString();
     }
 
-    private InputStreamReader getInputSteamReader(URL url) throws IOException {
+    /**
+     * Connections are opened by HttpURLConnection which keeps connections to the same host alive
+     * and reuses them while response streams are read to the end and closed
+     */
+    private HttpURLConnection openConnection(URL url) throws IOException {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        // stalled download of cancelled request can't be interrupted, so it is bounded by timeout
+        connection.setReadTimeout(READ_TIMEOUT);
         connection.setRequestProperty("Accept-Encoding", "gzip;q=1.0, identity;q=0.5, *;q=0");
+        // radio is woken up by this request, so deferred jobs are sent together with it
+        Controller.getInstance().getNetworkScheduler().onNetworkUsed();
+        return connection;
+    }
 
+    private InputStreamReader getInputSteamReader(URL url) throws IOException {
+        return getInputSteamReader(openConnection(url));
+    }
+
+    private InputStreamReader getInputSteamReader(HttpURLConnection connection) throws IOException {
         if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
             throw new IOException("Can't connect to geocaching.su. Response: " + connection.getResponseCode());
         }
-        InputStream inputStream = connection.getInputStream();
+        InputStream inputStream = new CountingInputStream(connection.getInputStream());
         if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
             inputStream = new GZIPInputStream(inputStream);
         }
@@ -229,20 +512,44 @@ public class GeocachingSuApiManager implements IApiManager {
         return CP1251_ENCODING;
     }
 
+    private static DbManager getDbManager() {
+        return Controller.getInstance().getDbManager();
+    }
+
+    @Override
+    public void getStoredCoordinates(GeoRect rect, GeoCacheCoordinates result) {
+        memoryStorage.getCoordinates(rect, result);
+    }
+
+    @Override
+    public void trimMemory(float keptShare) {
+        LogManager.d(TAG, "Trim memory storage to %.2f", keptShare);
+        memoryStorage.trimMemory(keptShare);
+    }
+
     @Override
     public Boolean downloadPhoto(int cacheId, URL photoUrl) {
         String fileName = photoUrl.getPath().substring(photoUrl.getPath().lastIndexOf("/"));
         File file = Controller.getInstance().getExternalStorageManager().getPhotoFile(fileName, cacheId);
         boolean success = false;
-        for (int attempt = 0; attempt < 5 && !success; attempt++)
+        for (int attempt = 0; attempt < 5; attempt++) {
+            if (attempt > 0 && !NetworkScheduler.waitBeforeRetry(attempt)) break;
             try {
                 success = downloadAndSavePhoto(photoUrl, file);
+                break;
             } catch (IOException e) {
-                LogManager.e(TAG, e.getMessage(), e);
+                // only network errors and errors of server are repeated
+                LogManager.e(TAG, String.format("Error while retrieving bitmap from %s", photoUrl), e);
             }
+        }
         return success;
     }
 
+    /**
+     * @return false if photo can't be downloaded, 4ex it doesn't exist
+     * @throws IOException
+     *         if download failed because of network or server error and can be repeated
+     */
     private boolean downloadAndSavePhoto(URL url, File file) throws IOException {
 
         if (file == null) {
@@ -259,56 +566,100 @@ public class GeocachingSuApiManager implements IApiManager {
             return false;
         }
 
-        final AndroidHttpClient client = AndroidHttpClient.newInstance("Android");
-        final HttpGet getRequest = new HttpGet(url.toString());  //TODO overhead
+        HttpURLConnection connection = openConnection(url);
+        // images are not compressed by server, they are saved as they are received
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        if (file.exists() && file.length() > 0) {
+            // photo is already downloaded, load it again only if it was changed
+            connection.setIfModifiedSince(file.lastModified());
+        }
+        // photo is written to temporary file and renamed when it is complete, so broken download never looks
+        // like downloaded photo and is not kept by conditional request
+        File partFile = new File(file.getPath() + PART_FILE_SUFFIX);
         OutputStream outputStream = null;
+        InputStream inputStream = null;
+        boolean success = false;
 
         try {
-            HttpResponse response = client.execute(getRequest);
-            final int statusCode = response.getStatusLine().getStatusCode();
-            if (statusCode != HttpStatus.SC_OK) {
+            final int statusCode = connection.getResponseCode();
+            if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                LogManager.d(TAG, "Photo not modified: %s", url);
+                return true;
+            }
+            if (statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                throw new IOException(String.format("Error %d while retrieving bitmap from %s", statusCode, url));
+            }
+            if (statusCode != HttpURLConnection.HTTP_OK) {
                 LogManager.w(TAG, String.format("Error %d while retrieving bitmap from %s", statusCode, url));
                 return false;
             }
 
-            final HttpEntity entity = response.getEntity();
-            if (entity != null) {
-                InputStream inputStream = null;
-                try {
-                    outputStream = new FileOutputStream(file);
-                    inputStream = entity.getContent();
-                    int size;
-                    byte[] buffer = new byte[1024];
-                    while ((size = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, size);
-                    }
-                    outputStream.flush();
-                    outputStream.close();
-                    inputStream.close();
-                } finally {
-                    if (inputStream != null) {
-                        inputStream.close();
-                    }
-                    entity.consumeContent();
-                }
-            } else {
-                LogManager.e(TAG, String.format("Error while retrieving bitmap from %s. Content is null", url));
-                return false;
+            inputStream = new CountingInputStream(connection.getInputStream());
+            outputStream = new FileOutputStream(partFile);
+            int size;
+            byte[] buffer = new byte[1024];
+            while ((size = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, size);
+            }
+            outputStream.flush();
+            outputStream.close();
+            outputStream = null;
+            // rename doesn't replace existing file on some file systems
+            file.delete();
+            success = partFile.renameTo(file);
+            if (!success) {
+                LogManager.w(TAG, String.format("Can't rename %s to %s", partFile, file));
             }
-        } catch (Exception e) {
-            // Could provide a more explicit error message for IOException or IllegalStateException
-            getRequest.abort();
-            LogManager.e(TAG, String.format("Error while retrieving bitmap from %s", url), e);
-            return false;
         } finally {
-            if (client != null) {
-                client.close();
+            if (inputStream != null) {
+                inputStream.close();
             }
             if (outputStream != null) {
                 outputStream.close();
             }
+            if (!success) {
+                partFile.delete();
+            }
+        }
+
+        return success;
+    }
+
+    @Override
+    public boolean isGeoCacheListStored(GeoRect rect) {
+        return memoryStorage.isRectangleStored(rect);
+    }
+
+    @Override
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /**
+     * Counts bytes of response as they are received from network, before they are unzipped
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result != -1) {
+                receivedBytes.incrementAndGet();
+            }
+            return result;
         }
 
-        return true;
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int size = super.read(buffer, offset, count);
+            if (size > 0) {
+                receivedBytes.addAndGet(size);
+            }
+            return size;
+        }
     }
-}
\ No newline at end of file
+}
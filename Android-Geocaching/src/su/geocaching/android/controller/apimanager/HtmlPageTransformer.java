@@ -0,0 +1,213 @@
+package su.geocaching.android.controller.apimanager;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Transforms html page of geocaching.su in one pass while it is being read:
+ * drops line breaks, replaces name of cp1251 charset by utf-8 and extracts links to photos,
+ * i.e. href of &lt;a href="..."&gt;&lt;img ...&gt;&lt;/a&gt;
+ */
+public class HtmlPageTransformer {
+
+    private static final char[] CHARSET = IApiManager.CP1251_ENCODING.toCharArray();
+    private static final String CHARSET_REPLACEMENT = IApiManager.UTF8_ENCODING;
+    private static final int[] CHARSET_FALLBACK = getFallback(CHARSET);
+
+    private static final char[] LINK_START = "<a href=\"".toCharArray();
+    private static final char[] IMAGE_START = "<img ".toCharArray();
+    private static final char[] LINK_END = "</a>".toCharArray();
+    private static final int MAX_LINK_LENGTH = 2048;
+
+    private static final int STATE_LINK_START = 0;
+    private static final int STATE_HREF = 1;
+    private static final int STATE_IMAGE_START = 2;
+    private static final int STATE_IMAGE = 3;
+    private static final int STATE_LINK_END = 4;
+
+    private final StringBuilder text;
+    private final List<String> links;
+
+    // number of matched chars of charset name
+    private int charsetMatched;
+
+    private int linkState = STATE_LINK_START;
+    private int linkMatched;
+    private final StringBuilder href = new StringBuilder();
+    // chars after href, next link can start among them if this one is broken
+    private final StringBuilder afterHref = new StringBuilder();
+    private String link;
+
+    /**
+     * @param text
+     *         receives transformed page, may be null if only links are needed
+     * @param links
+     *         receives links to photos, may be null if links are not needed
+     */
+    public HtmlPageTransformer(StringBuilder text, List<String> links) {
+        this.text = text;
+        this.links = links;
+    }
+
+    /**
+     * Reads whole page from reader
+     */
+    public void transform(Reader in) throws IOException {
+        char[] buffer = new char[1024];
+        int size;
+        while ((size = in.read(buffer)) != -1) {
+            write(buffer, 0, size);
+        }
+        finish();
+    }
+
+    public void write(char[] buffer, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            writeCharsetChar(buffer[i]);
+        }
+    }
+
+    /**
+     * Writes chars which were kept as possible beginning of charset name
+     */
+    public void finish() {
+        for (int i = 0; i < charsetMatched; i++) {
+            emit(CHARSET[i]);
+        }
+        charsetMatched = 0;
+    }
+
+    private void writeCharsetChar(char c) {
+        while (charsetMatched > 0 && CHARSET[charsetMatched] != c) {
+            // chars which can't be beginning of charset name any more
+            int fallback = CHARSET_FALLBACK[charsetMatched - 1];
+            for (int i = 0; i < charsetMatched - fallback; i++) {
+                emit(CHARSET[i]);
+            }
+            charsetMatched = fallback;
+        }
+        if (CHARSET[charsetMatched] == c) {
+            charsetMatched++;
+            if (charsetMatched == CHARSET.length) {
+                charsetMatched = 0;
+                for (int i = 0; i < CHARSET_REPLACEMENT.length(); i++) {
+                    emit(CHARSET_REPLACEMENT.charAt(i));
+                }
+            }
+        } else {
+            emit(c);
+        }
+    }
+
+    private void emit(char c) {
+        if (c == '\r' || c == '\n') return;
+        if (text != null) {
+            text.append(c);
+        }
+        if (links != null) {
+            acceptLinkChar(c);
+        }
+    }
+
+    private void acceptLinkChar(char c) {
+        if (linkState > STATE_HREF) {
+            afterHref.append(c);
+            if (afterHref.length() > MAX_LINK_LENGTH) {
+                restartLink();
+                return;
+            }
+        }
+        switch (linkState) {
+            case STATE_LINK_START:
+                if (c == LINK_START[linkMatched]) {
+                    linkMatched++;
+                    if (linkMatched == LINK_START.length) {
+                        setLinkState(STATE_HREF);
+                    }
+                } else {
+                    linkMatched = c == LINK_START[0] ? 1 : 0;
+                }
+                break;
+            case STATE_HREF:
+                if (c != '>') {
+                    href.append(c);
+                    if (href.length() > MAX_LINK_LENGTH) {
+                        setLinkState(STATE_LINK_START);
+                    }
+                } else if (href.length() > 0 && href.charAt(href.length() - 1) == '"') {
+                    link = href.substring(0, href.length() - 1);
+                    setLinkState(STATE_IMAGE_START);
+                } else {
+                    setLinkState(STATE_LINK_START);
+                }
+                break;
+            case STATE_IMAGE_START:
+                acceptLinkPart(c, IMAGE_START, STATE_IMAGE);
+                break;
+            case STATE_IMAGE:
+                if (c == '>') {
+                    linkState = STATE_LINK_END;
+                    linkMatched = 0;
+                }
+                break;
+            case STATE_LINK_END:
+                if (acceptLinkPart(c, LINK_END, STATE_LINK_START)) {
+                    links.add(link);
+                }
+                break;
+        }
+    }
+
+    /**
+     * @return true if the whole part is matched
+     */
+    private boolean acceptLinkPart(char c, char[] part, int nextState) {
+        if (c == part[linkMatched]) {
+            linkMatched++;
+            if (linkMatched == part.length) {
+                setLinkState(nextState);
+                return true;
+            }
+        } else {
+            restartLink();
+        }
+        return false;
+    }
+
+    /**
+     * Link is broken, so looks for next link among chars after href of this one
+     */
+    private void restartLink() {
+        String replay = afterHref.toString();
+        setLinkState(STATE_LINK_START);
+        for (int i = 0; i < replay.length(); i++) {
+            acceptLinkChar(replay.charAt(i));
+        }
+    }
+
+    private void setLinkState(int state) {
+        linkState = state;
+        linkMatched = 0;
+        href.setLength(0);
+        afterHref.setLength(0);
+    }
+
+    /**
+     * @return for each prefix of pattern length of its longest proper prefix which is also its suffix
+     */
+    private static int[] getFallback(char[] pattern) {
+        int[] fallback = new int[pattern.length];
+        int matched = 0;
+        for (int i = 1; i < pattern.length; i++) {
+            while (matched > 0 && pattern[i] != pattern[matched]) {
+                matched = fallback[matched - 1];
+            }
+            if (pattern[i] == pattern[matched]) {
+                matched++;
+            }
+            fallback[i] = matched;
+        }
+        return fallback;
+    }
+}
@@ -0,0 +1,38 @@
+package su.geocaching.android.controller.apimanager;
+
+/**
+ * ETag and Last-Modified of downloaded page. They are stored together with text of the page,
+ * so conditional request never confirms text which wasn't stored.
+ */
+public class HttpValidators {
+    private String url;
+    private String eTag;
+    private String lastModified;
+
+    /**
+     * @return url of downloaded page or null if page wasn't downloaded
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return value of ETag header, can be null
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return value of Last-Modified header, can be null
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    void set(String url, String eTag, String lastModified) {
+        this.url = url;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+    }
+}
@@ -12,29 +12,87 @@ public interface IApiManager {
 
     public static final String UTF8_ENCODING = "UTF-8";
     public static final String CP1251_ENCODING = "windows-1251";
+    /**
+     * Returned by getInfo and getNotebook instead of page text when the page stored in database is up to date.
+     * It is a separate instance which has to be compared by reference, so page with the same text is not taken for it.
+     */
+    public static final String NOT_MODIFIED = new String("NOT_MODIFIED");
 
     /**
-     * Get list of GeoCache in search area. This method synchronous.
+     * Get list of GeoCache in search area. This method synchronous. Can be called from several threads at once,
+     * concurrent requests of the same area share one download.
      */
     public List<GeoCache> getGeoCacheList(GeoRect rect);
 
+    /**
+     * Get list of GeoCache in search area. Geocaches are also passed to listener by parts as soon as they are
+     * parsed. This method synchronous.
+     */
+    public List<GeoCache> getGeoCacheList(GeoRect rect, GeoCacheListListener listener);
+
+    /**
+     * Downloads list of GeoCache in the area in background. Parts of the area are downloaded one by one
+     * in the calling thread, so threads which download view port are not taken. This method synchronous.
+     *
+     * @param listener
+     *         download is aborted when listener is cancelled, may be null
+     */
+    public void prefetchGeoCacheList(GeoRect rect, GeoCacheListListener listener);
+
     /**
      * Get info about geocache.This method synchronous.
+     *
+     * @param validators
+     *         receives validators of downloaded page, caller stores them together with text. Can be null.
+     * @return info text, {@link #NOT_MODIFIED} or null if download failed
      */
-    public String getInfo(int cacheId);
+    public String getInfo(int cacheId, HttpValidators validators);
 
     /**
      * Get notebook of geocache.This method synchronous.
+     *
+     * @param validators
+     *         receives validators of downloaded page, caller stores them together with text. Can be null.
+     * @return notebook text, {@link #NOT_MODIFIED} or null if download failed
      */
-    public String getNotebook(int cacheId);
+    public String getNotebook(int cacheId, HttpValidators validators);
 
     /**
      * Get list of photos of geocache.This method synchronous.
+     *
+     * @param validators
+     *         receives validators of downloaded page, caller stores them together with list. Can be null.
      */
-    public List<URL> getPhotoList(int cacheId);
+    public List<URL> getPhotoList(int cacheId, HttpValidators validators);
 
     /**
      * Download photo image from the given URL and save it to external storage.
      */
     public Boolean downloadPhoto(int cacheId, URL photoUrl);
+
+    /**
+     * @return true if list of geocaches of the whole area is downloaded and kept in memory,
+     *         false if some parts of the area failed to download
+     */
+    public boolean isGeoCacheListStored(GeoRect rect);
+
+    /**
+     * @return number of bytes received from network by all requests since start of application,
+     *         compressed responses are counted as they are transferred. Can be called from any thread.
+     */
+    public long getReceivedBytes();
+
+    /**
+     * Adds coordinates of geocaches which are kept in memory and lie in the area. Nothing is downloaded.
+     * Can be called from any thread.
+     */
+    public void getStoredCoordinates(GeoRect rect, GeoCacheCoordinates result);
+
+    /**
+     * Drops part of geocaches which are kept in memory.
+     *
+     * @param keptShare
+     *         part of geocaches kept in memory which can be kept, from 0 to 1
+     */
+    public void trimMemory(float keptShare);
 }
\ No newline at end of file
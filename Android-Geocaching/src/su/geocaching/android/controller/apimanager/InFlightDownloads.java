@@ -0,0 +1,104 @@
+package su.geocaching.android.controller.apimanager;
+
+import su.geocaching.android.model.GeoCache;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Registry of geocache list downloads which are running now. Request for a rectangle which is contained in
+ * a running download attaches to it instead of downloading the same area again.
+ * Rectangles must not cross 180 meridian.
+ */
+class InFlightDownloads {
+
+    private final List<Download> downloads = new LinkedList<Download>();
+
+    /**
+     * Registers download of the rectangle unless it is covered by a running download.
+     *
+     * @param listener
+     *         receives geocaches parsed by the download, may be null
+     * @param waitFor
+     *         running download which covers the rectangle is added to this list
+     * @return new download which the caller has to perform and then {@link #finish(Download)},
+     *         or null if the rectangle is covered by a running download
+     */
+    public synchronized Download start(GeoRect rect, GeoCacheListListener listener, List<Download> waitFor) {
+        for (Download download : downloads) {
+            if (download.rect.contains(rect)) {
+                download.addListener(listener);
+                waitFor.add(download);
+                return null;
+            }
+        }
+        Download download = new Download(rect);
+        download.addListener(listener);
+        downloads.add(download);
+        return download;
+    }
+
+    public synchronized void finish(Download download) {
+        downloads.remove(download);
+        download.done.countDown();
+    }
+
+    /**
+     * Running download of geocache list
+     */
+    public static class Download implements GeoCacheListListener {
+        private final GeoRect rect;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<GeoCacheListListener> listeners = new CopyOnWriteArrayList<GeoCacheListListener>();
+        // set when a request without listener waits for the download, such request can't be cancelled
+        private volatile boolean hasUncancellableRequest;
+
+        private Download(GeoRect rect) {
+            this.rect = rect;
+        }
+
+        private void addListener(GeoCacheListListener listener) {
+            if (listener != null) {
+                listeners.add(listener);
+            } else {
+                hasUncancellableRequest = true;
+            }
+        }
+
+        public GeoRect getRect() {
+            return rect;
+        }
+
+        /**
+         * Waits until the download finishes
+         */
+        public void await() throws InterruptedException {
+            done.await();
+        }
+
+        /**
+         * @return true if all requests which wait for this download are cancelled.
+         *         Download which is waited by a request without listener, 4ex prefetch, is never cancelled.
+         */
+        @Override
+        public boolean isCancelled() {
+            if (hasUncancellableRequest || listeners.isEmpty()) return false;
+            for (GeoCacheListListener listener : listeners) {
+                if (!listener.isCancelled()) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Passes geocaches to all requests which wait for this download
+         */
+        @Override
+        public void onGeoCachesParsed(List<GeoCache> geoCaches) {
+            for (GeoCacheListListener listener : listeners) {
+                listener.onGeoCachesParsed(geoCaches);
+            }
+        }
+    }
+}
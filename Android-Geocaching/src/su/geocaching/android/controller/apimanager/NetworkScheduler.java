@@ -0,0 +1,204 @@
+package su.geocaching.android.controller.apimanager;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import su.geocaching.android.controller.Controller;
+import su.geocaching.android.controller.managers.ConnectionManager;
+import su.geocaching.android.controller.managers.IConnectionAware;
+import su.geocaching.android.controller.managers.LogManager;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Collects network jobs which are not needed right now and performs them by bursts,
+ * so mobile radio is woken up less often. Deferrable jobs are performed when:
+ * <ul>
+ * <li>radio is active because of some other request (user is waiting for it)</li>
+ * <li>Wi-Fi is connected</li>
+ * <li>job waits longer than {@link #MAX_DEFERRAL_MS}</li>
+ * </ul>
+ * Bulk jobs are not performed over mobile network at all, they wait for Wi-Fi,
+ * unless user allowed to download photos over mobile network.
+ * <p/>
+ * Jobs are run in worker threads of scheduler. Usually job only releases the real download
+ * to the thread of its owner, so owner can cancel or re-prioritize it.
+ */
+public class NetworkScheduler implements IConnectionAware {
+
+    private static final String TAG = NetworkScheduler.class.getCanonicalName();
+
+    /**
+     * Job can be delayed for a while, 4ex prefetch of geocaches around view port
+     */
+    public static final int DEFERRABLE = 0;
+    /**
+     * Job downloads a lot of data and waits for Wi-Fi, 4ex photos of geocache which is not shown
+     */
+    public static final int BULK = 1;
+
+    private static final long MAX_DEFERRAL_MS = 30000;
+    // radio stays in high power state for a few seconds after transfer, so jobs queued in this time are cheap
+    private static final long RADIO_ACTIVE_TAIL_MS = 5000;
+    private static final int MAX_PARALLEL_JOBS = 2;
+
+    private static final long BACKOFF_BASE_MS = 500;
+    private static final long BACKOFF_MAX_MS = 16000;
+    private static final Random random = new Random();
+
+    private final List<Runnable> deferrableJobs = new LinkedList<Runnable>();
+    private final List<Runnable> bulkJobs = new LinkedList<Runnable>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL_JOBS);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private long lastNetworkUsage;
+    private boolean isSubscribed;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush(true);
+        }
+    };
+
+    /**
+     * Queues job until radio is woken up by somebody else or until Wi-Fi. Job is performed at once
+     * if it is allowed now.
+     *
+     * @param kind
+     *         {@link #DEFERRABLE} or {@link #BULK}
+     */
+    public synchronized void execute(Runnable job, int kind) {
+        if (kind == BULK) {
+            bulkJobs.add(job);
+        } else {
+            if (deferrableJobs.isEmpty()) {
+                handler.postDelayed(flushRunnable, MAX_DEFERRAL_MS);
+            }
+            deferrableJobs.add(job);
+        }
+        updateSubscription();
+        flush(false);
+    }
+
+    /**
+     * Called by api manager when request is sent to network. Queued jobs are performed at once,
+     * while radio is still active.
+     */
+    public void onNetworkUsed() {
+        synchronized (this) {
+            lastNetworkUsage = SystemClock.elapsedRealtime();
+            if (deferrableJobs.isEmpty() && bulkJobs.isEmpty()) return;
+        }
+        flush(false);
+    }
+
+    /**
+     * @param force
+     *         true if deferrable jobs have to be performed even if radio is idle
+     */
+    private synchronized void flush(boolean force) {
+        if (!Controller.getInstance().getConnectionManager().isActiveNetworkConnected()) {
+            LogManager.d(TAG, "No connection, jobs wait");
+            // jobs are flushed when connection is found
+            handler.removeCallbacks(flushRunnable);
+            return;
+        }
+
+        int count = 0;
+        if (!deferrableJobs.isEmpty() && (force || isWifiConnected() || isRadioActive())) {
+            handler.removeCallbacks(flushRunnable);
+            count += deferrableJobs.size();
+            for (Runnable job : deferrableJobs) {
+                executor.execute(job);
+            }
+            deferrableJobs.clear();
+        }
+        if (!bulkJobs.isEmpty() && isBulkAllowed()) {
+            count += bulkJobs.size();
+            for (Runnable job : bulkJobs) {
+                executor.execute(job);
+            }
+            bulkJobs.clear();
+        }
+        if (count > 0) {
+            LogManager.d(TAG, "Burst of %d jobs", count);
+            updateSubscription();
+        }
+    }
+
+    private boolean isRadioActive() {
+        return SystemClock.elapsedRealtime() - lastNetworkUsage < RADIO_ACTIVE_TAIL_MS;
+    }
+
+    private boolean isBulkAllowed() {
+        return isWifiConnected() || Controller.getInstance().getPreferencesManager().getDownloadPhotosAlways();
+    }
+
+    private static boolean isWifiConnected() {
+        return Controller.getInstance().getConnectionManager().isWifiConnected();
+    }
+
+    /**
+     * Listens to connection changes only while there are queued jobs
+     */
+    private void updateSubscription() {
+        final boolean subscribe = !bulkJobs.isEmpty() || !deferrableJobs.isEmpty();
+        if (subscribe == isSubscribed) return;
+        isSubscribed = subscribe;
+        // subscribers can't be changed while connection manager notifies them
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                ConnectionManager connectionManager = Controller.getInstance().getConnectionManager();
+                if (subscribe) {
+                    connectionManager.addSubscriber(NetworkScheduler.this);
+                } else {
+                    connectionManager.removeSubscriber(NetworkScheduler.this);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onConnectionLost() {
+    }
+
+    @Override
+    public void onConnectionFound() {
+        synchronized (this) {
+            if (!deferrableJobs.isEmpty()) {
+                // deferral starts again, jobs waited without connection
+                handler.removeCallbacks(flushRunnable);
+                handler.postDelayed(flushRunnable, MAX_DEFERRAL_MS);
+            }
+        }
+        flush(false);
+    }
+
+    /**
+     * Waits before next attempt of failed request. Delay grows exponentially with number of attempt
+     * and is randomized, so requests which failed together are not repeated together.
+     *
+     * @param attempt
+     *         number of failed attempts, from 1
+     * @return false if there is no connection or thread was interrupted, so request should not be repeated
+     */
+    public static boolean waitBeforeRetry(int attempt) {
+        if (!Controller.getInstance().getConnectionManager().isActiveNetworkConnected()) {
+            return false;
+        }
+        long delay = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(attempt - 1, 16));
+        delay = delay / 2 + (long) (random.nextDouble() * delay / 2);
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
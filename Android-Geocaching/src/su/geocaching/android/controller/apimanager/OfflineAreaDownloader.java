@@ -0,0 +1,233 @@
+package su.geocaching.android.controller.apimanager;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import su.geocaching.android.controller.Controller;
+import su.geocaching.android.controller.managers.CheckpointManager;
+import su.geocaching.android.controller.managers.DbManager;
+import su.geocaching.android.controller.managers.LogManager;
+import su.geocaching.android.model.GeoCache;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads everything about geocaches of the area for using without Internet: description, notebook,
+ * list of photos and photos. Geocaches are stored to database for offline use, they are not shown in favorites
+ * until user adds them there.
+ * <p/>
+ * Download can be resumed: every part of geocache is stored as soon as it is downloaded,
+ * and parts which are already stored are not downloaded again, so running download of the same area
+ * after failure or cancel downloads only missing parts.
+ */
+public class OfflineAreaDownloader {
+
+    private static final String TAG = OfflineAreaDownloader.class.getCanonicalName();
+    private static final int MAX_PARALLEL_CACHES = 3;
+    // larger area has too many geocaches to download them at once, 1 degree is about 111 km
+    private static final double MAX_AREA_SPAN = 1;
+
+    /**
+     * Receives progress of download in UI thread
+     */
+    public interface ProgressListener {
+        /**
+         * @param cachesPerSecond
+         *         average speed since start of download
+         * @param bytesPerSecond
+         *         average amount of data received from network since start of download,
+         *         requests which application makes at the same time are counted too
+         */
+        void onProgress(int processedCaches, int totalCaches, float cachesPerSecond, float bytesPerSecond);
+
+        /**
+         * @param failedCaches
+         *         number of geocaches which were not downloaded completely
+         * @param listIncomplete
+         *         true if list of geocaches failed to download for some parts of the area,
+         *         so geocaches of these parts are missing
+         */
+        void onFinished(int totalCaches, int failedCaches, boolean listIncomplete, boolean cancelled);
+    }
+
+    private final GeoRect area;
+    private final ProgressListener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger processedCaches = new AtomicInteger();
+    private final AtomicInteger failedCaches = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile boolean running;
+    private volatile int totalCaches;
+    private long startTime;
+    private long startBytes;
+
+    /**
+     * @param area
+     *         area which is allowed by {@link #isAreaAllowed(GeoRect)}
+     */
+    public OfflineAreaDownloader(GeoRect area, ProgressListener listener) {
+        this.area = area;
+        this.listener = listener;
+    }
+
+    public GeoRect getArea() {
+        return area;
+    }
+
+    /**
+     * @return false if area is too large for downloading
+     */
+    public static boolean isAreaAllowed(GeoRect area) {
+        double latitudeSpan = area.tl.getLatitude() - area.br.getLatitude();
+        double longitudeSpan = area.br.getLongitude() - area.tl.getLongitude();
+        if (area.isCrossing180()) {
+            longitudeSpan += 360;
+        }
+        return Math.max(latitudeSpan, longitudeSpan) <= MAX_AREA_SPAN;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Download is not urgent, so it is started by network scheduler together with other requests
+     * or when Wi-Fi is connected
+     */
+    public void start() {
+        running = true;
+        Controller.getInstance().getNetworkScheduler().execute(new Runnable() {
+            @Override
+            public void run() {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        download();
+                    }
+                }, "OfflineAreaDownloader").start();
+            }
+        }, NetworkScheduler.DEFERRABLE);
+    }
+
+    /**
+     * Stops download. Geocaches which are being downloaded now are finished.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void download() {
+        IApiManager apiManager = Controller.getInstance().getApiManager();
+        startTime = SystemClock.elapsedRealtime();
+        startBytes = apiManager.getReceivedBytes();
+        // download can be cancelled while it waits in network scheduler
+        List<GeoCache> geoCaches = cancelled ? new ArrayList<GeoCache>() : apiManager.getGeoCacheList(area);
+        // parts of the area which failed to download are not stored, their geocaches are missing in the list
+        final boolean listIncomplete = !cancelled && !apiManager.isGeoCacheListStored(area);
+        totalCaches = geoCaches.size();
+        LogManager.d(TAG, "Download %d caches of area %s, list incomplete %b", totalCaches, area, listIncomplete);
+        publishProgress();
+
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_PARALLEL_CACHES);
+        for (final GeoCache geoCache : geoCaches) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) return;
+                    if (!downloadGeoCache(geoCache)) {
+                        failedCaches.incrementAndGet();
+                    }
+                    processedCaches.incrementAndGet();
+                    publishProgress();
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            LogManager.w(TAG, "Offline area download interrupted", e);
+            cancelled = true;
+        }
+
+        final int failed = failedCaches.get() + totalCaches - processedCaches.get();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                running = false;
+                listener.onFinished(totalCaches, failed, listIncomplete, cancelled);
+            }
+        });
+    }
+
+    /**
+     * Downloads and stores parts of geocache which are not stored yet
+     *
+     * @return true if all parts are stored
+     */
+    private boolean downloadGeoCache(GeoCache geoCache) {
+        IApiManager apiManager = Controller.getInstance().getApiManager();
+        DbManager dbManager = Controller.getInstance().getDbManager();
+        int cacheId = geoCache.getId();
+
+        // store geocache at once, so parts are stored by updates and photos are not pruned
+        dbManager.addOfflineGeoCache(geoCache);
+
+        if (dbManager.getCacheInfoById(cacheId) == null) {
+            HttpValidators validators = new HttpValidators();
+            String info = apiManager.getInfo(cacheId, validators);
+            if (info == null) return false;
+            dbManager.updateInfoText(cacheId, CheckpointManager.insertCheckpointsLink(info), validators);
+        }
+        if (cancelled) return false;
+
+        if (dbManager.getCacheNotebookTextById(cacheId) == null) {
+            HttpValidators validators = new HttpValidators();
+            String notebook = apiManager.getNotebook(cacheId, validators);
+            if (notebook == null) return false;
+            dbManager.updateNotebookText(cacheId, CheckpointManager.insertCheckpointsLink(notebook), validators);
+        }
+        if (cancelled) return false;
+
+        Collection<URL> photoUrls = dbManager.getCachePhotosById(cacheId);
+        if (photoUrls == null) {
+            HttpValidators validators = new HttpValidators();
+            photoUrls = apiManager.getPhotoList(cacheId, validators);
+            if (photoUrls == null) return false;
+            dbManager.updatePhotos(cacheId, photoUrls, validators);
+        }
+
+        boolean success = true;
+        for (URL photoUrl : new ArrayList<URL>(photoUrls)) {
+            if (cancelled) return false;
+            File photoFile = new File(Controller.getInstance().getExternalStorageManager().getLocalPhotoUri(photoUrl, cacheId).getPath());
+            if (photoFile.exists() && photoFile.length() > 0) continue;
+
+            if (!apiManager.downloadPhoto(cacheId, photoUrl)) {
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    private void publishProgress() {
+        final int processed = processedCaches.get();
+        float seconds = Math.max(1, SystemClock.elapsedRealtime() - startTime) / 1000f;
+        final float cachesPerSecond = processed / seconds;
+        final float bytesPerSecond = (Controller.getInstance().getApiManager().getReceivedBytes() - startBytes) / seconds;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onProgress(processed, totalCaches, cachesPerSecond, bytesPerSecond);
+            }
+        });
+    }
+}
@@ -0,0 +1,169 @@
+package su.geocaching.android.controller.apimanager;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import su.geocaching.android.controller.Controller;
+import su.geocaching.android.controller.managers.LogManager;
+import su.geocaching.android.ui.info.GeoCachePhotoViewModel;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads photos of geocaches by a few worker threads. Waiting downloads are ordered by priority,
+ * downloads with the same priority are performed in order of scheduling.
+ * Results are passed to GeoCachePhotoViewModel in UI thread.
+ */
+public class PhotoDownloadScheduler {
+
+    private static final String TAG = PhotoDownloadScheduler.class.getCanonicalName();
+
+    /**
+     * Photo is shown on screen now
+     */
+    public static final int PRIORITY_VISIBLE = 0;
+    /**
+     * Photo of geocache which is opened now
+     */
+    public static final int PRIORITY_CURRENT_CACHE = 1;
+    /**
+     * Photo which is downloaded for later use, 4ex photo of stored geocache which is not opened any more
+     */
+    public static final int PRIORITY_PREFETCH = 2;
+
+    private static final int MAX_PARALLEL_DOWNLOADS = 2;
+
+    private final ThreadPoolExecutor executor;
+    private final Handler handler;
+    private long sequence;
+
+    public PhotoDownloadScheduler() {
+        executor = new ThreadPoolExecutor(MAX_PARALLEL_DOWNLOADS, MAX_PARALLEL_DOWNLOADS, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int count;
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "PhotoDownload #" + ++count);
+            }
+        });
+        handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Schedules download of photo
+     *
+     * @return request which can be cancelled or re-prioritized
+     */
+    public synchronized Request schedule(GeoCachePhotoViewModel photo, int priority) {
+        Request request = new Request(photo, priority, sequence++);
+        executor.execute(request);
+        return request;
+    }
+
+    /**
+     * Moves waiting download to the end of queue of the new priority.
+     * Priority of running or finished download is not changed.
+     */
+    public synchronized void setPriority(Request request, int priority) {
+        if (request.priority == priority) return;
+        // priority of request can't be changed inside the queue, so request is put into queue again
+        if (executor.getQueue().remove(request) || request.deferred) {
+            request.deferred = false;
+            request.priority = priority;
+            request.order = sequence++;
+            executor.execute(request);
+        }
+    }
+
+    /**
+     * Passes prefetch download to network scheduler as bulk job, so it waits for Wi-Fi
+     */
+    private synchronized void defer(final Request request) {
+        request.deferred = true;
+        Controller.getInstance().getNetworkScheduler().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (PhotoDownloadScheduler.this) {
+                    if (request.deferred && !request.cancelled) {
+                        request.deferred = false;
+                        request.released = true;
+                        executor.execute(request);
+                    }
+                }
+            }
+        }, NetworkScheduler.BULK);
+    }
+
+    /**
+     * Removes download from queue. Running download is not interrupted, but its result is not passed to photo.
+     */
+    public synchronized void cancel(Request request) {
+        request.cancelled = true;
+        executor.getQueue().remove(request);
+    }
+
+    /**
+     * Download of one photo
+     */
+    public class Request implements Runnable, Comparable<Request> {
+        private final GeoCachePhotoViewModel photo;
+        private volatile int priority;
+        private long order;
+        private volatile boolean cancelled;
+        // download is waiting in network scheduler
+        private boolean deferred;
+        // download was released by network scheduler
+        private boolean released;
+
+        private Request(GeoCachePhotoViewModel photo, int priority, long order) {
+            this.photo = photo;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) return;
+            if (priority == PRIORITY_PREFETCH && !released) {
+                defer(this);
+                return;
+            }
+
+            LogManager.d(TAG, "Download photo %s with priority %d", photo.getRemoteUrl(), priority);
+            final boolean success = Controller.getInstance().getApiManager().downloadPhoto(photo.getGeoCacheId(), photo.getRemoteUrl());
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) return;
+                    if (success) {
+                        photo.geocachePhotoDownloaded();
+                    } else {
+                        photo.geocachePhotoDownloadFailed();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Request another) {
+            if (priority != another.priority) {
+                return priority < another.priority ? -1 : 1;
+            }
+            return order < another.order ? -1 : (order == another.order ? 0 : 1);
+        }
+    }
+}
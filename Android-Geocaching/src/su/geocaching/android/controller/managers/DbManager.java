@@ -6,8 +6,8 @@ import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.text.TextUtils;
 import su.geocaching.android.controller.Controller;
+import su.geocaching.android.controller.apimanager.HttpValidators;
 import su.geocaching.android.model.GeoCache;
 import su.geocaching.android.model.GeoCacheStatus;
 import su.geocaching.android.model.GeoCacheType;
@@ -16,10 +16,14 @@ import su.geocaching.android.model.GeoPoint;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 
 /**
  * This class contains method for working with database.
+ * <p/>
+ * Since version 7 geocaches are keyed by id, checkpoints and page validators are indexed by id of geocache,
+ * coordinates are stored as doubles and photo urls are stored in separate table, so lookups by id don't scan tables.
  *
  * @author Alekseenko Vladimir
  */
@@ -30,34 +34,76 @@ public class DbManager extends SQLiteOpenHelper {
     private static final String DATABASE_NAME_BASE = "CacheBase.db";
     private static final String DATABASE_NAME_TABLE = "cache";
     private static final String DATABASE_CHECKPOINT_NAME_TABLE = "chekpoints";
-    private static final int DATABASE_VERSION = 5;
+    private static final String DATABASE_HTTP_VALIDATORS_NAME_TABLE = "http_validators";
+    private static final String DATABASE_PHOTOS_NAME_TABLE = "photos";
+    private static final int DATABASE_VERSION = 8;
     // Name column database
     private static final String COLUMN_ID = "cid";
     private static final String COLUMN_TYPE = "type";
     private static final String COLUMN_WEB_TEXT = "text";
     private static final String COLUMN_NOTEBOOK_TEXT = "notetext";
-    private static final String COLUMN_LON = "longtitude";
-    private static final String COLUMN_LAT = "lantitude";
+    private static final String COLUMN_LON = "lon";
+    private static final String COLUMN_LAT = "lat";
     private static final String COLUMN_NAME = "name";
     private static final String COLUMN_STATUS = "status";
     private static final String COLUMN_USER_NOTES = "user_notes";
-    private static final String COLUMN_PHOTOS = "photos";
+    // 1 if photo urls were downloaded, list of them can be empty
+    private static final String COLUMN_PHOTOS_STORED = "photos_stored";
+    private static final String COLUMN_FAVORITE = "favorite";
+    private static final String COLUMN_POSITION = "position";
     private static final String CACHE_ID = "cache_id";
     private static final String CHECKPOINT_ID = "checkpoint_id";
+    private static final String COLUMN_URL = "url";
+    private static final String COLUMN_ETAG = "etag";
+    private static final String COLUMN_LAST_MODIFIED = "last_modified";
 
-    private static final String PHOTO_URL_DEVIDER = "; ";
+    // columns of version 6 and older
+    private static final String OLD_COLUMN_LON = "longtitude";
+    private static final String OLD_COLUMN_LAT = "lantitude";
+    private static final String OLD_COLUMN_PHOTOS = "photos";
+    private static final String OLD_PHOTO_URL_DEVIDER = "; ";
+    private static final String OLD_TABLE_SUFFIX = "_old";
 
     private SQLiteDatabase db;
 
+    // geocaches which are downloaded for offline use only are stored with favorite = 0 and are not shown in favorites
     private static final String SQL_CREATE_DATABASE_TABLE = String.format(
-            "CREATE TABLE %s (%s INTEGER, %s STRING, %s INTEGER, %s INTEGER, %s INTEGER, %s INTEGER, %s STRING, %s STRING, %s STRING, %s STRING);",
-            DATABASE_NAME_TABLE, COLUMN_ID, COLUMN_NAME, COLUMN_TYPE, COLUMN_STATUS, COLUMN_LAT, COLUMN_LON, COLUMN_WEB_TEXT, COLUMN_NOTEBOOK_TEXT, COLUMN_USER_NOTES, COLUMN_PHOTOS);
+            "CREATE TABLE %s (%s INTEGER PRIMARY KEY, %s STRING, %s INTEGER, %s INTEGER, %s REAL, %s REAL, %s STRING, %s STRING, %s STRING, %s INTEGER NOT NULL DEFAULT 0, %s INTEGER NOT NULL DEFAULT 1);",
+            DATABASE_NAME_TABLE, COLUMN_ID, COLUMN_NAME, COLUMN_TYPE, COLUMN_STATUS, COLUMN_LAT, COLUMN_LON, COLUMN_WEB_TEXT, COLUMN_NOTEBOOK_TEXT, COLUMN_USER_NOTES, COLUMN_PHOTOS_STORED, COLUMN_FAVORITE);
     private static final String SQL_CREATE_DATABASE_CHECKPOINT_TABLE = String.format(
-            "CREATE TABLE %s (%s INTEGER PRIMARY KEY AUTOINCREMENT, %s INTEGER, %s INTEGER, %s STRING, %s INTEGER, %s INTEGER, %s INTEGER);",
+            "CREATE TABLE %s (%s INTEGER PRIMARY KEY AUTOINCREMENT, %s INTEGER, %s INTEGER, %s STRING, %s REAL, %s REAL, %s INTEGER);",
             DATABASE_CHECKPOINT_NAME_TABLE, COLUMN_ID, CACHE_ID, CHECKPOINT_ID, COLUMN_NAME, COLUMN_LAT, COLUMN_LON, COLUMN_STATUS);
+    private static final String SQL_CREATE_DATABASE_CHECKPOINT_INDEX = String.format(
+            "CREATE INDEX %s_%s ON %s (%s, %s);",
+            DATABASE_CHECKPOINT_NAME_TABLE, CACHE_ID, DATABASE_CHECKPOINT_NAME_TABLE, CACHE_ID, CHECKPOINT_ID);
+    private static final String SQL_CREATE_DATABASE_HTTP_VALIDATORS_TABLE = String.format(
+            "CREATE TABLE %s (%s STRING PRIMARY KEY, %s INTEGER, %s STRING, %s STRING);",
+            DATABASE_HTTP_VALIDATORS_NAME_TABLE, COLUMN_URL, CACHE_ID, COLUMN_ETAG, COLUMN_LAST_MODIFIED);
+    private static final String SQL_CREATE_DATABASE_HTTP_VALIDATORS_INDEX = String.format(
+            "CREATE INDEX %s_%s ON %s (%s);",
+            DATABASE_HTTP_VALIDATORS_NAME_TABLE, CACHE_ID, DATABASE_HTTP_VALIDATORS_NAME_TABLE, CACHE_ID);
+    private static final String SQL_CREATE_DATABASE_PHOTOS_TABLE = String.format(
+            "CREATE TABLE %s (%s INTEGER, %s INTEGER, %s STRING, PRIMARY KEY (%s, %s));",
+            DATABASE_PHOTOS_NAME_TABLE, CACHE_ID, COLUMN_POSITION, COLUMN_URL, CACHE_ID, COLUMN_POSITION);
+    // checkpoint table of version 3, it is created by upgrade from older versions and migrated by upgrade to version 7
+    private static final String SQL_CREATE_DATABASE_CHECKPOINT_TABLE_V3 = String.format(
+            "CREATE TABLE %s (%s INTEGER PRIMARY KEY AUTOINCREMENT, %s INTEGER, %s INTEGER, %s STRING, %s INTEGER, %s INTEGER, %s INTEGER);",
+            DATABASE_CHECKPOINT_NAME_TABLE, COLUMN_ID, CACHE_ID, CHECKPOINT_ID, COLUMN_NAME, OLD_COLUMN_LAT, OLD_COLUMN_LON, COLUMN_STATUS);
+    // geocache table of version 7, it is created by upgrade to version 7 and gets favorite column by upgrade to version 8
+    private static final String SQL_CREATE_DATABASE_TABLE_V7 = String.format(
+            "CREATE TABLE %s (%s INTEGER PRIMARY KEY, %s STRING, %s INTEGER, %s INTEGER, %s REAL, %s REAL, %s STRING, %s STRING, %s STRING, %s INTEGER NOT NULL DEFAULT 0);",
+            DATABASE_NAME_TABLE, COLUMN_ID, COLUMN_NAME, COLUMN_TYPE, COLUMN_STATUS, COLUMN_LAT, COLUMN_LON, COLUMN_WEB_TEXT, COLUMN_NOTEBOOK_TEXT, COLUMN_USER_NOTES, COLUMN_PHOTOS_STORED);
 
     public DbManager(Context context) {
-        super(context, DATABASE_NAME_BASE, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME_BASE);
+    }
+
+    /**
+     * @param databaseName
+     *         name of database file, databases other than default one are used by tests
+     */
+    public DbManager(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
         db = getWritableDatabase();
     }
 
@@ -68,6 +114,10 @@ public class DbManager extends SQLiteOpenHelper {
             // Create tables
             db.execSQL(SQL_CREATE_DATABASE_TABLE);
             db.execSQL(SQL_CREATE_DATABASE_CHECKPOINT_TABLE);
+            db.execSQL(SQL_CREATE_DATABASE_CHECKPOINT_INDEX);
+            db.execSQL(SQL_CREATE_DATABASE_HTTP_VALIDATORS_TABLE);
+            db.execSQL(SQL_CREATE_DATABASE_HTTP_VALIDATORS_INDEX);
+            db.execSQL(SQL_CREATE_DATABASE_PHOTOS_TABLE);
             db.setTransactionSuccessful();
         } catch (SQLException e) {
             LogManager.e(TAG, e.toString(), e);
@@ -92,7 +142,7 @@ public class DbManager extends SQLiteOpenHelper {
         if (oldVersion < 3) {
             db.beginTransaction();
             try {
-                db.execSQL(SQL_CREATE_DATABASE_CHECKPOINT_TABLE);
+                db.execSQL(SQL_CREATE_DATABASE_CHECKPOINT_TABLE_V3);
                 db.setTransactionSuccessful();
             } catch (SQLException e) {
                 LogManager.e(TAG, e.toString(), e);
@@ -114,16 +164,93 @@ public class DbManager extends SQLiteOpenHelper {
         if (oldVersion < 5) {
             db.beginTransaction();
             try {
-                db.execSQL(String.format("ALTER TABLE %s ADD %s STRING;", DATABASE_NAME_TABLE, COLUMN_PHOTOS));
+                db.execSQL(String.format("ALTER TABLE %s ADD %s STRING;", DATABASE_NAME_TABLE, OLD_COLUMN_PHOTOS));
+                db.setTransactionSuccessful();
+            } catch (SQLException e) {
+                LogManager.e(TAG, e.toString(), e);
+            } finally {
+                db.endTransaction();
+            }
+        }
+        if (oldVersion < 6) {
+            db.beginTransaction();
+            try {
+                db.execSQL(SQL_CREATE_DATABASE_HTTP_VALIDATORS_TABLE);
+                db.setTransactionSuccessful();
+            } catch (SQLException e) {
+                LogManager.e(TAG, e.toString(), e);
+            } finally {
+                db.endTransaction();
+            }
+        }
+        if (oldVersion < 7) {
+            db.beginTransaction();
+            try {
+                migrateToVersion7(db);
+                db.setTransactionSuccessful();
+            } catch (SQLException e) {
+                // tables of older versions can't be read, so upgrade is aborted and repeated on next opening
+                LogManager.e(TAG, e.toString(), e);
+                throw e;
+            } finally {
+                db.endTransaction();
+            }
+        }
+        if (oldVersion < 8) {
+            db.beginTransaction();
+            try {
+                db.execSQL(String.format("ALTER TABLE %s ADD %s INTEGER NOT NULL DEFAULT 1;", DATABASE_NAME_TABLE, COLUMN_FAVORITE));
                 db.setTransactionSuccessful();
             } catch (SQLException e) {
                 LogManager.e(TAG, e.toString(), e);
+                throw e;
             } finally {
                 db.endTransaction();
             }
         }
     }
 
+    /**
+     * Copies geocaches and checkpoints to tables with keys and double coordinates, moves photo urls to photos table.
+     * SQLite can't change columns of table, so old tables are renamed, copied and dropped.
+     */
+    private static void migrateToVersion7(SQLiteDatabase db) {
+        String oldCacheTable = DATABASE_NAME_TABLE + OLD_TABLE_SUFFIX;
+        String oldCheckpointTable = DATABASE_CHECKPOINT_NAME_TABLE + OLD_TABLE_SUFFIX;
+        db.execSQL(String.format("ALTER TABLE %s RENAME TO %s;", DATABASE_NAME_TABLE, oldCacheTable));
+        db.execSQL(String.format("ALTER TABLE %s RENAME TO %s;", DATABASE_CHECKPOINT_NAME_TABLE, oldCheckpointTable));
+        db.execSQL(SQL_CREATE_DATABASE_TABLE_V7);
+        db.execSQL(SQL_CREATE_DATABASE_CHECKPOINT_TABLE);
+        db.execSQL(SQL_CREATE_DATABASE_CHECKPOINT_INDEX);
+        db.execSQL(SQL_CREATE_DATABASE_HTTP_VALIDATORS_INDEX);
+        db.execSQL(SQL_CREATE_DATABASE_PHOTOS_TABLE);
+
+        // old table has no key, the first row of geocache is kept
+        db.execSQL(String.format(
+                "INSERT OR IGNORE INTO %s (%s, %s, %s, %s, %s, %s, %s, %s, %s, %s) SELECT %s, %s, %s, %s, %s / 1E6, %s / 1E6, %s, %s, %s, %s IS NOT NULL FROM %s;",
+                DATABASE_NAME_TABLE, COLUMN_ID, COLUMN_NAME, COLUMN_TYPE, COLUMN_STATUS, COLUMN_LAT, COLUMN_LON, COLUMN_WEB_TEXT, COLUMN_NOTEBOOK_TEXT, COLUMN_USER_NOTES, COLUMN_PHOTOS_STORED,
+                COLUMN_ID, COLUMN_NAME, COLUMN_TYPE, COLUMN_STATUS, OLD_COLUMN_LAT, OLD_COLUMN_LON, COLUMN_WEB_TEXT, COLUMN_NOTEBOOK_TEXT, COLUMN_USER_NOTES, OLD_COLUMN_PHOTOS, oldCacheTable));
+        db.execSQL(String.format(
+                "INSERT INTO %s (%s, %s, %s, %s, %s, %s, %s) SELECT %s, %s, %s, %s, %s / 1E6, %s / 1E6, %s FROM %s;",
+                DATABASE_CHECKPOINT_NAME_TABLE, COLUMN_ID, CACHE_ID, CHECKPOINT_ID, COLUMN_NAME, COLUMN_LAT, COLUMN_LON, COLUMN_STATUS,
+                COLUMN_ID, CACHE_ID, CHECKPOINT_ID, COLUMN_NAME, OLD_COLUMN_LAT, OLD_COLUMN_LON, COLUMN_STATUS, oldCheckpointTable));
+
+        Cursor cursor = db.rawQuery(String.format("SELECT %s, %s FROM %s WHERE %s IS NOT NULL AND %s != ''",
+                COLUMN_ID, OLD_COLUMN_PHOTOS, oldCacheTable, OLD_COLUMN_PHOTOS, OLD_COLUMN_PHOTOS), null);
+        try {
+            while (cursor.moveToNext()) {
+                int cacheId = cursor.getInt(0);
+                if (isPhotosStored(db, cacheId)) continue; // duplicate row of geocache
+                insertPhotos(db, cacheId, Arrays.asList(cursor.getString(1).split(OLD_PHOTO_URL_DEVIDER)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        db.execSQL(String.format("DROP TABLE %s;", oldCacheTable));
+        db.execSQL(String.format("DROP TABLE %s;", oldCheckpointTable));
+    }
+
     /**
      * @param geoCacheForAdd
      *         GeoCache for add in database
@@ -138,17 +265,47 @@ public class DbManager extends SQLiteOpenHelper {
         values.put(COLUMN_NAME, geoCacheForAdd.getName());
         values.put(COLUMN_STATUS, geoCacheForAdd.getStatus().ordinal());
         values.put(COLUMN_TYPE, geoCacheForAdd.getType().ordinal());
-        //TODO Update database to store double lat and long
-        values.put(COLUMN_LAT, geoCacheForAdd.getGeoPoint().getLatitudeE6());
-        values.put(COLUMN_LON, geoCacheForAdd.getGeoPoint().getLongitudeE6());
+        values.put(COLUMN_LAT, geoCacheForAdd.getGeoPoint().getLatitude());
+        values.put(COLUMN_LON, geoCacheForAdd.getGeoPoint().getLongitude());
         values.put(COLUMN_WEB_TEXT, webText);
-        if (photos != null) {
-            values.put(COLUMN_PHOTOS, TextUtils.join(PHOTO_URL_DEVIDER, photos));
-        }
         if (webNotebookText != null) {
             values.put(COLUMN_NOTEBOOK_TEXT, webNotebookText);
         }
-        db.insert(DATABASE_NAME_TABLE, null, values);
+        db.beginTransaction();
+        try {
+            db.insert(DATABASE_NAME_TABLE, null, values);
+            if (photos != null) {
+                replacePhotos(geoCacheForAdd.getId(), photos);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Stores geocache for using without Internet. It is not shown in favorites until user adds it there.
+     * Nothing is changed if geocache is already stored.
+     */
+    public void addOfflineGeoCache(GeoCache geoCache) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_ID, geoCache.getId());
+        values.put(COLUMN_NAME, geoCache.getName());
+        values.put(COLUMN_STATUS, geoCache.getStatus().ordinal());
+        values.put(COLUMN_TYPE, geoCache.getType().ordinal());
+        values.put(COLUMN_LAT, geoCache.getGeoPoint().getLatitude());
+        values.put(COLUMN_LON, geoCache.getGeoPoint().getLongitude());
+        values.put(COLUMN_FAVORITE, 0);
+        db.insertWithOnConflict(DATABASE_NAME_TABLE, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Shows geocache which is stored for offline use in favorites
+     */
+    public void addToFavorites(int id) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_FAVORITE, 1);
+        db.update(DATABASE_NAME_TABLE, values, COLUMN_ID + "=" + id, null);
     }
 
     /**
@@ -161,9 +318,8 @@ public class DbManager extends SQLiteOpenHelper {
         values.put(CACHE_ID, cacheId);
         values.put(CHECKPOINT_ID, checkpoint.getId());
         values.put(COLUMN_NAME, checkpoint.getName());
-        //TODO Update database to store double lat and long
-        values.put(COLUMN_LAT, checkpoint.getGeoPoint().getLatitudeE6());
-        values.put(COLUMN_LON, checkpoint.getGeoPoint().getLongitudeE6());
+        values.put(COLUMN_LAT, checkpoint.getGeoPoint().getLatitude());
+        values.put(COLUMN_LON, checkpoint.getGeoPoint().getLongitude());
         values.put(COLUMN_STATUS, checkpoint.getStatus().ordinal());
 
         db.insert(DATABASE_CHECKPOINT_NAME_TABLE, null, values);
@@ -185,8 +341,7 @@ public class DbManager extends SQLiteOpenHelper {
         cache.setId(id);
 
         cache.setName(cur.getString(cur.getColumnIndex(COLUMN_NAME)));
-        //TODO: Update database to store double lat and long
-        cache.setGeoPoint(GeoPoint.fromE6(cur.getInt(cur.getColumnIndex(COLUMN_LAT)), cur.getInt(cur.getColumnIndex(COLUMN_LON))));
+        cache.setGeoPoint(new GeoPoint(cur.getDouble(cur.getColumnIndex(COLUMN_LAT)), cur.getDouble(cur.getColumnIndex(COLUMN_LON))));
         cache.setStatus(GeoCacheStatus.values()[cur.getInt(cur.getColumnIndex(COLUMN_STATUS))]);
         cache.setType(GeoCacheType.values()[cur.getInt(cur.getColumnIndex(COLUMN_TYPE))]);
 
@@ -199,7 +354,7 @@ public class DbManager extends SQLiteOpenHelper {
      */
     public ArrayList<GeoCache> getFavoritesGeoCaches() {
         ArrayList<GeoCache> exitCollection = new ArrayList<GeoCache>();
-        Cursor cur = db.rawQuery(String.format("select %s,%s,%s,%s,%s,%s from %s", COLUMN_ID, COLUMN_NAME, COLUMN_TYPE, COLUMN_STATUS, COLUMN_LAT, COLUMN_LON, DATABASE_NAME_TABLE), null);
+        Cursor cur = db.rawQuery(String.format("select %s,%s,%s,%s,%s,%s from %s where %s=1", COLUMN_ID, COLUMN_NAME, COLUMN_TYPE, COLUMN_STATUS, COLUMN_LAT, COLUMN_LON, DATABASE_NAME_TABLE, COLUMN_FAVORITE), null);
 
         cur.moveToFirst();
 
@@ -209,7 +364,7 @@ public class DbManager extends SQLiteOpenHelper {
             geocache.setId(cur.getInt(cur.getColumnIndex(COLUMN_ID)));
             geocache.setName(cur.getString(cur.getColumnIndex(COLUMN_NAME)));
             geocache.setStatus(GeoCacheStatus.values()[cur.getInt(cur.getColumnIndex(COLUMN_STATUS))]);
-            geocache.setGeoPoint(GeoPoint.fromE6(cur.getInt(cur.getColumnIndex(COLUMN_LAT)), cur.getInt(cur.getColumnIndex(COLUMN_LON))));
+            geocache.setGeoPoint(new GeoPoint(cur.getDouble(cur.getColumnIndex(COLUMN_LAT)), cur.getDouble(cur.getColumnIndex(COLUMN_LON))));
             geocache.setType(GeoCacheType.values()[cur.getInt(cur.getColumnIndex(COLUMN_TYPE))]);
             exitCollection.add(geocache);
 
@@ -237,7 +392,7 @@ public class DbManager extends SQLiteOpenHelper {
             GeoCache geocache = new GeoCache();
             geocache.setId(cursor.getInt(cursor.getColumnIndex(CHECKPOINT_ID)));
             geocache.setName(cursor.getString(cursor.getColumnIndex(COLUMN_NAME)));
-            geocache.setGeoPoint(GeoPoint.fromE6(cursor.getInt(cursor.getColumnIndex(COLUMN_LAT)), cursor.getInt(cursor.getColumnIndex(COLUMN_LON))));
+            geocache.setGeoPoint(new GeoPoint(cursor.getDouble(cursor.getColumnIndex(COLUMN_LAT)), cursor.getDouble(cursor.getColumnIndex(COLUMN_LON))));
             geocache.setType(GeoCacheType.CHECKPOINT);
             geocache.setStatus(GeoCacheStatus.values()[cursor.getInt(cursor.getColumnIndex(COLUMN_STATUS))]);
             exitCollection.add(geocache);
@@ -292,29 +447,27 @@ public class DbManager extends SQLiteOpenHelper {
         return exitString;
     }
 
+    /**
+     * @return urls of photos of geocache. Null if geocache isn't stored or its photos weren't downloaded
+     */
     public Collection<URL> getCachePhotosById(int id) {
-        ArrayList<URL> photosUrl = null;
-
-        Cursor cursor = db.rawQuery(String.format("select %s from %s where %s=%d", COLUMN_PHOTOS, DATABASE_NAME_TABLE, COLUMN_ID, id), null);
+        Cursor cursor = db.rawQuery(String.format("select %s from %s where %s=%d", COLUMN_PHOTOS_STORED, DATABASE_NAME_TABLE, COLUMN_ID, id), null);
+        boolean photosStored = cursor.moveToFirst() && cursor.getInt(0) != 0;
+        cursor.close();
+        if (!photosStored) {
+            return null;
+        }
 
-        if (cursor != null && cursor.getCount() != 0) {
-            cursor.moveToFirst();
-            String photos = cursor.getString(cursor.getColumnIndex(COLUMN_PHOTOS));
-            if (photos != null) {
-                photosUrl = new ArrayList<URL>();
-                if (!photos.equals("")) {
-                    for (String url : photos.split(PHOTO_URL_DEVIDER)) {
-                        try {
-                            photosUrl.add(new URL(url));
-                        } catch (MalformedURLException e) {
-                            LogManager.e(TAG, e);
-                        }
-                    }
-                }
+        ArrayList<URL> photosUrl = new ArrayList<URL>();
+        cursor = db.rawQuery(String.format("select %s from %s where %s=%d order by %s", COLUMN_URL, DATABASE_PHOTOS_NAME_TABLE, CACHE_ID, id, COLUMN_POSITION), null);
+        while (cursor.moveToNext()) {
+            try {
+                photosUrl.add(new URL(cursor.getString(0)));
+            } catch (MalformedURLException e) {
+                LogManager.e(TAG, e);
             }
         }
         cursor.close();
-
         return photosUrl;
     }
 
@@ -338,9 +491,45 @@ public class DbManager extends SQLiteOpenHelper {
      */
     public void deleteCacheById(int id) {
         db.execSQL(String.format("DELETE FROM %s WHERE %s=%d;", DATABASE_NAME_TABLE, COLUMN_ID, id));
+        db.execSQL(String.format("DELETE FROM %s WHERE %s=%d;", DATABASE_PHOTOS_NAME_TABLE, CACHE_ID, id));
+        db.execSQL(String.format("DELETE FROM %s WHERE %s=%d;", DATABASE_HTTP_VALIDATORS_NAME_TABLE, CACHE_ID, id));
         Controller.getInstance().getCheckpointManager(id).clear();
     }
 
+    /**
+     * Removes geocaches which are stored for offline use only, together with their photos.
+     * Favorite geocaches are kept.
+     *
+     * @return number of removed geocaches
+     */
+    public int deleteOfflineGeoCaches() {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        Cursor cursor = db.query(DATABASE_NAME_TABLE, new String[]{COLUMN_ID}, COLUMN_FAVORITE + "=0", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        db.beginTransaction();
+        try {
+            for (int id : ids) {
+                deleteCacheById(id);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        ExternalStorageManager externalStorageManager = Controller.getInstance().getExternalStorageManager();
+        for (int id : ids) {
+            externalStorageManager.deletePhotos(id);
+        }
+        LogManager.d(TAG, "deleteOfflineGeoCaches: %d", ids.size());
+        return ids.size();
+    }
+
     /**
      * @param cacheId
      *         id of parent geocache
@@ -356,15 +545,46 @@ public class DbManager extends SQLiteOpenHelper {
     }
 
     public void updateNotebookText(int cacheId, String htmlNotebookText) {
+        updateNotebookText(cacheId, htmlNotebookText, null);
+    }
+
+    /**
+     * Saves notebook and validators of its page in one transaction
+     *
+     * @param validators
+     *         validators of downloaded page, can be null
+     */
+    public void updateNotebookText(int cacheId, String htmlNotebookText, HttpValidators validators) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_NOTEBOOK_TEXT, htmlNotebookText);
-        db.update(DATABASE_NAME_TABLE, values, COLUMN_ID + "=" + cacheId, null);
+        updateCache(cacheId, values, validators);
     }
 
     public void updateInfoText(int cacheId, String htmlInfoText) {
+        updateInfoText(cacheId, htmlInfoText, null);
+    }
+
+    /**
+     * Saves info and validators of its page in one transaction
+     *
+     * @param validators
+     *         validators of downloaded page, can be null
+     */
+    public void updateInfoText(int cacheId, String htmlInfoText, HttpValidators validators) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_WEB_TEXT, htmlInfoText);
-        db.update(DATABASE_NAME_TABLE, values, COLUMN_ID + "=" + cacheId, null);
+        updateCache(cacheId, values, validators);
+    }
+
+    private void updateCache(int cacheId, ContentValues values, HttpValidators validators) {
+        db.beginTransaction();
+        try {
+            db.update(DATABASE_NAME_TABLE, values, COLUMN_ID + "=" + cacheId, null);
+            updateHttpValidators(cacheId, validators);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     public void updateNotes(int cacheId, String note) {
@@ -374,24 +594,132 @@ public class DbManager extends SQLiteOpenHelper {
     }
 
     public void updatePhotos(int cacheId, Collection<URL> photos) {
+        updatePhotos(cacheId, photos, null);
+    }
+
+    /**
+     * Saves list of photos and validators of photo page in one transaction
+     *
+     * @param validators
+     *         validators of downloaded page, can be null
+     */
+    public void updatePhotos(int cacheId, Collection<URL> photos, HttpValidators validators) {
+        db.beginTransaction();
+        try {
+            replacePhotos(cacheId, photos);
+            updateHttpValidators(cacheId, validators);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void replacePhotos(int cacheId, Collection<URL> photos) {
+        db.delete(DATABASE_PHOTOS_NAME_TABLE, CACHE_ID + "=" + cacheId, null);
+        insertPhotos(db, cacheId, photos);
         ContentValues values = new ContentValues();
-        values.put(COLUMN_PHOTOS, TextUtils.join(PHOTO_URL_DEVIDER, photos));
+        values.put(COLUMN_PHOTOS_STORED, 1);
         db.update(DATABASE_NAME_TABLE, values, COLUMN_ID + "=" + cacheId, null);
     }
 
+    /**
+     * @param urls
+     *         urls of photos in order of showing, they are stored as strings
+     */
+    private static void insertPhotos(SQLiteDatabase db, int cacheId, Collection<?> urls) {
+        int position = 0;
+        for (Object url : urls) {
+            ContentValues values = new ContentValues();
+            values.put(CACHE_ID, cacheId);
+            values.put(COLUMN_POSITION, position++);
+            values.put(COLUMN_URL, url.toString());
+            db.insert(DATABASE_PHOTOS_NAME_TABLE, null, values);
+        }
+    }
+
+    private static boolean isPhotosStored(SQLiteDatabase db, int cacheId) {
+        Cursor cursor = db.rawQuery(String.format("SELECT 1 FROM %s WHERE %s=%d LIMIT 1", DATABASE_PHOTOS_NAME_TABLE, CACHE_ID, cacheId), null);
+        boolean stored = cursor.getCount() > 0;
+        cursor.close();
+        return stored;
+    }
+
+    /**
+     * @param url
+     *         url of downloaded page
+     * @return array of ETag and Last-Modified values of the page, they can be null. Null if page validators weren't saved
+     */
+    public String[] getHttpValidators(String url) {
+        String[] validators = null;
+        Cursor cursor = db.query(DATABASE_HTTP_VALIDATORS_NAME_TABLE, new String[]{COLUMN_ETAG, COLUMN_LAST_MODIFIED}, COLUMN_URL + "=?", new String[]{url}, null, null, null);
+
+        if (cursor != null && cursor.getCount() != 0) {
+            cursor.moveToFirst();
+            validators = new String[]{cursor.getString(0), cursor.getString(1)};
+        }
+        cursor.close();
+        return validators;
+    }
+
+    /**
+     * Save validators of downloaded page of stored geocache, they are used for conditional requests
+     *
+     * @param cacheId
+     *         id of geocache which page belongs to
+     * @param url
+     *         url of downloaded page
+     * @param eTag
+     *         value of ETag header, can be null
+     * @param lastModified
+     *         value of Last-Modified header, can be null
+     */
+    public void updateHttpValidators(int cacheId, String url, String eTag, String lastModified) {
+        if (eTag == null && lastModified == null) {
+            db.delete(DATABASE_HTTP_VALIDATORS_NAME_TABLE, COLUMN_URL + "=?", new String[]{url});
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_URL, url);
+        values.put(CACHE_ID, cacheId);
+        values.put(COLUMN_ETAG, eTag);
+        values.put(COLUMN_LAST_MODIFIED, lastModified);
+        db.replace(DATABASE_HTTP_VALIDATORS_NAME_TABLE, null, values);
+    }
+
+    private void updateHttpValidators(int cacheId, HttpValidators validators) {
+        // validators are not received if page wasn't downloaded, then stored ones are still valid
+        if (validators != null && validators.getUrl() != null && isCacheStored(cacheId)) {
+            updateHttpValidators(cacheId, validators.getUrl(), validators.getETag(), validators.getLastModified());
+        }
+    }
+
+    /**
+     * @return true if geocache is stored in database, either as favorite or for offline use
+     */
     public boolean isCacheStored(int id) {
         String[] selectionArgs = new String[]{Integer.toString(id)};
-        Cursor cursor = db.query(DATABASE_NAME_TABLE, null, COLUMN_ID + "=?", selectionArgs, null, null, null);
+        // only key is read, so text columns of geocache are not loaded
+        Cursor cursor = db.query(DATABASE_NAME_TABLE, new String[]{COLUMN_ID}, COLUMN_ID + "=?", selectionArgs, null, null, null);
         int count = cursor.getCount();
         cursor.close();
         LogManager.d(TAG, "isCacheStored id=" + id + " " + (count > 0));
         return count > 0;
     }
 
+    public boolean isCacheFavorite(int id) {
+        String[] selectionArgs = new String[]{Integer.toString(id)};
+        Cursor cursor = db.query(DATABASE_NAME_TABLE, new String[]{COLUMN_ID}, COLUMN_ID + "=? AND " + COLUMN_FAVORITE + "=1", selectionArgs, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count > 0;
+    }
+
     public void clearDB() {
         LogManager.d(TAG, "clearDB");
         db.delete(DATABASE_NAME_TABLE, null, null);
         db.delete(DATABASE_CHECKPOINT_NAME_TABLE, null, null);
+        db.delete(DATABASE_HTTP_VALIDATORS_NAME_TABLE, null, null);
+        db.delete(DATABASE_PHOTOS_NAME_TABLE, null, null);
         Controller.getInstance().getExternalStorageManager().deleteAllPhotos();
     }
 }
@@ -1,5 +1,6 @@
 package su.geocaching.android.controller.managers;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.os.Debug;
 import android.os.Handler;
@@ -49,4 +50,19 @@ public class MemoryManager {
     public void showMemoryToast() {
         memoryTimer.schedule(memoryReporterTask, 0, UPDATE_INTERVAL);
     }
+
+    /**
+     * @param level
+     *         one of ComponentCallbacks2.TRIM_MEMORY_* levels
+     * @return part of memory caches which can be kept on this level
+     */
+    public static float getKeptShare(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) return 0;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) return 0.25f;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) return 0.5f;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) return 0.75f;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) return 0.25f;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) return 0.5f;
+        return 1;
+    }
 }
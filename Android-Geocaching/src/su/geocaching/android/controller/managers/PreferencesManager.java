@@ -256,6 +256,11 @@ public class PreferencesManager {
         return preferences.getBoolean(context.getString(R.string.use_group_cache_key), resources.getBoolean(R.bool.use_group_cache_default_value));
     }
 
+    public Boolean isHierarchicalGroupingEnabled() {
+        // keys located in resources, because settings logic described in xml and write it automatically to SharedPreferences
+        return preferences.getBoolean(context.getString(R.string.hierarchical_grouping_key), resources.getBoolean(R.bool.hierarchical_grouping_default_value));
+    }
+
     public Boolean isMapScaleVisible() {
         // keys located in resources, because settings logic described in xml and write it automatically to SharedPreferences
         return preferences.getBoolean(context.getString(R.string.show_map_scale_key), resources.getBoolean(R.bool.show_map_scale_default_value));
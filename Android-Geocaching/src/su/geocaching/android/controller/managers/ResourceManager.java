@@ -1,8 +1,10 @@
 package su.geocaching.android.controller.managers;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
+import android.preference.PreferenceManager;
 import su.geocaching.android.controller.Controller;
 import su.geocaching.android.model.GeoCache;
 import su.geocaching.android.model.GeoCacheStatus;
@@ -22,8 +24,21 @@ public class ResourceManager {
         DEFAULT, CUSTOM
     }
 
+    // icon type is read from preferences once and reset when it is changed
+    private IconType iconType;
+    // SharedPreferences keep listeners by weak references, so it must be kept here
+    private final SharedPreferences.OnSharedPreferenceChangeListener iconTypeListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (context.getString(R.string.prefer_icon_key).equals(key)) {
+                iconType = null;
+            }
+        }
+    };
+
     public ResourceManager(Context context) {
         this.context = context;
+        PreferenceManager.getDefaultSharedPreferences(context).registerOnSharedPreferenceChangeListener(iconTypeListener);
     }
 
     public Drawable getDrawable(int id) {
@@ -69,10 +84,7 @@ public class ResourceManager {
      * @return Drawable for this geoCache depends on it's parameters
      */
     public int getMarkerResId(GeoCacheType type, GeoCacheStatus status) {
-        PreferencesManager manager = Controller.getInstance().getPreferencesManager();
-        IconType iconType = IconType.valueOf(manager.getIconType());
-
-        switch (iconType) {
+        switch (getIconType()) {
             case CUSTOM:
                 switch (type) {
                     case TRADITIONAL:
@@ -268,6 +280,14 @@ public class ResourceManager {
         return -1;
     }
 
+    private IconType getIconType() {
+        if (iconType == null) {
+            PreferencesManager manager = Controller.getInstance().getPreferencesManager();
+            iconType = IconType.valueOf(manager.getIconType());
+        }
+        return iconType;
+    }
+
     /**
      * Set bounds to marker
      *
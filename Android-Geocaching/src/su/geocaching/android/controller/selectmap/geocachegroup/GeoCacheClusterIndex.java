@@ -0,0 +1,373 @@
+package su.geocaching.android.controller.selectmap.geocachegroup;
+
+import android.os.AsyncTask;
+import su.geocaching.android.controller.apimanager.GeoRect;
+import su.geocaching.android.model.GeoCache;
+import su.geocaching.android.model.GeoCacheType;
+import su.geocaching.android.model.GeoPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Hierarchical clustering of geocaches which is built once for list of geocaches and answers
+ * queries for any view port and zoom without clustering again.
+ * <p/>
+ * Geocaches are placed in world coordinates of spherical Mercator projection (0..1 for the whole world).
+ * On the highest zoom every geocache is a separate point. Points of each zoom are merged into clusters of
+ * the next lower zoom: every point takes all not yet taken points closer than {@link #RADIUS} pixels
+ * of that zoom, cluster is placed into their weighted center. Points of every zoom are sorted by cells of grid
+ * with cell size of radius, so neighbours and points of view port are found by a few binary searches.
+ * <p/>
+ * The same cluster is always returned as the same object with negative id which is unique in the index,
+ * so clusters of different queries can be compared.
+ */
+public class GeoCacheClusterIndex {
+
+    public static final int MAX_ZOOM = 17;
+    // geocaches are not clustered on zoom MAX_ZOOM + 1 and higher
+    private static final int POINTS_ZOOM = MAX_ZOOM + 1;
+    private static final int TILE_SIZE = 256; // pixels
+    private static final double RADIUS = 60; // pixels
+    private static final double MAX_LATITUDE = 85.0511287798;
+    // cells of grid take at least 1 / 2^AXIS_BITS of the world
+    private static final int AXIS_BITS = 20;
+    // index of point takes lower bits of sort key, higher bits are cell key
+    private static final int INDEX_BITS = 22;
+    private static final int NO_CACHE = -1;
+
+    private final List<GeoCache> geoCaches;
+    // geocaches sorted by id, lists are compared with them
+    private final GeoCache[] sortedGeoCaches;
+    private final Level[] levels = new Level[POINTS_ZOOM + 1];
+
+    /**
+     * Points of one zoom level sorted by cells of grid
+     */
+    private static class Level {
+        private final int zoom;
+        private final double cellSize;
+        private final double[] x;
+        private final double[] y;
+        private final int[] count;
+        // geocache of single point, NO_CACHE for cluster
+        private final int[] cache;
+        private final int size;
+        // sorted cell keys of points, point i is in cell cellKeys[i]
+        private final long[] cellKeys;
+        // clusters which were returned by queries, guarded by the level
+        private final GeoCache[] groups;
+
+        private Level(int zoom, double radius, double[] x, double[] y, int[] count, int[] cache, int size) {
+            this.zoom = zoom;
+            this.groups = new GeoCache[size];
+            this.cellSize = Math.max(radius, 1.0 / (1 << AXIS_BITS));
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = (getCellKey(x[i], y[i], cellSize) << INDEX_BITS) | i;
+            }
+            Arrays.sort(keys);
+
+            this.x = new double[size];
+            this.y = new double[size];
+            this.count = new int[size];
+            this.cache = new int[size];
+            this.cellKeys = new long[size];
+            for (int i = 0; i < size; i++) {
+                int index = (int) (keys[i] & ((1 << INDEX_BITS) - 1));
+                this.x[i] = x[index];
+                this.y[i] = y[index];
+                this.count[i] = count[index];
+                this.cache[i] = cache[index];
+                this.cellKeys[i] = keys[i] >>> INDEX_BITS;
+            }
+            this.size = size;
+        }
+
+        /**
+         * @return index of the first point of the cell or of the next cell
+         */
+        private int findCell(long cellKey) {
+            int index = Arrays.binarySearch(cellKeys, cellKey);
+            if (index < 0) return -index - 1;
+            while (index > 0 && cellKeys[index - 1] == cellKey) {
+                index--;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Builds index, it takes a while for long lists
+     *
+     * @param asyncTask
+     *         building is stopped if this task is cancelled, may be null
+     */
+    public GeoCacheClusterIndex(List<GeoCache> geoCaches, AsyncTask<?, ?, ?> asyncTask) {
+        // geocaches are taken by index
+        this.geoCaches = new ArrayList<GeoCache>(geoCaches);
+        this.sortedGeoCaches = sortById(geoCaches);
+
+        int size = geoCaches.size();
+        double[] x = new double[size];
+        double[] y = new double[size];
+        int[] count = new int[size];
+        int[] cache = new int[size];
+        int i = 0;
+        for (GeoCache geoCache : geoCaches) {
+            x[i] = longitudeToX(geoCache.getGeoPoint().getLongitude());
+            y[i] = latitudeToY(geoCache.getGeoPoint().getLatitude());
+            count[i] = 1;
+            cache[i] = i;
+            i++;
+        }
+        levels[POINTS_ZOOM] = new Level(POINTS_ZOOM, getRadius(POINTS_ZOOM), x, y, count, cache, size);
+        for (int zoom = MAX_ZOOM; zoom >= 0; zoom--) {
+            if (asyncTask != null && asyncTask.isCancelled()) return;
+            levels[zoom] = cluster(levels[zoom + 1], zoom);
+        }
+    }
+
+    /**
+     * @return false if index was not built completely because task was cancelled
+     */
+    public boolean isReady() {
+        return levels[0] != null;
+    }
+
+    /**
+     * @return true if index was built for list with the same geocaches in any order. Geocaches are compared by fields,
+     *         so index is built again when any geocache is moved, renamed or changes type or status.
+     */
+    public boolean isBuiltFor(List<GeoCache> list) {
+        if (!isReady() || list.size() != sortedGeoCaches.length) return false;
+        GeoCache[] sortedList = sortById(list);
+        for (int i = 0; i < sortedList.length; i++) {
+            if (!isSameGeoCache(sortedGeoCaches[i], sortedList[i])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param zoom
+     *         zoom of map, where the whole world takes 256 * 2^zoom pixels
+     * @return geocaches and clusters inside of view port. Cluster is geocache of {@link GeoCacheType#GROUP} type.
+     */
+    public List<GeoCache> getClusters(GeoRect viewPort, int zoom) {
+        Level level = getLevel(zoom);
+        List<GeoCache> result = new LinkedList<GeoCache>();
+        for (GeoRect part : viewPort.split()) {
+            double minX = longitudeToX(part.tl.getLongitude());
+            double maxX = longitudeToX(part.br.getLongitude());
+            double minY = latitudeToY(part.tl.getLatitude());
+            double maxY = latitudeToY(part.br.getLatitude());
+            long minColumn = (long) (minX / level.cellSize);
+            long maxColumn = (long) (maxX / level.cellSize);
+            long minRow = (long) (minY / level.cellSize);
+            long maxRow = (long) (maxY / level.cellSize);
+
+            if ((maxRow - minRow + 1) * (maxColumn - minColumn + 1) > level.size) {
+                // view port has more cells than points, check every point
+                addContained(level, 0, level.size, minX, maxX, minY, maxY, result);
+                continue;
+            }
+            for (long row = minRow; row <= maxRow; row++) {
+                // cells of one row follow each other in sort order
+                int from = level.findCell(getCellKey(row, minColumn));
+                int to = level.findCell(getCellKey(row, maxColumn + 1));
+                addContained(level, from, to, minX, maxX, minY, maxY, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return zoom where the whole world takes 256 * 2^zoom pixels, calculated by width of view port
+     */
+    public static int getZoom(GeoRect viewPort, int mapWidth) {
+        double longitudeSpan = viewPort.br.getLongitude() - viewPort.tl.getLongitude();
+        if (longitudeSpan <= 0) {
+            longitudeSpan += 360;
+        }
+        double worldWidth = mapWidth * 360 / longitudeSpan;
+        return (int) Math.round(Math.log(worldWidth / TILE_SIZE) / Math.log(2));
+    }
+
+    private Level getLevel(int zoom) {
+        return levels[Math.max(0, Math.min(POINTS_ZOOM, zoom))];
+    }
+
+    /**
+     * @return number of points on the zoom, it is number of geocaches and clusters in the whole world
+     */
+    int getPointsCount(int zoom) {
+        return getLevel(zoom).size;
+    }
+
+    /**
+     * @return column of grid of the zoom which contains the longitude
+     */
+    long getColumn(double longitude, int zoom) {
+        return (long) (longitudeToX(longitude) / getLevel(zoom).cellSize);
+    }
+
+    /**
+     * @return row of grid of the zoom which contains the latitude
+     */
+    long getRow(double latitude, int zoom) {
+        return (long) (latitudeToY(latitude) / getLevel(zoom).cellSize);
+    }
+
+    /**
+     * Adds all geocaches and clusters of cells from fromColumn to toColumn of the row
+     */
+    void addCells(int zoom, long row, long fromColumn, long toColumn, Collection<GeoCache> result) {
+        Level level = getLevel(zoom);
+        int from = level.findCell(getCellKey(row, fromColumn));
+        int to = level.findCell(getCellKey(row, toColumn + 1));
+        for (int i = from; i < to; i++) {
+            result.add(createGeoCache(level, i));
+        }
+    }
+
+    private void addContained(Level level, int from, int to, double minX, double maxX, double minY, double maxY, List<GeoCache> result) {
+        for (int i = from; i < to; i++) {
+            if (level.x[i] >= minX && level.x[i] <= maxX && level.y[i] >= minY && level.y[i] <= maxY) {
+                result.add(createGeoCache(level, i));
+            }
+        }
+    }
+
+    /**
+     * Clusters are created by the first query which returns them. Index is queried from UI thread and from
+     * grouping task at the same time, so creation is synchronized and every cluster has one object.
+     */
+    private GeoCache createGeoCache(Level level, int i) {
+        if (level.cache[i] != NO_CACHE) {
+            return geoCaches.get(level.cache[i]);
+        }
+        synchronized (level) {
+            GeoCache group = level.groups[i];
+            if (group == null) {
+                group = new GeoCache();
+                group.setId(-((level.zoom << INDEX_BITS) + i + 1));
+                group.setGeoPoint(new GeoPoint(yToLatitude(level.y[i]), xToLongitude(level.x[i])));
+                group.setType(GeoCacheType.GROUP);
+                group.setGroupSize(level.count[i]);
+                level.groups[i] = group;
+            }
+            return group;
+        }
+    }
+
+    /**
+     * Merges points of higher zoom into clusters
+     */
+    private static Level cluster(Level points, int zoom) {
+        double radius = getRadius(zoom);
+        int size = points.size;
+        double[] x = new double[size];
+        double[] y = new double[size];
+        int[] count = new int[size];
+        int[] cache = new int[size];
+        boolean[] taken = new boolean[size];
+        int clusters = 0;
+        double squaredRadius = radius * radius;
+        long cells = (long) Math.ceil(radius / points.cellSize);
+
+        for (int i = 0; i < size; i++) {
+            if (taken[i]) continue;
+            taken[i] = true;
+            double sumX = points.x[i] * points.count[i];
+            double sumY = points.y[i] * points.count[i];
+            int sumCount = points.count[i];
+
+            long row = (long) (points.y[i] / points.cellSize);
+            long column = (long) (points.x[i] / points.cellSize);
+            for (long r = row - cells; r <= row + cells; r++) {
+                int from = points.findCell(getCellKey(r, column - cells));
+                int to = points.findCell(getCellKey(r, column + cells + 1));
+                for (int j = from; j < to; j++) {
+                    if (taken[j]) continue;
+                    double dx = points.x[j] - points.x[i];
+                    double dy = points.y[j] - points.y[i];
+                    if (dx * dx + dy * dy <= squaredRadius) {
+                        taken[j] = true;
+                        sumX += points.x[j] * points.count[j];
+                        sumY += points.y[j] * points.count[j];
+                        sumCount += points.count[j];
+                    }
+                }
+            }
+
+            x[clusters] = sumX / sumCount;
+            y[clusters] = sumY / sumCount;
+            count[clusters] = sumCount;
+            cache[clusters] = sumCount == points.count[i] ? points.cache[i] : NO_CACHE;
+            clusters++;
+        }
+        return new Level(zoom, radius, x, y, count, cache, clusters);
+    }
+
+    /**
+     * @return radius of cluster in world coordinates
+     */
+    private static double getRadius(int zoom) {
+        return RADIUS / (TILE_SIZE * Math.pow(2, zoom));
+    }
+
+    private static long getCellKey(double x, double y, double cellSize) {
+        return getCellKey((long) (y / cellSize), (long) (x / cellSize));
+    }
+
+    /**
+     * Rows and columns out of world are clamped, so keys of one row are sequential
+     */
+    private static long getCellKey(long row, long column) {
+        long maxIndex = (1L << AXIS_BITS) - 1;
+        row = Math.max(0, Math.min(maxIndex, row));
+        column = Math.max(-1, Math.min(maxIndex + 1, column));
+        return (row << (AXIS_BITS + 1)) + column + 1;
+    }
+
+    private static GeoCache[] sortById(Collection<GeoCache> geoCaches) {
+        GeoCache[] sorted = geoCaches.toArray(new GeoCache[geoCaches.size()]);
+        Arrays.sort(sorted, new Comparator<GeoCache>() {
+            @Override
+            public int compare(GeoCache first, GeoCache second) {
+                return first.getId() < second.getId() ? -1 : (first.getId() == second.getId() ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    private static boolean isSameGeoCache(GeoCache first, GeoCache second) {
+        return first.getId() == second.getId()
+                && first.getType() == second.getType()
+                && first.getStatus() == second.getStatus()
+                && first.getGeoPoint().getLatitude() == second.getGeoPoint().getLatitude()
+                && first.getGeoPoint().getLongitude() == second.getGeoPoint().getLongitude()
+                && (first.getName() == null ? second.getName() == null : first.getName().equals(second.getName()));
+    }
+
+    static double longitudeToX(double longitude) {
+        return longitude / 360 + 0.5;
+    }
+
+    static double latitudeToY(double latitude) {
+        double sin = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    static double xToLongitude(double x) {
+        return (x - 0.5) * 360;
+    }
+
+    static double yToLatitude(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh((0.5 - y) * 2 * Math.PI)));
+    }
+}
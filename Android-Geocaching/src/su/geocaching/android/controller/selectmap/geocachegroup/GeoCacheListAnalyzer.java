@@ -1,13 +1,12 @@
 package su.geocaching.android.controller.selectmap.geocachegroup;
 
-import android.graphics.Point;
 import android.os.AsyncTask;
-import com.google.android.gms.maps.Projection;
-import com.google.android.gms.maps.model.LatLng;
+import su.geocaching.android.controller.apimanager.GeoRect;
 import su.geocaching.android.model.GeoCache;
 import su.geocaching.android.model.GeoCacheType;
 import su.geocaching.android.model.GeoPoint;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -17,32 +16,57 @@ import java.util.List;
  */
 
 public class GeoCacheListAnalyzer {
-    private Projection projection;
+    private MercatorProjector projector;
+    private GeoRect viewPort;
     private int mapWidth, mapHeight;
+    private GeoCacheClusterIndex clusterIndex;
+    private IncrementalClusterQuery clusterQuery;
+    private final boolean hierarchical;
 
     private static final int FINGER_SIZE_X = 60;
     private static final int FINGER_SIZE_Y = 80;
 
-    public GeoCacheListAnalyzer(Projection projection, int mapWidth, int mapHeight) {
-        this.projection = projection;
+    /**
+     * @param projector
+     *         projection of map for the view port
+     * @param clusterIndex
+     *         index built for previous list, it is used again if the list is the same. May be null.
+     * @param hierarchical
+     *         true if geocaches are grouped by hierarchical index which is built once for the list,
+     *         false if they are grouped by KMeans on each change of view port
+     */
+    public GeoCacheListAnalyzer(MercatorProjector projector, GeoRect viewPort, int mapWidth, int mapHeight, GeoCacheClusterIndex clusterIndex, boolean hierarchical) {
+        this.hierarchical = hierarchical;
+        this.projector = projector;
+        this.viewPort = viewPort;
         this.mapWidth = mapWidth;
         this.mapHeight = mapHeight;
+        this.clusterIndex = clusterIndex;
     }
 
-    private LinkedList<GeoCache> createGeocachesList(List<Centroid> centroidList) {
+    /**
+     * @return query which returned the last grouped list, it can be updated for close view ports.
+     *         Null if geocaches were grouped by KMeans.
+     */
+    public IncrementalClusterQuery getClusterQuery() {
+        return clusterQuery;
+    }
+
+    private LinkedList<GeoCache> createGeocachesList(List<GeoCache> geoCacheList, KMeans kMeans, int[] centroidX, int[] centroidY) {
         final LinkedList<GeoCache> geocachesList = new LinkedList<GeoCache>();
-        for (Centroid centroid : centroidList) {
-            int num = centroid.getNumberOfView();
+        for (int i = 0; i < centroidX.length; i++) {
+            int num = kMeans.getCount(i);
             if (num > 0) {
                 if (num == 1) {
-                    geocachesList.add(centroid.getCache());
+                    geocachesList.add(geoCacheList.get(kMeans.getFirstPoint(i)));
                 } else {
-                    Point screenLocation = new Point(centroid.getX(), centroid.getY());
-                    LatLng location = projection.fromScreenLocation(screenLocation);
-                    GeoPoint geoPoint = new GeoPoint(location.latitude, location.longitude);
+                    GeoPoint geoPoint = projector.fromScreenLocation(centroidX[i], centroidY[i]);
                     GeoCache group = new GeoCache();
+                    // groups of one list have different ids, they are compared by id
+                    group.setId(-(i + 1));
                     group.setGeoPoint(geoPoint);
                     group.setType(GeoCacheType.GROUP);
+                    group.setGroupSize(num);
                     geocachesList.add(group);
                 }
             }
@@ -50,36 +74,58 @@ public class GeoCacheListAnalyzer {
         return geocachesList;
     }
 
-    private List<Centroid> generateCentroids() {
-        final int sizeX = mapWidth / FINGER_SIZE_X;
+    /**
+     * Centroids are placed in centers of cells of FINGER_SIZE_X x FINGER_SIZE_Y grid
+     */
+    private void generateCentroids(int[] centroidX, int[] centroidY) {
         final int sizeY = mapHeight / FINGER_SIZE_Y;
-        List<Centroid> centroids = new LinkedList<Centroid>();
-
-        for (int i = 0; i < sizeX; i++) {
-            for (int j = 0; j < sizeY; j++) {
-                centroids.add(new Centroid((int) ((i + 0.5) * FINGER_SIZE_X), (int) ((j + 0.5) * FINGER_SIZE_Y), null));
-            }
+        for (int i = 0; i < centroidX.length; i++) {
+            centroidX[i] = (int) ((i / sizeY + 0.5) * FINGER_SIZE_X);
+            centroidY[i] = (int) ((i % sizeY + 0.5) * FINGER_SIZE_Y);
         }
-        return centroids;
     }
 
     public List<GeoCache> getGroupedList(List<GeoCache> geoCacheList, AsyncTask<?, ?, ?> asyncTask) {
-        final List<Centroid> centroids = generateCentroids();
-        if (asyncTask.isCancelled()) return null;
-        final List<GeoCacheView> points = generatePointsList(geoCacheList);
+        if (hierarchical && viewPort != null) {
+            return getClusteredList(geoCacheList, asyncTask);
+        }
+        clusterIndex = null;
+        clusterQuery = null;
+        if (projector == null) return new LinkedList<GeoCache>();
+        // geocaches are taken by index
+        final List<GeoCache> geoCaches = new ArrayList<GeoCache>(geoCacheList);
+        final int centroidsCount = (mapWidth / FINGER_SIZE_X) * (mapHeight / FINGER_SIZE_Y);
+        final int[] centroidX = new int[centroidsCount];
+        final int[] centroidY = new int[centroidsCount];
+        generateCentroids(centroidX, centroidY);
+        final int[] x = new int[geoCaches.size()];
+        final int[] y = new int[geoCaches.size()];
+        generatePoints(geoCaches, x, y);
         if (asyncTask.isCancelled()) return null;
-        final List<Centroid> centroidList = new KMeans(points, centroids, asyncTask).getCentroids();
+        final KMeans kMeans = new KMeans(x, y, centroidX, centroidY, FINGER_SIZE_X, FINGER_SIZE_Y, asyncTask);
         if (asyncTask.isCancelled()) return null;
-        return createGeocachesList(centroidList);
+        return createGeocachesList(geoCaches, kMeans, centroidX, centroidY);
+    }
+
+    private List<GeoCache> getClusteredList(List<GeoCache> geoCacheList, AsyncTask<?, ?, ?> asyncTask) {
+        if (clusterIndex == null || !clusterIndex.isBuiltFor(geoCacheList)) {
+            clusterIndex = new GeoCacheClusterIndex(geoCacheList, asyncTask);
+            if (!clusterIndex.isReady()) return null;
+        }
+        clusterQuery = new IncrementalClusterQuery(clusterIndex);
+        clusterQuery.update(viewPort, GeoCacheClusterIndex.getZoom(viewPort, mapWidth));
+        return clusterQuery.getClusters();
     }
 
-    private List<GeoCacheView> generatePointsList(List<GeoCache> geoCacheList) {
-        List<GeoCacheView> list = new LinkedList<GeoCacheView>();
+    private void generatePoints(List<GeoCache> geoCacheList, int[] x, int[] y) {
+        double[] latitudes = new double[x.length];
+        double[] longitudes = new double[x.length];
+        int i = 0;
         for (GeoCache cache : geoCacheList) {
-            LatLng latLng = new LatLng(cache.getGeoPoint().getLatitude(), cache.getGeoPoint().getLongitude());
-            Point point = projection.toScreenLocation(latLng);
-            list.add(new GeoCacheView(point.x, point.y, cache));
+            latitudes[i] = cache.getGeoPoint().getLatitude();
+            longitudes[i] = cache.getGeoPoint().getLongitude();
+            i++;
         }
-        return list;
+        projector.toScreenLocations(latitudes, longitudes, x, y);
     }
 }
@@ -1,6 +1,8 @@
 package su.geocaching.android.controller.selectmap.geocachegroup;
 
 import android.os.AsyncTask;
+import su.geocaching.android.controller.Controller;
+import su.geocaching.android.controller.apimanager.GeoRect;
 import su.geocaching.android.controller.managers.LogManager;
 import su.geocaching.android.model.GeoCache;
 import su.geocaching.android.ui.selectmap.SelectMapViewModel;
@@ -12,11 +14,19 @@ public class GroupGeoCacheTask extends AsyncTask<Void, Integer, List<GeoCache>>
     private final SelectMapViewModel selectMapViewModel;
     private final GeoCacheListAnalyzer analyzer;
     private final List<GeoCache> geoCacheList;
+    private final GeoRect listArea;
 
-    public GroupGeoCacheTask(SelectMapViewModel selectMapViewModel, List<GeoCache> geoCacheList) {
+    /**
+     * @param listArea
+     *         area which geocache list covers completely, null if the list is not complete yet
+     */
+    public GroupGeoCacheTask(SelectMapViewModel selectMapViewModel, List<GeoCache> geoCacheList, GeoRect listArea) {
         this.selectMapViewModel = selectMapViewModel;
         this.geoCacheList = geoCacheList;
-        analyzer = new GeoCacheListAnalyzer(selectMapViewModel.getProjection(), selectMapViewModel.getMapWidth(), selectMapViewModel.getMapHeight());
+        this.listArea = listArea;
+        analyzer = new GeoCacheListAnalyzer(selectMapViewModel.getProjector(), selectMapViewModel.getViewPort(),
+                selectMapViewModel.getMapWidth(), selectMapViewModel.getMapHeight(), selectMapViewModel.getClusterIndex(),
+                Controller.getInstance().getPreferencesManager().isHierarchicalGroupingEnabled());
     }
 
     @Override
@@ -28,7 +38,7 @@ public class GroupGeoCacheTask extends AsyncTask<Void, Integer, List<GeoCache>>
     @Override
     protected void onPostExecute(List<GeoCache> items) {
         LogManager.d(TAG, "start add Overlay Items, items = " + items.size());
-        selectMapViewModel.geocacheListGrouped(items);
+        selectMapViewModel.geocacheListGrouped(items, analyzer.getClusterQuery(), listArea);
     }
 
     @Override
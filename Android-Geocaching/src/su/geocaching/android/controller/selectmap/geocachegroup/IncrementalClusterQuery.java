@@ -0,0 +1,142 @@
+package su.geocaching.android.controller.selectmap.geocachegroup;
+
+import su.geocaching.android.controller.apimanager.GeoRect;
+import su.geocaching.android.model.GeoCache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps geocaches and clusters of {@link GeoCacheClusterIndex} shown in view port and updates them
+ * when view port moves. Clusters are taken by whole cells of the index grid: when map is panned on the same zoom,
+ * only cells which enter or leave view port are visited, so the cost doesn't depend on number of shown geocaches.
+ * Changes of the last update are kept, so only markers of changed clusters have to be updated.
+ */
+public class IncrementalClusterQuery {
+    private final GeoCacheClusterIndex index;
+    // shown geocaches and clusters by id
+    private final Map<Integer, GeoCache> clusters = new LinkedHashMap<Integer, GeoCache>();
+    private final List<GeoCache> added = new LinkedList<GeoCache>();
+    private final List<GeoCache> removed = new LinkedList<GeoCache>();
+
+    private int zoom;
+    // cells of shown clusters, valid only if hasCells is true
+    private boolean hasCells = false;
+    private long minRow, maxRow, minColumn, maxColumn;
+
+    public IncrementalClusterQuery(GeoCacheClusterIndex index) {
+        this.index = index;
+    }
+
+    public GeoCacheClusterIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Moves query to the view port. Geocaches close to view port can be included too.
+     *
+     * @param zoom
+     *         zoom of map, where the whole world takes 256 * 2^zoom pixels
+     */
+    public void update(GeoRect viewPort, int zoom) {
+        added.clear();
+        removed.clear();
+
+        long newMinRow = index.getRow(viewPort.tl.getLatitude(), zoom);
+        long newMaxRow = index.getRow(viewPort.br.getLatitude(), zoom);
+        long newMinColumn = index.getColumn(viewPort.tl.getLongitude(), zoom);
+        long newMaxColumn = index.getColumn(viewPort.br.getLongitude(), zoom);
+        boolean cellsAvailable = !viewPort.isCrossing180()
+                && (newMaxRow - newMinRow + 1) * (newMaxColumn - newMinColumn + 1) <= index.getPointsCount(zoom);
+
+        if (!cellsAvailable) {
+            // view port has more cells than the zoom has points, ask index as is
+            replaceAll(index.getClusters(viewPort, zoom));
+        } else if (!hasCells || zoom != this.zoom) {
+            List<GeoCache> result = new ArrayList<GeoCache>();
+            for (long row = newMinRow; row <= newMaxRow; row++) {
+                index.addCells(zoom, row, newMinColumn, newMaxColumn, result);
+            }
+            replaceAll(result);
+        } else {
+            List<GeoCache> result = new ArrayList<GeoCache>();
+            // cells which enter view port
+            addCellsOutside(zoom, newMinRow, newMaxRow, newMinColumn, newMaxColumn, minRow, maxRow, minColumn, maxColumn, result);
+            for (GeoCache geoCache : result) {
+                if (clusters.put(geoCache.getId(), geoCache) == null) {
+                    added.add(geoCache);
+                }
+            }
+            // cells which leave view port
+            result.clear();
+            addCellsOutside(zoom, minRow, maxRow, minColumn, maxColumn, newMinRow, newMaxRow, newMinColumn, newMaxColumn, result);
+            for (GeoCache geoCache : result) {
+                if (clusters.remove(geoCache.getId()) != null) {
+                    removed.add(geoCache);
+                }
+            }
+        }
+
+        this.zoom = zoom;
+        hasCells = cellsAvailable;
+        minRow = newMinRow;
+        maxRow = newMaxRow;
+        minColumn = newMinColumn;
+        maxColumn = newMaxColumn;
+    }
+
+    /**
+     * Adds clusters of cells of the first range which are not in the second one
+     */
+    private void addCellsOutside(int zoom, long minRow, long maxRow, long minColumn, long maxColumn,
+                                 long exceptMinRow, long exceptMaxRow, long exceptMinColumn, long exceptMaxColumn, List<GeoCache> result) {
+        for (long row = minRow; row <= maxRow; row++) {
+            if (row < exceptMinRow || row > exceptMaxRow) {
+                index.addCells(zoom, row, minColumn, maxColumn, result);
+                continue;
+            }
+            if (minColumn < exceptMinColumn) {
+                index.addCells(zoom, row, minColumn, Math.min(maxColumn, exceptMinColumn - 1), result);
+            }
+            if (maxColumn > exceptMaxColumn) {
+                index.addCells(zoom, row, Math.max(minColumn, exceptMaxColumn + 1), maxColumn, result);
+            }
+        }
+    }
+
+    private void replaceAll(List<GeoCache> result) {
+        Map<Integer, GeoCache> old = new LinkedHashMap<Integer, GeoCache>(clusters);
+        clusters.clear();
+        for (GeoCache geoCache : result) {
+            clusters.put(geoCache.getId(), geoCache);
+            if (old.remove(geoCache.getId()) == null) {
+                added.add(geoCache);
+            }
+        }
+        removed.addAll(old.values());
+    }
+
+    /**
+     * @return all shown geocaches and clusters
+     */
+    public List<GeoCache> getClusters() {
+        return new ArrayList<GeoCache>(clusters.values());
+    }
+
+    /**
+     * @return geocaches and clusters which were shown by the last update and weren't shown before
+     */
+    public List<GeoCache> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return geocaches and clusters which were shown before the last update and aren't shown now
+     */
+    public List<GeoCache> getRemoved() {
+        return removed;
+    }
+}
@@ -2,86 +2,314 @@ package su.geocaching.android.controller.selectmap.geocachegroup;
 
 import android.os.AsyncTask;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
+ * KMeans over screen coordinates of points kept in int arrays.
+ * <p/>
+ * Closest centroid is found by grid of buckets: centroids are sorted into cells of the given size
+ * and cells are checked ring by ring around the point until no closer centroid can be found.
+ * Points are assigned in parallel chunks on long lists, every chunk sums coordinates of its points
+ * into its own arrays. Arrays are allocated once, iterations don't allocate per point or per centroid.
+ *
  * @author Yuri Denison; yuri.denison@gmail.com
  * @since 17.02.11
  */
 
 public class KMeans {
-    private final List<Centroid> centroids;
-    private final List<GeoCacheView> points;
     private static final long TIMEOUT = 3 * 1000; // milliseconds
-    private boolean ready;
+    // shorter lists are assigned in the calling thread
+    private static final int MIN_PARALLEL_POINTS = 2000;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int NO_CENTROID = -1;
 
-    public KMeans(List<GeoCacheView> cacheCoordinates, List<Centroid> centroids, AsyncTask<?, ?, ?> asyncTask) {
-        this.points = cacheCoordinates;
-        this.centroids = centroids;
-        initResultsMap();
-        ready = false;
+    private static ExecutorService executor;
+
+    private final int[] x, y;
+    private final int[] centroidX, centroidY;
+    private final int pointsCount, centroidsCount;
+    // closest centroid of every point
+    private final int[] assignment;
+    private final int[] firstPoint;
+
+    // grid of centroid buckets, it covers all points and initial centroids, centroids never leave it
+    private final int cellWidth, cellHeight;
+    private final int minX, minY, columns, rows;
+    private final int[] cellStart;
+    private final int[] cellCentroids;
+
+    private final List<Chunk> chunks;
+    private int iterations;
+
+    /**
+     * Part of points which is assigned by one thread
+     */
+    private class Chunk implements Callable<Boolean> {
+        private final int from, to;
+        private final long[] sumX, sumY;
+        private final int[] count;
+
+        private Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+            sumX = new long[centroidsCount];
+            sumY = new long[centroidsCount];
+            count = new int[centroidsCount];
+        }
+
+        /**
+         * @return true if assignment of some point was changed
+         */
+        @Override
+        public Boolean call() {
+            boolean changed = false;
+            for (int c = 0; c < centroidsCount; c++) {
+                sumX[c] = 0;
+                sumY[c] = 0;
+                count[c] = 0;
+            }
+            for (int i = from; i < to; i++) {
+                int closest = findClosestCentroid(x[i], y[i]);
+                if (assignment[i] != closest) {
+                    assignment[i] = closest;
+                    changed = true;
+                }
+                sumX[closest] += x[i];
+                sumY[closest] += y[i];
+                count[closest]++;
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Groups points. Centroids are moved to the centers of their groups.
+     *
+     * @param x
+     *         screen coordinates of points
+     * @param centroidX
+     *         initial screen coordinates of centroids, they are replaced by final ones
+     * @param cellWidth
+     *         size of buckets of centroids, the best is the distance between initial centroids
+     */
+    public KMeans(int[] x, int[] y, int[] centroidX, int[] centroidY, int cellWidth, int cellHeight, AsyncTask<?, ?, ?> asyncTask) {
+        this.x = x;
+        this.y = y;
+        this.centroidX = centroidX;
+        this.centroidY = centroidY;
+        this.pointsCount = x.length;
+        this.centroidsCount = centroidX.length;
+        this.cellWidth = Math.max(1, cellWidth);
+        this.cellHeight = Math.max(1, cellHeight);
+        assignment = new int[pointsCount];
+        firstPoint = new int[centroidsCount];
+
+        // mean of points is inside of their bounds, so centroids stay inside of bounds of points and initial centroids
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE, right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < pointsCount; i++) {
+            left = Math.min(left, x[i]);
+            right = Math.max(right, x[i]);
+            top = Math.min(top, y[i]);
+            bottom = Math.max(bottom, y[i]);
+        }
+        for (int c = 0; c < centroidsCount; c++) {
+            left = Math.min(left, centroidX[c]);
+            right = Math.max(right, centroidX[c]);
+            top = Math.min(top, centroidY[c]);
+            bottom = Math.max(bottom, centroidY[c]);
+        }
+        minX = left;
+        minY = top;
+        columns = centroidsCount == 0 ? 0 : (int) (((long) right - left) / this.cellWidth + 1);
+        rows = centroidsCount == 0 ? 0 : (int) (((long) bottom - top) / this.cellHeight + 1);
+        cellStart = new int[columns * rows + 1];
+        cellCentroids = new int[centroidsCount];
+
+        int chunksCount = pointsCount < MIN_PARALLEL_POINTS ? 1 : THREADS;
+        chunks = new ArrayList<Chunk>(chunksCount);
+        for (int i = 0; i < chunksCount; i++) {
+            chunks.add(new Chunk((int) ((long) pointsCount * i / chunksCount), (int) ((long) pointsCount * (i + 1) / chunksCount)));
+        }
+
+        if (centroidsCount == 0) return;
+        for (int i = 0; i < pointsCount; i++) {
+            assignment[i] = NO_CENTROID;
+        }
+        fillGrid();
+        assignPoints();
         long startTime = System.currentTimeMillis();
-        while (!ready) {
-            if (asyncTask.isCancelled() || startTime + TIMEOUT < System.currentTimeMillis()) break;
-            ready = true;
-            fillCentroids();
-            fillCurrentResult();
+        while (true) {
+            if ((asyncTask != null && asyncTask.isCancelled()) || startTime + TIMEOUT < System.currentTimeMillis()) break;
+            iterations++;
+            if (!moveCentroids()) break;
+            fillGrid();
+            if (!assignPoints()) break;
         }
+        fillFirstPoints();
     }
 
-    public List<Centroid> getCentroids() {
-        for (GeoCacheView point : points) {
-            Centroid centroid = point.getClosestCentroid();
-            centroid.plusNew(point.getX(), point.getY());
-            if (centroid.getCache() == null) {
-                centroid.setCache(point.getCache());
-            }
+    /**
+     * @return number of points which are closest to the centroid
+     */
+    public int getCount(int centroid) {
+        int count = 0;
+        for (Chunk chunk : chunks) {
+            count += chunk.count[centroid];
         }
-        return centroids;
+        return count;
     }
 
-    private Centroid findClosestCentroid(GeoCacheView point) {
-        long minDistance = Long.MAX_VALUE;
-        Centroid result = null;
-        for (Centroid centroid : centroids) {
-            long dist = countDistance(point, centroid);
-            if (dist < minDistance) {
-                result = centroid;
-                minDistance = dist;
+    /**
+     * @return index of the first point which is closest to the centroid, -1 if there is no such point
+     */
+    public int getFirstPoint(int centroid) {
+        return firstPoint[centroid];
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return true if some centroid was moved
+     */
+    private boolean moveCentroids() {
+        boolean moved = false;
+        for (int c = 0; c < centroidsCount; c++) {
+            long sumX = 0, sumY = 0;
+            int count = 0;
+            for (Chunk chunk : chunks) {
+                sumX += chunk.sumX[c];
+                sumY += chunk.sumY[c];
+                count += chunk.count[c];
+            }
+            if (count == 0) continue;
+            int newX = (int) (sumX / count);
+            int newY = (int) (sumY / count);
+            if (newX != centroidX[c] || newY != centroidY[c]) {
+                centroidX[c] = newX;
+                centroidY[c] = newY;
+                moved = true;
             }
         }
-        return result;
+        return moved;
+    }
+
+    /**
+     * Sorts centroids into buckets by counting sort
+     */
+    private void fillGrid() {
+        for (int i = 0; i < cellStart.length; i++) {
+            cellStart[i] = 0;
+        }
+        for (int c = 0; c < centroidsCount; c++) {
+            cellStart[getCell(centroidX[c], centroidY[c]) + 1]++;
+        }
+        for (int i = 1; i < cellStart.length; i++) {
+            cellStart[i] += cellStart[i - 1];
+        }
+        // centroids of every cell keep their order, so ties are resolved as in list of centroids
+        for (int c = 0; c < centroidsCount; c++) {
+            int cell = getCell(centroidX[c], centroidY[c]);
+            cellCentroids[cellStart[cell]++] = c;
+        }
+        for (int i = cellStart.length - 1; i > 0; i--) {
+            cellStart[i] = cellStart[i - 1];
+        }
+        cellStart[0] = 0;
+    }
+
+    private int getCell(int pointX, int pointY) {
+        return (pointY - minY) / cellHeight * columns + (pointX - minX) / cellWidth;
     }
 
-    private void initResultsMap() {
-        for (GeoCacheView point : points) {
-            Centroid centroid = findClosestCentroid(point);
-            point.setClosestCentroid(centroid);
+    /**
+     * @return true if assignment of some point was changed
+     */
+    private boolean assignPoints() {
+        if (chunks.size() == 1) {
+            return chunks.get(0).call();
         }
+        boolean changed = false;
+        try {
+            for (Future<Boolean> result : getExecutor().invokeAll(chunks)) {
+                changed |= result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return changed;
     }
 
-    private void fillCurrentResult() {
-        for (GeoCacheView aPoint : points) {
-            Centroid newClosestCentroid = findClosestCentroid(aPoint);
-            if (!aPoint.getClosestCentroid().equals(newClosestCentroid)) {
-                ready = false;
-                aPoint.setClosestCentroid(newClosestCentroid);
+    /**
+     * Checks rings of cells around the point. Centroids of ring r are at least (r - 1) cells far away.
+     *
+     * @return the closest centroid, the first one in list of centroids if there are a few of them
+     */
+    private int findClosestCentroid(int pointX, int pointY) {
+        int column = (pointX - minX) / cellWidth;
+        int row = (pointY - minY) / cellHeight;
+        int minCellSize = Math.min(cellWidth, cellHeight);
+        int maxRing = Math.max(Math.max(column, columns - 1 - column), Math.max(row, rows - 1 - row));
+        long minDistance = Long.MAX_VALUE;
+        int result = NO_CENTROID;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            long bound = (long) Math.max(0, ring - 1) * minCellSize;
+            if (result != NO_CENTROID && bound * bound > minDistance) break;
+            for (int r = Math.max(0, row - ring); r <= Math.min(rows - 1, row + ring); r++) {
+                boolean edgeRow = r == row - ring || r == row + ring;
+                // inner cells of the ring were checked by the previous rings
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int c = column - ring; c <= column + ring; c += Math.max(1, step)) {
+                    if (c < 0 || c >= columns) continue;
+                    int cell = r * columns + c;
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        int centroid = cellCentroids[i];
+                        long dx = pointX - centroidX[centroid];
+                        long dy = pointY - centroidY[centroid];
+                        long distance = dx * dx + dy * dy;
+                        if (distance < minDistance || (distance == minDistance && centroid < result)) {
+                            minDistance = distance;
+                            result = centroid;
+                        }
+                    }
+                }
             }
         }
+        return result;
     }
 
-    private void fillCentroids() {
-        for (GeoCacheView point : points) {
-            point.getClosestCentroid().plusNew(point.getX(), point.getY());
+    private void fillFirstPoints() {
+        for (int c = 0; c < centroidsCount; c++) {
+            firstPoint[c] = NO_CENTROID;
         }
-        for (Centroid centroid : centroids) {
-            centroid.setNew();
+        for (int i = pointsCount - 1; i >= 0; i--) {
+            firstPoint[assignment[i]] = i;
         }
     }
 
-    private long countDistance(GeoCacheView point, GeoCacheView centroid) {
-        int x = point.getX() - centroid.getX();
-        int y = point.getY() - centroid.getY();
-        return x * x + y * y;
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "KMeans");
+                    // it is background priority on Android, KMeans runs on desktop JVM in benchmarks too
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+package su.geocaching.android.controller.selectmap.geocachegroup;
+
+import su.geocaching.android.controller.apimanager.GeoRect;
+import su.geocaching.android.model.GeoPoint;
+
+/**
+ * Converts coordinates to screen pixels and back by spherical Mercator projection, as Google map does.
+ * It is a snapshot of map camera: view port and size of map are taken once, so conversion doesn't call map
+ * and can be done in background. Map is not rotated and not tilted, so view port is a rectangle on screen.
+ */
+public class MercatorProjector {
+    // world coordinates of view port center, world is 0..1
+    private final double centerX, centerY;
+    // pixels in 1 of world coordinates
+    private final double scaleX, scaleY;
+    private final double halfWidth, halfHeight;
+
+    public MercatorProjector(GeoRect viewPort, int mapWidth, int mapHeight) {
+        double left = GeoCacheClusterIndex.longitudeToX(viewPort.tl.getLongitude());
+        double spanX = GeoCacheClusterIndex.longitudeToX(viewPort.br.getLongitude()) - left;
+        if (spanX <= 0) {
+            // view port crosses 180 meridian
+            spanX += 1;
+        }
+        double top = GeoCacheClusterIndex.latitudeToY(viewPort.tl.getLatitude());
+        double bottom = GeoCacheClusterIndex.latitudeToY(viewPort.br.getLatitude());
+
+        centerX = left + spanX / 2;
+        centerY = (top + bottom) / 2;
+        scaleX = mapWidth / spanX;
+        scaleY = bottom > top ? mapHeight / (bottom - top) : scaleX;
+        halfWidth = mapWidth / 2.0;
+        halfHeight = mapHeight / 2.0;
+    }
+
+    /**
+     * @return area of map tile in Google tile numbering, where zoom has 2^zoom x 2^zoom tiles
+     */
+    public static GeoRect getTileArea(int x, int y, int zoom) {
+        double tiles = 1 << zoom;
+        GeoPoint tl = new GeoPoint(GeoCacheClusterIndex.yToLatitude(y / tiles), GeoCacheClusterIndex.xToLongitude(x / tiles));
+        GeoPoint br = new GeoPoint(GeoCacheClusterIndex.yToLatitude((y + 1) / tiles), GeoCacheClusterIndex.xToLongitude((x + 1) / tiles));
+        return new GeoRect(tl, br);
+    }
+
+    /**
+     * Converts arrays of coordinates to screen pixels
+     *
+     * @param x
+     *         receives horizontal screen coordinates, must be not shorter than latitudes
+     * @param y
+     *         receives vertical screen coordinates, must be not shorter than latitudes
+     */
+    public void toScreenLocations(double[] latitudes, double[] longitudes, int[] x, int[] y) {
+        toScreenLocations(latitudes, longitudes, latitudes.length, x, y);
+    }
+
+    /**
+     * Converts the first count coordinates of arrays to screen pixels
+     */
+    public void toScreenLocations(double[] latitudes, double[] longitudes, int count, int[] x, int[] y) {
+        for (int i = 0; i < count; i++) {
+            double dx = GeoCacheClusterIndex.longitudeToX(longitudes[i]) - centerX;
+            // the nearest copy of the world
+            if (dx < -0.5) {
+                dx += 1;
+            } else if (dx >= 0.5) {
+                dx -= 1;
+            }
+            double dy = GeoCacheClusterIndex.latitudeToY(latitudes[i]) - centerY;
+            x[i] = (int) Math.round(halfWidth + dx * scaleX);
+            y[i] = (int) Math.round(halfHeight + dy * scaleY);
+        }
+    }
+
+    public GeoPoint fromScreenLocation(int x, int y) {
+        double worldX = centerX + (x - halfWidth) / scaleX;
+        double worldY = centerY + (y - halfHeight) / scaleY;
+        worldX -= Math.floor(worldX);
+        return new GeoPoint(GeoCacheClusterIndex.yToLatitude(worldY), GeoCacheClusterIndex.xToLongitude(worldX));
+    }
+}
@@ -11,14 +11,18 @@ import android.os.Parcelable;
  */
 public class GeoCache implements Parcelable {
 
+    // GeoPoint is immutable, so all new geocaches can share it
+    private static final GeoPoint DEFAULT_GEO_POINT = new GeoPoint(0, 0);
+
     private int id; // Unique identifier of GeoCache(from geocaching.su)
     private GeoPoint geoPoint;
     private String name;
     private GeoCacheType type;
     private GeoCacheStatus status;
+    private int groupSize = 1; // number of geocaches in geocache of GROUP type
 
     public GeoCache() {
-        geoPoint = new GeoPoint(0, 0);
+        geoPoint = DEFAULT_GEO_POINT;
         type = GeoCacheType.TRADITIONAL;
         status = GeoCacheStatus.VALID;
     }
@@ -63,6 +67,14 @@ public class GeoCache implements Parcelable {
         this.status = status;
     }
 
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    public void setGroupSize(int groupSize) {
+        this.groupSize = groupSize;
+    }
+
     /*
       * (non-Javadoc)
       *
@@ -87,6 +99,7 @@ public class GeoCache implements Parcelable {
         arg0.writeDouble(geoPoint.getLongitude());
         arg0.writeInt(type.ordinal());
         arg0.writeInt(status.ordinal());
+        arg0.writeInt(groupSize);
     }
 
     /**
@@ -106,6 +119,7 @@ public class GeoCache implements Parcelable {
             res.geoPoint = new GeoPoint(in.readDouble(), in.readDouble());
             res.type = GeoCacheType.values()[in.readInt()];
             res.status = GeoCacheStatus.values()[in.readInt()];
+            res.groupSize = in.readInt();
             return res;
         }
 
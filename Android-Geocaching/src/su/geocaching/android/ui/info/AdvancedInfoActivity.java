@@ -85,12 +85,12 @@ public class AdvancedInfoActivity extends SherlockFragmentActivity {
             titleTextView.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View view) {
-                    if (!infoViewModel.isCacheStored()) {
+                    if (!infoViewModel.isCacheFavorite()) {
                         onSaveCache();
                     }
                 }
             });
-            updateTitleTextView(infoViewModel.isCacheStored());
+            updateTitleTextView(infoViewModel.isCacheFavorite());
         }
 
         setContentView(R.layout.advanced_info_activity);
@@ -132,9 +132,9 @@ public class AdvancedInfoActivity extends SherlockFragmentActivity {
         return (TextView) findViewById(titleId);
     }
 
-    private void updateTitleTextView(boolean isCacheStored) {
+    private void updateTitleTextView(boolean isCacheFavorite) {
         if (titleTextView == null) return;
-        if (isCacheStored) {
+        if (isCacheFavorite) {
             titleTextView.setTextColor(getResources().getColor(R.color.dashboard_text_color));
         } else {
             titleTextView.setTextColor(getResources().getColor(R.color.disabled_text_color));
@@ -203,7 +203,7 @@ public class AdvancedInfoActivity extends SherlockFragmentActivity {
     public boolean onPrepareOptionsMenu(Menu menu) {
 
         if (menu != null) {
-            if (infoViewModel.isCacheStored()) {
+            if (infoViewModel.isCacheFavorite()) {
                 menu.findItem(R.id.menu_info_save).setVisible(false);
                 menu.findItem(R.id.menu_info_delete).setVisible(true);
             } else {
@@ -298,14 +298,14 @@ public class AdvancedInfoActivity extends SherlockFragmentActivity {
     }
 
     private void onSearchCache() {
-        if (!infoViewModel.isCacheStored()) {
+        if (!infoViewModel.isCacheFavorite()) {
             onSaveCache();
         }
     }
 
     public void openCheckpointDialog(GeoPoint geoPoint) {
 
-        if (!infoViewModel.isCacheStored()) {
+        if (!infoViewModel.isCacheFavorite()) {
             Toast.makeText(this, R.string.ask_add_cache_in_db, Toast.LENGTH_LONG).show();
             return;
         }
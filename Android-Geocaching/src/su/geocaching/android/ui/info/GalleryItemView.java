@@ -7,6 +7,7 @@ import android.net.Uri;
 import android.os.Handler;
 import android.view.View;
 import android.widget.*;
+import su.geocaching.android.controller.apimanager.PhotoDownloadScheduler;
 import su.geocaching.android.controller.managers.LogManager;
 import su.geocaching.android.ui.R;
 
@@ -52,7 +53,9 @@ public class GalleryItemView extends FrameLayout implements GeoCachePhotoDownloa
     public void updateGeoCachePhoto(GeoCachePhotoViewModel photo) {
         if (getWindowToken() != null) {
             this.cachePhoto.removePhotoDownloadingChangedEventListener(this);
+            this.cachePhoto.setPriority(PhotoDownloadScheduler.PRIORITY_CURRENT_CACHE);
             this.cachePhoto = photo;
+            this.cachePhoto.setPriority(PhotoDownloadScheduler.PRIORITY_VISIBLE);
             this.cachePhoto.addPhotoDownloadingChangedEventListener(this);
             updateView();
         } else {
@@ -140,6 +143,7 @@ public class GalleryItemView extends FrameLayout implements GeoCachePhotoDownloa
     protected void onAttachedToWindow() {
         LogManager.d(TAG, "onAttachedToWindow");
         updateView();
+        this.cachePhoto.setPriority(PhotoDownloadScheduler.PRIORITY_VISIBLE);
         this.cachePhoto.addPhotoDownloadingChangedEventListener(this);
         super.onAttachedToWindow();
     }
@@ -148,6 +152,7 @@ public class GalleryItemView extends FrameLayout implements GeoCachePhotoDownloa
     protected void onDetachedFromWindow() {
         LogManager.d(TAG, "onDetachedFromWindow");
         this.cachePhoto.removePhotoDownloadingChangedEventListener(this);
+        this.cachePhoto.setPriority(PhotoDownloadScheduler.PRIORITY_CURRENT_CACHE);
         super.onDetachedFromWindow();
     }
 
@@ -1,9 +1,8 @@
 package su.geocaching.android.ui.info;
 
 import android.net.Uri;
-import android.os.AsyncTask;
 import su.geocaching.android.controller.Controller;
-import su.geocaching.android.controller.apimanager.AdvancedDownloadPhotoTask;
+import su.geocaching.android.controller.apimanager.PhotoDownloadScheduler;
 
 import java.net.URL;
 import java.util.ArrayList;
@@ -11,7 +10,8 @@ import java.util.List;
 
 public class GeoCachePhotoViewModel {
 
-    private AdvancedDownloadPhotoTask downloadPhotoTask;
+    private PhotoDownloadScheduler.Request downloadRequest;
+    private int priority = PhotoDownloadScheduler.PRIORITY_CURRENT_CACHE;
 
     public GeoCachePhotoViewModel(URL remoteURL, int geoCacheId) {
         this.remoteUrl = remoteURL;
@@ -74,32 +74,48 @@ public class GeoCachePhotoViewModel {
     }
 
     public void beginLoadPhoto() {
-        if (isTaskActive(downloadPhotoTask)) return;
+        if (isRequestActive()) return;
 
         setHasErrors(false);
         setIsDownloading(true);
-        downloadPhotoTask = new AdvancedDownloadPhotoTask(this);
-        downloadPhotoTask.execute();
+        downloadRequest = getScheduler().schedule(this, priority);
+    }
+
+    /**
+     * Changes priority of download of this photo
+     *
+     * @param priority
+     *         one of PhotoDownloadScheduler.PRIORITY_* constants
+     */
+    public void setPriority(int priority) {
+        this.priority = priority;
+        if (isRequestActive()) {
+            getScheduler().setPriority(downloadRequest, priority);
+        }
     }
 
     public void geocachePhotoDownloadFailed() {
-        downloadPhotoTask = null;
+        downloadRequest = null;
         setHasErrors(true);
         setIsDownloading(false);
     }
 
     public void geocachePhotoDownloaded() {
-        downloadPhotoTask = null;
+        downloadRequest = null;
         setIsDownloading(false);
     }
 
     public void cancelLoadPhoto() {
-        if (isTaskActive(downloadPhotoTask)) {
-            downloadPhotoTask.cancel(true);
+        if (isRequestActive()) {
+            getScheduler().cancel(downloadRequest);
         }
     }
 
-    private static boolean isTaskActive(AsyncTask<?, ?, ?> task) {
-        return task != null && !task.isCancelled() && (task.getStatus() != AsyncTask.Status.FINISHED);
+    private boolean isRequestActive() {
+        return downloadRequest != null && !downloadRequest.isCancelled();
+    }
+
+    private static PhotoDownloadScheduler getScheduler() {
+        return Controller.getInstance().getPhotoDownloadScheduler();
     }
 }
\ No newline at end of file
@@ -1,10 +1,15 @@
 package su.geocaching.android.ui.info;
 
 import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import su.geocaching.android.controller.Controller;
 import su.geocaching.android.controller.apimanager.AdvancedDownloadInfoTask;
 import su.geocaching.android.controller.apimanager.AdvancedDownloadNotebookTask;
 import su.geocaching.android.controller.apimanager.AdvancedDownloadPhotoUrlsTask;
+import su.geocaching.android.controller.apimanager.HttpValidators;
+import su.geocaching.android.controller.apimanager.NetworkScheduler;
+import su.geocaching.android.controller.apimanager.PhotoDownloadScheduler;
 import su.geocaching.android.controller.managers.DbManager;
 import su.geocaching.android.controller.managers.LogManager;
 import su.geocaching.android.model.GeoCache;
@@ -43,16 +48,18 @@ public class InfoViewModel {
 
     public synchronized void setGeoCache(GeoCache geoCache) {
         if (this.geoCacheId != geoCache.getId()) {
+            boolean isPreviousCacheStored = this.geoCache != null && dbManager.isCacheStored(this.geoCacheId);
             this.geoCacheId = geoCache.getId();
             this.geoCache = geoCache;
 
-            cancelDownloadTasks();
+            cancelDownloadTasks(isPreviousCacheStored);
 
             this.infoState = new WebViewTabState(INFO_TAB_INDEX);
             this.notebookState = new WebViewTabState(NOTEBOOK_TAB_INDEX);
             this.photosState = new PhotosTabState(PHOTOS_TAB_INDEX);
 
-            if (isCacheStored()) {
+            // geocache which is stored for offline use is read from database too
+            if (dbManager.isCacheStored(geoCacheId)) {
                 this.infoState.setText(dbManager.getCacheInfoById(geoCacheId));
                 this.notebookState.setText(dbManager.getCacheNotebookTextById(geoCacheId));
                 this.photosState.setPhotoUrls(dbManager.getCachePhotosById(geoCacheId), geoCacheId);
@@ -67,22 +74,47 @@ public class InfoViewModel {
     }
 
     public void saveCache() {
-        if (isCacheStored()) {
+        if (dbManager.isCacheStored(this.geoCacheId)) {
+            dbManager.addToFavorites(this.geoCacheId);
             dbManager.updateInfoText(this.geoCacheId, this.infoState.getText());
             dbManager.updateNotebookText(this.geoCacheId, this.notebookState.getText());
             dbManager.updatePhotos(this.geoCacheId, this.photosState.getPhotoUrls());
         } else {
             dbManager.addGeoCache(this.geoCache, this.infoState.getText(), this.notebookState.getText(), this.photosState.getPhotoUrls());
 
-            //if notebook or photos is not loaded yet, try to do it now
-            if (this.notebookState.getText() == null) {
-                beginLoadNotebook();
+            //if notebook or photos is not loaded yet, load them together with other requests
+            if (this.notebookState.getText() == null || this.photosState.getPhotos() == null) {
+                final int cacheId = this.geoCacheId;
+                final Handler handler = new Handler(Looper.getMainLooper());
+                Controller.getInstance().getNetworkScheduler().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                beginLoadMissingParts(cacheId);
+                            }
+                        });
+                    }
+                }, NetworkScheduler.DEFERRABLE);
             }
-            if (this.photosState.getPhotos() == null) {
-                if (Controller.getInstance().getPreferencesManager().getDownloadPhotosAlways() ||
-                        Controller.getInstance().getConnectionManager().isWifiConnected()) {
-                    beginLoadPhotoUrls();
-                }
+        }
+    }
+
+    /**
+     * Loads notebook and photos of saved geocache which were not loaded while user looked at it
+     */
+    private synchronized void beginLoadMissingParts(int cacheId) {
+        // another geocache is opened, downloads of the saved one were cancelled
+        if (this.geoCacheId != cacheId) return;
+
+        if (this.notebookState.getText() == null) {
+            beginLoadNotebook();
+        }
+        if (this.photosState.getPhotos() == null) {
+            if (Controller.getInstance().getPreferencesManager().getDownloadPhotosAlways() ||
+                    Controller.getInstance().getConnectionManager().isWifiConnected()) {
+                beginLoadPhotoUrls();
             }
         }
     }
@@ -92,7 +124,11 @@ public class InfoViewModel {
 
     }
 
-    private void cancelDownloadTasks() {
+    /**
+     * @param keepPhotos
+     *         true if photos of geocache are stored, so their downloading goes on in background
+     */
+    private void cancelDownloadTasks(boolean keepPhotos) {
         if (isTaskActive(downloadInfoTask)) {
             downloadInfoTask.cancel(true);
         }
@@ -106,7 +142,11 @@ public class InfoViewModel {
             Collection<GeoCachePhotoViewModel> photos = this.photosState.getPhotos();
             if (photos != null) {
                 for (GeoCachePhotoViewModel photo : this.photosState.getPhotos()) {
-                    photo.cancelLoadPhoto();
+                    if (keepPhotos) {
+                        photo.setPriority(PhotoDownloadScheduler.PRIORITY_PREFETCH);
+                    } else {
+                        photo.cancelLoadPhoto();
+                    }
                 }
             }
         }
@@ -150,14 +190,14 @@ public class InfoViewModel {
         }
     }
 
-    public synchronized void geocacheInfoDownloaded(String result) {
+    public synchronized void geocacheInfoDownloaded(String result, HttpValidators validators) {
         this.infoState.setText(result);
         if (activity != null) {
             activity.updateInfoText();
             activity.hideInfoProgressBar();
         }
-        if (isCacheStored()) {
-            dbManager.updateInfoText(this.geoCacheId, result);
+        if (dbManager.isCacheStored(this.geoCacheId)) {
+            dbManager.updateInfoText(this.geoCacheId, result, validators);
         }
     }
 
@@ -168,14 +208,14 @@ public class InfoViewModel {
         }
     }
 
-    public void geocacheNotebookDownloaded(String result) {
+    public void geocacheNotebookDownloaded(String result, HttpValidators validators) {
         this.notebookState.setText(result);
         if (activity != null) {
             activity.updateNotebookText();
             activity.hideNotebookProgressBar();
         }
-        if (isCacheStored()) {
-            dbManager.updateNotebookText(this.geoCacheId, result);
+        if (dbManager.isCacheStored(this.geoCacheId)) {
+            dbManager.updateNotebookText(this.geoCacheId, result, validators);
         }
     }
 
@@ -186,7 +226,7 @@ public class InfoViewModel {
         }
     }
 
-    public void geocachePhotoListDownloaded(List<URL> result) {
+    public void geocachePhotoListDownloaded(List<URL> result, HttpValidators validators) {
         this.photosState.setPhotoUrls(result, this.geoCacheId);
 
         beginLoadPhotos();
@@ -195,8 +235,8 @@ public class InfoViewModel {
             activity.updatePhotosList();
             activity.hidePhotoListProgressBar();
         }
-        if (isCacheStored()) {
-            dbManager.updatePhotos(this.geoCacheId, result);
+        if (dbManager.isCacheStored(this.geoCacheId)) {
+            dbManager.updatePhotos(this.geoCacheId, result, validators);
         }
     }
 
@@ -213,8 +253,8 @@ public class InfoViewModel {
         }
     }
 
-    public boolean isCacheStored() {
-        return dbManager.isCacheStored(geoCacheId);
+    public boolean isCacheFavorite() {
+        return dbManager.isCacheFavorite(geoCacheId);
     }
 
     public WebViewTabState getInfoState() {
@@ -0,0 +1,223 @@
+package su.geocaching.android.ui.map;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import su.geocaching.android.model.GeoCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shows markers of geocaches on map. Changes are not applied at once: they are queued and applied on main thread
+ * by portions which take at most {@link #FRAME_BUDGET_MS}, so map is drawn between them and thousands of markers
+ * don't stop it. Markers are removed first, then geocaches closest to center of map are shown first.
+ * New changes of the same geocache replace queued ones.
+ */
+public class GoogleMarkerDiffApplier {
+    // time of one portion of changes, the rest of frame is left for drawing
+    private static final long FRAME_BUDGET_MS = 8;
+
+    private final GoogleMap googleMap;
+    private final GoogleMarkerPool markerPool;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // shown markers by id of geocache, groups have negative ids
+    private final HashMap<Integer, Marker> geocacheMarkers = new HashMap<Integer, Marker>();
+    // geocaches of shown markers by id of marker
+    private final HashMap<String, GeoCache> markers = new HashMap<String, GeoCache>();
+    // queued changes by id of geocache: geocache to show or null to remove marker
+    private final Map<Integer, GeoCache> pendingChanges = new LinkedHashMap<Integer, GeoCache>();
+    // ids of queued changes in order of applying, it is sorted again when changes are added
+    private final List<Integer> order = new ArrayList<Integer>();
+    private int orderPosition;
+    private boolean isOrderValid = false;
+    private boolean isScheduled = false;
+
+    private final Runnable applyRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isScheduled = false;
+            applyPortion();
+        }
+    };
+
+    public GoogleMarkerDiffApplier(GoogleMap googleMap) {
+        this.googleMap = googleMap;
+        markerPool = new GoogleMarkerPool(googleMap);
+    }
+
+    /**
+     * @return geocache of the shown marker or null if marker isn't marker of geocache
+     */
+    public GeoCache getGeoCache(Marker marker) {
+        return markers.get(marker.getId());
+    }
+
+    /**
+     * Shows markers of the given geocaches and removes all other markers
+     */
+    public void setGeoCaches(List<GeoCache> geoCaches) {
+        HashSet<Integer> cacheIds = new HashSet<Integer>();
+        for (GeoCache geoCache : geoCaches) {
+            cacheIds.add(geoCache.getId());
+        }
+        for (Integer cacheId : geocacheMarkers.keySet()) {
+            if (!cacheIds.contains(cacheId)) {
+                pendingChanges.put(cacheId, null);
+            }
+        }
+        for (Integer cacheId : pendingChanges.keySet().toArray(new Integer[pendingChanges.size()])) {
+            if (!cacheIds.contains(cacheId) && !geocacheMarkers.containsKey(cacheId)) {
+                // queued geocache is not shown yet
+                pendingChanges.remove(cacheId);
+            }
+        }
+        for (GeoCache geoCache : geoCaches) {
+            show(geoCache);
+        }
+        schedule();
+    }
+
+    /**
+     * Shows and removes markers of the given geocaches, other markers are not changed
+     */
+    public void changeGeoCaches(List<GeoCache> added, List<GeoCache> removed) {
+        for (GeoCache geoCache : removed) {
+            if (geocacheMarkers.containsKey(geoCache.getId())) {
+                pendingChanges.put(geoCache.getId(), null);
+            } else {
+                pendingChanges.remove(geoCache.getId());
+            }
+        }
+        for (GeoCache geoCache : added) {
+            show(geoCache);
+        }
+        schedule();
+    }
+
+    public void clear() {
+        setGeoCaches(Collections.<GeoCache>emptyList());
+    }
+
+    /**
+     * Drops queued changes and stops applying them. Called when map is destroyed, so queued portions
+     * and hidden markers of pool don't keep it in memory.
+     */
+    public void destroy() {
+        handler.removeCallbacks(applyRunnable);
+        isScheduled = false;
+        markerPool.clear();
+        pendingChanges.clear();
+        order.clear();
+        geocacheMarkers.clear();
+        markers.clear();
+    }
+
+    private void show(GeoCache geoCache) {
+        Marker marker = geocacheMarkers.get(geoCache.getId());
+        if (marker != null && isSameMarker(markers.get(marker.getId()), geoCache)) {
+            // already shown, cancel queued change. Tap on marker gives the latest geocache.
+            pendingChanges.remove(geoCache.getId());
+            markers.put(marker.getId(), geoCache);
+        } else {
+            // group with the same id can be placed in other point or have other size, its marker is moved
+            pendingChanges.put(geoCache.getId(), geoCache);
+        }
+    }
+
+    /**
+     * Geocaches are created again by every query of stored geocaches, so they are compared by fields
+     * which change look of marker
+     */
+    private static boolean isSameMarker(GeoCache shown, GeoCache geoCache) {
+        return shown != null
+                && shown.getId() == geoCache.getId()
+                && shown.getType() == geoCache.getType()
+                && shown.getStatus() == geoCache.getStatus()
+                && shown.getGroupSize() == geoCache.getGroupSize()
+                && shown.getGeoPoint().getLatitude() == geoCache.getGeoPoint().getLatitude()
+                && shown.getGeoPoint().getLongitude() == geoCache.getGeoPoint().getLongitude();
+    }
+
+    private void schedule() {
+        isOrderValid = false;
+        if (!isScheduled && !pendingChanges.isEmpty()) {
+            isScheduled = true;
+            handler.post(applyRunnable);
+        }
+    }
+
+    private void applyPortion() {
+        if (!isOrderValid) {
+            sortChanges();
+        }
+        long startTime = SystemClock.uptimeMillis();
+        while (orderPosition < order.size() && SystemClock.uptimeMillis() - startTime < FRAME_BUDGET_MS) {
+            Integer cacheId = order.get(orderPosition++);
+            if (pendingChanges.containsKey(cacheId)) {
+                apply(cacheId, pendingChanges.remove(cacheId));
+            }
+        }
+        if (!pendingChanges.isEmpty()) {
+            isScheduled = true;
+            handler.post(applyRunnable);
+        }
+    }
+
+    private void apply(Integer cacheId, GeoCache geoCache) {
+        Marker marker = geocacheMarkers.get(cacheId);
+        if (geoCache == null) {
+            if (marker != null) {
+                geocacheMarkers.remove(cacheId);
+                markers.remove(marker.getId());
+                markerPool.release(marker);
+            }
+        } else if (marker == null) {
+            marker = markerPool.obtain(geoCache);
+            geocacheMarkers.put(cacheId, marker);
+            markers.put(marker.getId(), geoCache);
+        } else {
+            markerPool.update(marker, geoCache);
+            markers.put(marker.getId(), geoCache);
+        }
+    }
+
+    /**
+     * Removals go first, they free markers of pool. Then geocaches go by distance from center of map.
+     */
+    private void sortChanges() {
+        LatLng center = googleMap.getCameraPosition().target;
+        final double centerLatitude = center.latitude;
+        final double centerLongitude = center.longitude;
+        // degree of longitude is shorter than degree of latitude far from equator
+        final double longitudeScale = Math.cos(Math.toRadians(centerLatitude));
+
+        order.clear();
+        order.addAll(pendingChanges.keySet());
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                return Double.compare(getDistance(pendingChanges.get(first)), getDistance(pendingChanges.get(second)));
+            }
+
+            private double getDistance(GeoCache geoCache) {
+                if (geoCache == null) return -1;
+                double dx = (geoCache.getGeoPoint().getLongitude() - centerLongitude) * longitudeScale;
+                double dy = geoCache.getGeoPoint().getLatitude() - centerLatitude;
+                return dx * dx + dy * dy;
+            }
+        });
+        orderPosition = 0;
+        isOrderValid = true;
+    }
+}
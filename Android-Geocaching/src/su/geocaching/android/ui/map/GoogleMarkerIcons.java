@@ -0,0 +1,131 @@
+package su.geocaching.android.ui.map;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import su.geocaching.android.controller.Controller;
+import su.geocaching.android.controller.managers.ResourceManager;
+import su.geocaching.android.model.GeoCache;
+import su.geocaching.android.model.GeoCacheType;
+
+import java.util.HashMap;
+
+/**
+ * Cache of marker icons. Icon of geocache is taken by resource id, which depends on type, status and icon set,
+ * so each of them is created once. Icons of groups are rendered once for each bucket of group size:
+ * group icon with label of the bucket in a bubble at the top right corner.
+ */
+public class GoogleMarkerIcons {
+    // group is labeled by the lowest size of its bucket
+    private static final int[] GROUP_SIZE_BUCKETS = {2, 3, 4, 5, 6, 7, 8, 9, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+    private static final float ANCHOR_U = 0.5f;
+    private static final float ANCHOR_V = 0.95f;
+    private static final float LABEL_TEXT_SIZE_DP = 10;
+    private static final int BUBBLE_COLOR = Color.rgb(0xD0, 0x30, 0x20);
+
+    // icons of geocaches by resource id
+    private static final HashMap<Integer, MarkerIcon> icons = new HashMap<Integer, MarkerIcon>();
+    // icons of groups by resource id and bucket
+    private static final HashMap<Long, MarkerIcon> groupIcons = new HashMap<Long, MarkerIcon>();
+
+    public static class MarkerIcon {
+        public final BitmapDescriptor descriptor;
+        public final float anchorU, anchorV;
+
+        private MarkerIcon(BitmapDescriptor descriptor, float anchorU, float anchorV) {
+            this.descriptor = descriptor;
+            this.anchorU = anchorU;
+            this.anchorV = anchorV;
+        }
+    }
+
+    private GoogleMarkerIcons() {
+    }
+
+    public static synchronized MarkerIcon getIcon(GeoCache geoCache) {
+        ResourceManager resourceManager = Controller.getInstance().getResourceManager();
+        int resId = resourceManager.getMarkerResId(geoCache.getType(), geoCache.getStatus());
+        if (geoCache.getType() == GeoCacheType.GROUP && geoCache.getGroupSize() >= GROUP_SIZE_BUCKETS[0]) {
+            int bucket = getGroupSizeBucket(geoCache.getGroupSize());
+            Long key = ((long) resId << 32) | bucket;
+            MarkerIcon icon = groupIcons.get(key);
+            if (icon == null) {
+                icon = createGroupIcon(resourceManager.getResources(), resId, getGroupLabel(bucket));
+                groupIcons.put(key, icon);
+            }
+            return icon;
+        }
+
+        MarkerIcon icon = icons.get(resId);
+        if (icon == null) {
+            icon = new MarkerIcon(BitmapDescriptorFactory.fromResource(resId), ANCHOR_U, ANCHOR_V);
+            icons.put(resId, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * @return the lowest size of bucket which contains groups of this size
+     */
+    public static int getGroupSizeBucket(int groupSize) {
+        int bucket = GROUP_SIZE_BUCKETS[0];
+        for (int size : GROUP_SIZE_BUCKETS) {
+            if (size > groupSize) break;
+            bucket = size;
+        }
+        return bucket;
+    }
+
+    /**
+     * @return label shown on groups of the bucket, for example "7", "20+" or "5k+"
+     */
+    public static String getGroupLabel(int bucket) {
+        if (bucket < 10) {
+            return Integer.toString(bucket);
+        }
+        if (bucket < 1000) {
+            return bucket + "+";
+        }
+        return bucket / 1000 + "k+";
+    }
+
+    private static MarkerIcon createGroupIcon(Resources resources, int resId, String label) {
+        Bitmap groupBitmap = BitmapFactory.decodeResource(resources, resId);
+
+        Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTypeface(Typeface.DEFAULT_BOLD);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        textPaint.setTextSize(LABEL_TEXT_SIZE_DP * resources.getDisplayMetrics().density);
+        Paint.FontMetrics fontMetrics = textPaint.getFontMetrics();
+        float textHeight = fontMetrics.descent - fontMetrics.ascent;
+        float radius = Math.max(textHeight * 0.6f, textPaint.measureText(label) / 2 + textHeight * 0.25f);
+
+        // bubble is centered in the top right corner of group icon, so bitmap is extended to the right and to the top
+        int bubbleSize = (int) Math.ceil(radius);
+        int width = groupBitmap.getWidth() + bubbleSize;
+        int height = groupBitmap.getHeight() + bubbleSize;
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawBitmap(groupBitmap, 0, bubbleSize, null);
+        groupBitmap.recycle();
+
+        Paint bubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        bubblePaint.setColor(BUBBLE_COLOR);
+        float centerX = width - radius;
+        float centerY = radius;
+        canvas.drawCircle(centerX, centerY, radius, bubblePaint);
+        canvas.drawText(label, centerX, centerY - (fontMetrics.ascent + fontMetrics.descent) / 2, textPaint);
+
+        // anchor stays at the same point of group icon
+        float anchorU = (width - bubbleSize) * ANCHOR_U / width;
+        float anchorV = (bubbleSize + (height - bubbleSize) * ANCHOR_V) / height;
+        return new MarkerIcon(BitmapDescriptorFactory.fromBitmap(bitmap), anchorU, anchorV);
+    }
+}
@@ -0,0 +1,68 @@
+package su.geocaching.android.ui.map;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.Marker;
+import su.geocaching.android.model.GeoCache;
+
+import java.util.LinkedList;
+
+/**
+ * Pool of geocache markers of map. Adding and removing of marker are expensive, so released markers
+ * are hidden and shown again for other geocaches by changing of their position and icon.
+ */
+public class GoogleMarkerPool {
+    // more hidden markers are removed from map
+    private static final int MAX_FREE_MARKERS = 200;
+
+    private final GoogleMap googleMap;
+    private final LinkedList<Marker> freeMarkers = new LinkedList<Marker>();
+
+    public GoogleMarkerPool(GoogleMap googleMap) {
+        this.googleMap = googleMap;
+    }
+
+    /**
+     * @return visible marker of geocache, new or taken from pool
+     */
+    public Marker obtain(GeoCache geoCache) {
+        if (freeMarkers.isEmpty()) {
+            return googleMap.addMarker(GoogleMarkerOptions.fromGeocache(geoCache));
+        }
+        Marker marker = freeMarkers.removeLast();
+        update(marker, geoCache);
+        marker.setVisible(true);
+        return marker;
+    }
+
+    /**
+     * Moves marker to geocache and changes its icon
+     */
+    public void update(Marker marker, GeoCache geoCache) {
+        GoogleMarkerIcons.MarkerIcon icon = GoogleMarkerIcons.getIcon(geoCache);
+        marker.setPosition(GoogleMapWrapper.getCacheLocation(geoCache));
+        marker.setIcon(icon.descriptor);
+        marker.setAnchor(icon.anchorU, icon.anchorV);
+    }
+
+    /**
+     * Hides marker and keeps it for other geocaches
+     */
+    public void release(Marker marker) {
+        if (freeMarkers.size() >= MAX_FREE_MARKERS) {
+            marker.remove();
+            return;
+        }
+        marker.setVisible(false);
+        freeMarkers.add(marker);
+    }
+
+    /**
+     * Removes hidden markers from map
+     */
+    public void clear() {
+        for (Marker marker : freeMarkers) {
+            marker.remove();
+        }
+        freeMarkers.clear();
+    }
+}
@@ -0,0 +1,134 @@
+package su.geocaching.android.ui.map.providers;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.support.v4.util.LruCache;
+import com.google.android.gms.maps.model.Tile;
+import com.google.android.gms.maps.model.TileProvider;
+import su.geocaching.android.controller.Controller;
+import su.geocaching.android.controller.apimanager.GeoCacheCoordinates;
+import su.geocaching.android.controller.apimanager.GeoRect;
+import su.geocaching.android.controller.selectmap.geocachegroup.MercatorProjector;
+import su.geocaching.android.model.GeoPoint;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Draws density of geocaches which are kept in memory, so large areas are shown without thousands of markers.
+ * Map asks tiles on its background threads. Rendered tiles are kept as PNG in LRU cache
+ * until {@link #invalidate()} is called.
+ */
+public class GeoCacheDensityTileProvider implements TileProvider {
+    private static final int TILE_SIZE = 256;
+    // geocaches are counted in square cells of tile, each cell is drawn as one spot
+    private static final int CELL_SIZE = 8;
+    // cells around tile, their spots overlap the tile
+    private static final int BORDER_CELLS = 1;
+    private static final int GRID_SIZE = TILE_SIZE / CELL_SIZE + 2 * BORDER_CELLS;
+    // spots of cells with more geocaches look the same
+    private static final int SATURATION_COUNT = 50;
+    private static final float MIN_ALPHA = 90;
+    private static final float MAX_ALPHA = 200;
+    private static final float MIN_HUE = 0; // red
+    private static final float MAX_HUE = 60; // yellow
+    private static final int CACHE_BYTES = 2 * 1024 * 1024;
+
+    private final LruCache<String, Tile> tiles = new LruCache<String, Tile>(CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Tile tile) {
+            return tile.data != null ? tile.data.length : 1;
+        }
+    };
+    // incremented by invalidate, tiles rendered before it are not cached
+    private volatile int generation;
+
+    @Override
+    public Tile getTile(int x, int y, int zoom) {
+        String key = zoom + "/" + x + "/" + y;
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            int tileGeneration = generation;
+            tile = renderTile(x, y, zoom);
+            if (tileGeneration == generation) {
+                tiles.put(key, tile);
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Drops rendered tiles, it is called when stored geocaches are changed
+     */
+    public void invalidate() {
+        generation++;
+        tiles.evictAll();
+    }
+
+    private static Tile renderTile(int x, int y, int zoom) {
+        GeoRect tileArea = MercatorProjector.getTileArea(x, y, zoom);
+        GeoCacheCoordinates coordinates = new GeoCacheCoordinates();
+        Controller.getInstance().getApiManager().getStoredCoordinates(getBorderedArea(tileArea), coordinates);
+        if (coordinates.size() == 0) {
+            return NO_TILE;
+        }
+
+        int[] counts = countGeoCaches(coordinates, new MercatorProjector(tileArea, TILE_SIZE, TILE_SIZE));
+        Bitmap bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        float[] hsv = new float[]{0, 1, 1};
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                int count = counts[row * GRID_SIZE + column];
+                if (count == 0) continue;
+                float level = (float) Math.min(1, Math.log(count) / Math.log(SATURATION_COUNT));
+                hsv[0] = MAX_HUE - (MAX_HUE - MIN_HUE) * level;
+                paint.setColor(Color.HSVToColor((int) (MIN_ALPHA + (MAX_ALPHA - MIN_ALPHA) * level), hsv));
+                float centerX = (column - BORDER_CELLS + 0.5f) * CELL_SIZE;
+                float centerY = (row - BORDER_CELLS + 0.5f) * CELL_SIZE;
+                canvas.drawCircle(centerX, centerY, CELL_SIZE * (0.5f + level), paint);
+            }
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+        bitmap.recycle();
+        return new Tile(TILE_SIZE, TILE_SIZE, stream.toByteArray());
+    }
+
+    /**
+     * @return numbers of geocaches in cells of grid, row by row
+     */
+    private static int[] countGeoCaches(GeoCacheCoordinates coordinates, MercatorProjector projector) {
+        int size = coordinates.size();
+        int[] x = new int[size];
+        int[] y = new int[size];
+        projector.toScreenLocations(coordinates.getLatitudes(), coordinates.getLongitudes(), size, x, y);
+
+        int[] counts = new int[GRID_SIZE * GRID_SIZE];
+        for (int i = 0; i < size; i++) {
+            int column = (int) Math.floor((double) x[i] / CELL_SIZE) + BORDER_CELLS;
+            int row = (int) Math.floor((double) y[i] / CELL_SIZE) + BORDER_CELLS;
+            if (column >= 0 && column < GRID_SIZE && row >= 0 && row < GRID_SIZE) {
+                counts[row * GRID_SIZE + column]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return tile area with border cells, it doesn't cross 180 meridian and poles
+     */
+    private static GeoRect getBorderedArea(GeoRect tileArea) {
+        double border = (double) BORDER_CELLS * CELL_SIZE / TILE_SIZE;
+        double latitudeBorder = (tileArea.tl.getLatitude() - tileArea.br.getLatitude()) * border;
+        double longitudeBorder = (tileArea.br.getLongitude() - tileArea.tl.getLongitude()) * border;
+        GeoPoint tl = new GeoPoint(Math.min(90, tileArea.tl.getLatitude() + latitudeBorder),
+                Math.max(-180, tileArea.tl.getLongitude() - longitudeBorder));
+        GeoPoint br = new GeoPoint(Math.max(-90, tileArea.br.getLatitude() - latitudeBorder),
+                Math.min(180, tileArea.br.getLongitude() + longitudeBorder));
+        return new GeoRect(tl, br);
+    }
+}
@@ -11,5 +11,20 @@ public interface ISelectMapWrapper extends IMapWrapper {
 
     void updateGeoCacheMarkers(List<GeoCache> geoCaches);
 
+    /**
+     * Adds and removes markers of the given geocaches and groups, other markers are not changed
+     */
+    void changeGeoCacheMarkers(List<GeoCache> added, List<GeoCache> removed);
+
     void clearGeocacheMarkers();
+
+    /**
+     * Shows density of stored geocaches instead of markers, until markers are updated
+     */
+    void showGeoCacheDensity();
+
+    /**
+     * Stops pending updates of markers, called when map is destroyed
+     */
+    void destroy();
 }
@@ -5,28 +5,32 @@ import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.TileOverlay;
+import com.google.android.gms.maps.model.TileOverlayOptions;
 import su.geocaching.android.model.GeoCache;
 import su.geocaching.android.model.GeoCacheType;
 import su.geocaching.android.ui.map.GeocacheMarkerTapListener;
 import su.geocaching.android.ui.map.GoogleMapWrapper;
-import su.geocaching.android.ui.map.GoogleMarkerOptions;
+import su.geocaching.android.ui.map.GoogleMarkerDiffApplier;
+import su.geocaching.android.ui.map.providers.GeoCacheDensityTileProvider;
 
-import java.util.*;
+import java.util.List;
 
 public class SelectGoogleMapWrapper extends GoogleMapWrapper implements ISelectMapWrapper {
 
-    private HashMap<String, GeoCache> markers = new HashMap<String, GeoCache>();
-    private HashMap<Integer, Marker> geocacheMarkers = new HashMap<Integer, Marker>();
-    private List<Marker> groupMarkers = new ArrayList<Marker>();
+    private final GoogleMarkerDiffApplier markerApplier;
     private GeocacheMarkerTapListener geocacheMarkerTapListener;
+    private GeoCacheDensityTileProvider densityTileProvider;
+    private TileOverlay densityOverlay;
 
     public SelectGoogleMapWrapper(final GoogleMap mMap) {
         super(mMap);
+        markerApplier = new GoogleMarkerDiffApplier(mMap);
     }
 
     @Override
     protected boolean onMarkerTap(Marker marker) {
-        GeoCache geoCache = markers.get(marker.getId());
+        GeoCache geoCache = markerApplier.getGeoCache(marker);
         if (geoCache == null) return false;
 
         if (geoCache.getType() == GeoCacheType.GROUP) {
@@ -43,70 +47,43 @@ public class SelectGoogleMapWrapper extends GoogleMapWrapper implements ISelectM
 
     @Override
     public void clearGeocacheMarkers() {
-        // delete geocache markers
-        for (Marker marker : geocacheMarkers.values()) {
-            removeGeoCacheMarker(marker);
-        }
-        geocacheMarkers.clear();
-
-        // delete group markers
-        for (Marker marker : groupMarkers) {
-            removeGeoCacheMarker(marker);
-        }
-        groupMarkers.clear();
+        markerApplier.clear();
     }
 
     @Override
     public void updateGeoCacheMarkers(List<GeoCache> geoCacheList) {
-        HashSet<Integer> cacheIds = new HashSet<Integer>();
-        ListIterator<Marker> groupIterator = groupMarkers.listIterator();
-
-        for (GeoCache geoCache : geoCacheList) {
-            if (geoCache.getType() == GeoCacheType.GROUP) {
-                // Reuse existing group markers
-                if (groupIterator.hasNext()) {
-                    Marker marker = groupIterator.next();
-                    marker.setPosition(getCacheLocation(geoCache));
-                    // TODO: don't store group markers in 'markers' hash map. groupMarkers list is enough.
-                    markers.put(marker.getId(), geoCache);
-                } else {
-                    Marker marker = addGeoCacheMarker(geoCache);
-                    groupIterator.add(marker);
-                }
-            } else {
-                if (!geocacheMarkers.containsKey(geoCache.getId())) {
-                    Marker marker = addGeoCacheMarker(geoCache);
-                    geocacheMarkers.put(geoCache.getId(), marker);
-                }
-                cacheIds.add(geoCache.getId());
-            }
-        }
+        hideGeoCacheDensity();
+        markerApplier.setGeoCaches(geoCacheList);
+    }
 
-        // remove retired cache markers
-        for (Integer cacheId : geocacheMarkers.keySet().toArray(new Integer[geocacheMarkers.size()])) {
-            if (!cacheIds.contains(cacheId)) {
-                removeGeoCacheMarker(geocacheMarkers.get(cacheId));
-                geocacheMarkers.remove(cacheId);
-            }
-        }
+    @Override
+    public void changeGeoCacheMarkers(List<GeoCache> added, List<GeoCache> removed) {
+        hideGeoCacheDensity();
+        markerApplier.changeGeoCaches(added, removed);
+    }
 
-        // remove retired group markers
-        while (groupIterator.hasNext()) {
-            Marker marker = groupIterator.next();
-            removeGeoCacheMarker(marker);
-            groupIterator.remove();
+    @Override
+    public void showGeoCacheDensity() {
+        if (densityOverlay == null) {
+            densityTileProvider = new GeoCacheDensityTileProvider();
+            densityOverlay = googleMap.addTileOverlay(new TileOverlayOptions().tileProvider(densityTileProvider));
+            return;
         }
+        // stored geocaches were changed since tiles were drawn
+        densityTileProvider.invalidate();
+        densityOverlay.clearTileCache();
+        densityOverlay.setVisible(true);
     }
 
-    private Marker addGeoCacheMarker(GeoCache geoCache) {
-        Marker marker = googleMap.addMarker(GoogleMarkerOptions.fromGeocache(geoCache));
-        markers.put(marker.getId(), geoCache);
-        return marker;
+    private void hideGeoCacheDensity() {
+        if (densityOverlay != null && densityOverlay.isVisible()) {
+            densityOverlay.setVisible(false);
+        }
     }
 
-    private void removeGeoCacheMarker(Marker marker) {
-        markers.remove(marker.getId());
-        marker.remove();
+    @Override
+    public void destroy() {
+        markerApplier.destroy();
     }
 
     @Override
@@ -1,6 +1,8 @@
 package su.geocaching.android.ui.selectmap;
 
+import android.app.AlertDialog;
 import android.app.Dialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.location.Geocoder;
 import android.location.Location;
@@ -35,6 +37,7 @@ public class SelectMapActivity extends SherlockFragmentActivity implements IConn
     private static final String TAG = SelectMapActivity.class.getCanonicalName();
     private static final String SELECT_ACTIVITY_FOLDER = "/SelectActivity";
     private static final int ENABLE_CONNECTION_DIALOG_ID = 0;
+    private static final int DELETE_OFFLINE_AREAS_DIALOG_ID = 1;
 
     /**
      * Note that this may be null if the Google Play services APK is not available.
@@ -48,6 +51,7 @@ public class SelectMapActivity extends SherlockFragmentActivity implements IConn
     private TextView connectionInfoTextView;
     private TextView downloadingInfoTextView;
     private TextView groupingInfoTextView;
+    private TextView offlineAreaInfoTextView;
     private MenuItem  searchMenuItem;
     private ScaleView scaleView;
 
@@ -73,6 +77,7 @@ public class SelectMapActivity extends SherlockFragmentActivity implements IConn
         connectionInfoTextView = (TextView) findViewById(R.id.connectionInfoTextView);
         groupingInfoTextView = (TextView) findViewById(R.id.groupingInfoTextView);
         downloadingInfoTextView = (TextView) findViewById(R.id.downloadingInfoTextView);
+        offlineAreaInfoTextView = (TextView) findViewById(R.id.offlineAreaInfoTextView);
 
         setUpMapIfNeeded();
 
@@ -131,6 +136,15 @@ public class SelectMapActivity extends SherlockFragmentActivity implements IConn
         selectMapViewModel.unregisterActivity(this);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        LogManager.d(TAG, "onDestroy");
+        if (mapWrapper != null) {
+            mapWrapper.destroy();
+        }
+    }
+
     /**
      * Creating menu object
      */
@@ -152,6 +166,19 @@ public class SelectMapActivity extends SherlockFragmentActivity implements IConn
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        MenuItem downloadAreaItem = menu.findItem(R.id.menu_download_area);
+        if (downloadAreaItem != null) {
+            downloadAreaItem.setTitle(selectMapViewModel.isOfflineAreaDownloading() ? R.string.menu_cancel_download_area : R.string.menu_download_area);
+        }
+        MenuItem deleteAreasItem = menu.findItem(R.id.menu_delete_offline_areas);
+        if (deleteAreasItem != null) {
+            deleteAreasItem.setVisible(!selectMapViewModel.isOfflineAreaDownloading());
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     private SearchView createSearchView() {
         SearchView searchView = new SearchView(getSupportActionBar().getThemedContext());
         searchView.setQueryHint(this.getString(R.string.select_map_search_query_hint));
@@ -203,6 +230,17 @@ public class SelectMapActivity extends SherlockFragmentActivity implements IConn
             case R.id.menu_mylocation:
                 onMyLocationClick();
                 return true;
+            case R.id.menu_download_area:
+                if (selectMapViewModel.isOfflineAreaDownloading()) {
+                    selectMapViewModel.cancelDownloadOfflineArea();
+                } else if (!selectMapViewModel.beginDownloadOfflineArea()) {
+                    Toast.makeText(this, R.string.offline_area_too_large, Toast.LENGTH_LONG).show();
+                }
+                supportInvalidateOptionsMenu();
+                return true;
+            case R.id.menu_delete_offline_areas:
+                showDialog(DELETE_OFFLINE_AREAS_DIALOG_ID);
+                return true;
             case R.id.menu_settings:
                 startActivity(new Intent(this, MapPreferenceActivity.class));
                 return true;
@@ -224,9 +262,19 @@ public class SelectMapActivity extends SherlockFragmentActivity implements IConn
         hideTooMayCachesToast();
     }
 
+    /**
+     * Updates only markers of geocaches and groups which appeared or disappeared
+     */
+    public synchronized void changeGeoCacheMarkers(List<GeoCache> added, List<GeoCache> removed) {
+        LogManager.d(TAG, "geoCachesList changed; added: %d, removed: %d", added.size(), removed.size());
+        mapWrapper.changeGeoCacheMarkers(added, removed);
+        hideTooMayCachesToast();
+    }
+
     public void tooManyOverlayItems() {
         showTooMayCachesToast();
         mapWrapper.clearGeocacheMarkers();
+        mapWrapper.showGeoCacheDensity();
     }
 
     private void showTooMayCachesToast() {
@@ -262,6 +310,25 @@ public class SelectMapActivity extends SherlockFragmentActivity implements IConn
         updateProgressCircleVisibility();
     }
 
+    public void showOfflineAreaProgress(int processedCaches, int totalCaches, float cachesPerSecond, float bytesPerSecond) {
+        offlineAreaInfoTextView.setText(getString(R.string.offline_area_progress, processedCaches, totalCaches, cachesPerSecond, bytesPerSecond / 1024));
+        offlineAreaInfoTextView.setVisibility(View.VISIBLE);
+    }
+
+    public void offlineAreaDownloaded(int totalCaches, int failedCaches, boolean listIncomplete, boolean cancelled) {
+        offlineAreaInfoTextView.setVisibility(View.GONE);
+        String message;
+        if (cancelled) {
+            message = getString(R.string.offline_area_cancelled);
+        } else if (listIncomplete) {
+            message = getString(R.string.offline_area_list_incomplete, totalCaches, failedCaches);
+        } else {
+            message = getString(R.string.offline_area_finished, totalCaches, failedCaches);
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+        supportInvalidateOptionsMenu();
+    }
+
     private void updateProgressCircleVisibility() {
         if (downloadingInfoTextView.getVisibility() == View.VISIBLE || groupingInfoTextView.getVisibility() == View.VISIBLE) {
             //setSupportProgressBarIndeterminateVisibility(true);
@@ -284,7 +351,28 @@ public class SelectMapActivity extends SherlockFragmentActivity implements IConn
     }
 
     protected Dialog onCreateDialog(int id) {
-        return (id == ENABLE_CONNECTION_DIALOG_ID) ? new EnableConnectionDialog(this) : null;
+        switch (id) {
+            case ENABLE_CONNECTION_DIALOG_ID:
+                return new EnableConnectionDialog(this);
+            case DELETE_OFFLINE_AREAS_DIALOG_ID:
+                return new AlertDialog.Builder(this)
+                        .setMessage(R.string.ask_delete_offline_areas)
+                        .setPositiveButton(R.string.yes, new DialogInterface.OnClickListener() {
+                            public void onClick(DialogInterface dialog, int which) {
+                                int count = selectMapViewModel.deleteOfflineAreas();
+                                Toast.makeText(SelectMapActivity.this, getString(R.string.offline_areas_deleted, count), Toast.LENGTH_LONG).show();
+                                dialog.cancel();
+                            }
+                        })
+                        .setNegativeButton(R.string.no, new DialogInterface.OnClickListener() {
+                            public void onClick(DialogInterface dialog, int which) {
+                                dialog.cancel();
+                            }
+                        })
+                        .create();
+            default:
+                return null;
+        }
     }
 
     private void onMyLocationClick() {
@@ -357,7 +445,7 @@ public class SelectMapActivity extends SherlockFragmentActivity implements IConn
                 View mapView = mapFragment.getView();
                 if (mapView != null) {
                     scaleView.updateMapViewPort(viewPort);
-                    selectMapViewModel.beginUpdateGeocacheOverlay(viewPort, mapWrapper.getProjection(), mapView.getWidth(), mapView.getHeight());
+                    selectMapViewModel.beginUpdateGeocacheOverlay(viewPort, mapView.getWidth(), mapView.getHeight());
                 } else {
                     LogManager.e(TAG, "mapView is Null");
                 }
@@ -1,56 +1,168 @@
 package su.geocaching.android.ui.selectmap;
 
 import android.os.AsyncTask;
-import com.google.android.gms.maps.Projection;
+import android.os.Handler;
+import android.os.Looper;
 import su.geocaching.android.controller.Controller;
 import su.geocaching.android.controller.apimanager.DownloadGeoCachesTask;
 import su.geocaching.android.controller.apimanager.GeoRect;
+import su.geocaching.android.controller.apimanager.OfflineAreaDownloader;
 import su.geocaching.android.controller.managers.LogManager;
+import su.geocaching.android.controller.selectmap.geocachegroup.GeoCacheClusterIndex;
 import su.geocaching.android.controller.selectmap.geocachegroup.GroupGeoCacheTask;
+import su.geocaching.android.controller.selectmap.geocachegroup.IncrementalClusterQuery;
+import su.geocaching.android.controller.selectmap.geocachegroup.MercatorProjector;
 import su.geocaching.android.model.GeoCache;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
 /**
  * Keeps the state of current select map
  */
-public class SelectMapViewModel {
+public class SelectMapViewModel implements OfflineAreaDownloader.ProgressListener {
     private static final String TAG = SelectMapViewModel.class.getCanonicalName();
     private static final int MIN_GROUP_CACHE_NUMBER = 8;
-    private static final int MAX_OVERLAY_ITEMS_NUMBER = 100;
+    // markers are added by portions between frames, so the limit is set by memory of map rather than by drawing
+    private static final int MAX_OVERLAY_ITEMS_NUMBER = 2000;
+    // camera changes which follow each other faster are treated as one change
+    private static final long VIEW_PORT_UPDATE_DELAY_MS = 300;
+    // geocaches are grouped for area larger than view port, so the map can be panned without new grouping
+    private static final double CLUSTER_AREA_SCALE = 2;
+    // larger view ports are grouped as is, their lists are too long
+    private static final double MAX_CLUSTER_AREA_SPAN = 4;
 
     private SelectMapActivity activity;
 
     private GroupGeoCacheTask groupTask = null;
     private DownloadGeoCachesTask downloadTask = null;
-    // TODO: also keep current viewport, don't run any update if viewport is the same
+    private OfflineAreaDownloader offlineAreaDownloader = null;
+    // clusters of the last grouped list, they are moved with view port while it stays inside of clusterArea
+    private IncrementalClusterQuery clusterQuery = null;
+    private GeoRect clusterArea = null;
+    // area of the current download
+    private GeoRect downloadArea = null;
+    private final ViewPortPrefetcher prefetcher = new ViewPortPrefetcher();
+    private final Handler handler = new Handler(Looper.getMainLooper());
     private List<GeoCache> currentGeoCacheMarkers = new LinkedList<GeoCache>();
+    // geocaches received from current download task so far
+    private List<GeoCache> downloadedGeoCaches = new ArrayList<GeoCache>();
 
-    private Projection projection;
+    // view port for which geocaches are shown or being downloaded
+    private GeoRect viewPort;
+    // list of view port failed to download, so it is downloaded again even if view port is not changed
+    private boolean isViewPortIncomplete;
+    // projection of map for the view port, it doesn't call map, so it is used by grouping in background
+    private MercatorProjector projector;
     private int mapWidth, mapHeight;
 
-    public synchronized void beginUpdateGeocacheOverlay(GeoRect viewPort, Projection projection, int mapWidth, int mapHeight) {
+    // the last view port change, it is handled after VIEW_PORT_UPDATE_DELAY_MS if no other change comes
+    private GeoRect pendingViewPort;
+    private int pendingMapWidth, pendingMapHeight;
+
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateGeocacheOverlay();
+        }
+    };
+
+    public synchronized void beginUpdateGeocacheOverlay(GeoRect viewPort, int mapWidth, int mapHeight) {
+        pendingViewPort = viewPort;
+        pendingMapWidth = mapWidth;
+        pendingMapHeight = mapHeight;
+        handler.removeCallbacks(updateRunnable);
+        handler.postDelayed(updateRunnable, VIEW_PORT_UPDATE_DELAY_MS);
+    }
+
+    private synchronized void updateGeocacheOverlay() {
+        if (pendingViewPort == null) return;
+        GeoRect newViewPort = pendingViewPort;
+        pendingViewPort = null;
+        this.mapWidth = pendingMapWidth;
+        this.mapHeight = pendingMapHeight;
+        this.projector = new MercatorProjector(newViewPort, mapWidth, mapHeight);
+        if (!isViewPortIncomplete && isSameViewPort(newViewPort, viewPort)) {
+            LogManager.d(TAG, "View port is not changed");
+            return;
+        }
+        isViewPortIncomplete = false;
+
+        if (updateClusters(newViewPort)) {
+            prefetcher.onViewPortChanged(newViewPort);
+            this.viewPort = newViewPort;
+            return;
+        }
+
         cancelGroupTask();
 
-        LogManager.d(TAG, "Update rectangle %s", viewPort);
+        LogManager.d(TAG, "Update rectangle %s", newViewPort);
         cancelDownloadTask();
+        downloadedGeoCaches.clear();
+        clusterArea = null;
+        downloadArea = Controller.getInstance().getPreferencesManager().isCacheGroupingEnabled() ? getClusterArea(newViewPort) : newViewPort;
         downloadTask = new DownloadGeoCachesTask(this);
-        downloadTask.execute(viewPort);
+        downloadTask.execute(downloadArea);
         onShowDownloadingInfo();
+        prefetcher.onViewPortChanged(newViewPort);
 
-        this.projection = projection;
-        this.mapWidth = mapWidth;
-        this.mapHeight = mapHeight;
+        this.viewPort = newViewPort;
     }
 
-    public synchronized void geocacheListDownloaded(List<GeoCache> geoCacheList) {
+    /**
+     * Moves shown clusters to the new view port without download and grouping, if view port is inside of grouped area.
+     * Only markers of changed clusters are updated.
+     *
+     * @return false if geocaches of the view port have to be downloaded and grouped
+     */
+    private boolean updateClusters(GeoRect newViewPort) {
+        if (clusterQuery == null || clusterArea == null || !clusterArea.contains(newViewPort)
+                || !Controller.getInstance().getPreferencesManager().isCacheGroupingEnabled()) {
+            return false;
+        }
+        // results of previous view ports are not needed any more
+        cancelDownloadTask();
+        cancelGroupTask();
+        onHideDownloadingInfo();
+
+        clusterQuery.update(newViewPort, GeoCacheClusterIndex.getZoom(newViewPort, mapWidth));
+        currentGeoCacheMarkers = clusterQuery.getClusters();
+        LogManager.d(TAG, "Clusters updated: %d added, %d removed", clusterQuery.getAdded().size(), clusterQuery.getRemoved().size());
+        if (activity != null) {
+            activity.changeGeoCacheMarkers(clusterQuery.getAdded(), clusterQuery.getRemoved());
+        }
+        return true;
+    }
+
+    private static GeoRect getClusterArea(GeoRect viewPort) {
+        double span = Math.max(ViewPortPrefetcher.getLatitudeSpan(viewPort), ViewPortPrefetcher.getLongitudeSpan(viewPort));
+        if (span * CLUSTER_AREA_SCALE > MAX_CLUSTER_AREA_SPAN) {
+            return viewPort;
+        }
+        return ViewPortPrefetcher.scale(viewPort, CLUSTER_AREA_SCALE);
+    }
+
+    private static boolean isSameViewPort(GeoRect first, GeoRect second) {
+        return first != null && second != null
+                && first.tl.getLatitude() == second.tl.getLatitude() && first.tl.getLongitude() == second.tl.getLongitude()
+                && first.br.getLatitude() == second.br.getLatitude() && first.br.getLongitude() == second.br.getLongitude();
+    }
+
+    /**
+     * @param isComplete
+     *         false if list of some parts of the area failed to download, 4ex there was no connection
+     */
+    public synchronized void geocacheListDownloaded(DownloadGeoCachesTask task, List<GeoCache> geoCacheList, boolean isComplete) {
+        if (task == downloadTask && !isComplete) {
+            isViewPortIncomplete = true;
+        }
         onHideDownloadingInfo();
         if (geoCacheList == null || geoCacheList.size() == 0) {
             return;
         }
         if (Controller.getInstance().getPreferencesManager().isCacheGroupingEnabled() && geoCacheList.size() > MIN_GROUP_CACHE_NUMBER) {
-            beginGroupGeoCacheList(geoCacheList);
+            beginGroupGeoCacheList(geoCacheList, downloadArea);
         } else {
             currentGeoCacheMarkers.clear();
             if (geoCacheList.size() < MAX_OVERLAY_ITEMS_NUMBER) {
@@ -64,14 +176,45 @@ public class SelectMapViewModel {
         }
     }
 
-    private synchronized void beginGroupGeoCacheList(List<GeoCache> geoCacheList) {
+    /**
+     * Shows part of geocache list while the rest of it is being downloaded
+     */
+    public synchronized void geocacheListPartDownloaded(DownloadGeoCachesTask task, List<GeoCache> geoCacheList) {
+        if (task != downloadTask) return;
+        downloadedGeoCaches.addAll(geoCacheList);
+
+        if (Controller.getInstance().getPreferencesManager().isCacheGroupingEnabled() && downloadedGeoCaches.size() > MIN_GROUP_CACHE_NUMBER) {
+            // don't restart grouping on each part, the whole list will be grouped when download finishes
+            if (!isTaskActive(groupTask)) {
+                beginGroupGeoCacheList(new ArrayList<GeoCache>(downloadedGeoCaches), null);
+            }
+        } else if (downloadedGeoCaches.size() < MAX_OVERLAY_ITEMS_NUMBER) {
+            currentGeoCacheMarkers.clear();
+            currentGeoCacheMarkers.addAll(downloadedGeoCaches);
+            onUpdateGeocacheMarkers();
+        }
+    }
+
+    /**
+     * @param listArea
+     *         area which list covers completely, null for part of list
+     */
+    private synchronized void beginGroupGeoCacheList(List<GeoCache> geoCacheList, GeoRect listArea) {
         cancelGroupTask();
-        groupTask = new GroupGeoCacheTask(this, geoCacheList);
+        groupTask = new GroupGeoCacheTask(this, geoCacheList, listArea);
         groupTask.execute();
         onShowGroupingInfo();
     }
 
-    public synchronized void geocacheListGrouped(List<GeoCache> geoCacheList) {
+    /**
+     * @param clusterQuery
+     *         query which grouped the list, null if the list can't be updated incrementally
+     * @param listArea
+     *         area which grouped list covers completely, null for part of list
+     */
+    public synchronized void geocacheListGrouped(List<GeoCache> geoCacheList, IncrementalClusterQuery clusterQuery, GeoRect listArea) {
+        this.clusterQuery = clusterQuery;
+        this.clusterArea = clusterQuery != null ? listArea : null;
         onHideGroupingInfo();
         currentGeoCacheMarkers.clear();
         for (GeoCache geoCache : geoCacheList) {
@@ -92,11 +235,69 @@ public class SelectMapViewModel {
 
     private synchronized void cancelDownloadTask() {
         if (downloadTask != null && !downloadTask.isCancelled()) {
-            // don't interrupt if already running
+            // don't interrupt if already running, download is aborted because the task is cancelled
             downloadTask.cancel(false);
         }
     }
 
+    public synchronized boolean isOfflineAreaDownloading() {
+        return offlineAreaDownloader != null && offlineAreaDownloader.isRunning();
+    }
+
+    /**
+     * Starts download of all geocaches of current view port for using them without Internet
+     *
+     * @return false if view port is too large for downloading, then nothing is started
+     */
+    public synchronized boolean beginDownloadOfflineArea() {
+        if (isOfflineAreaDownloading() || viewPort == null) return true;
+        if (!OfflineAreaDownloader.isAreaAllowed(viewPort)) return false;
+
+        offlineAreaDownloader = new OfflineAreaDownloader(viewPort, this);
+        offlineAreaDownloader.start();
+        onOfflineAreaProgress(0, 0, 0, 0);
+        return true;
+    }
+
+    /**
+     * Removes geocaches which were downloaded for offline use and are not favorites, together with their photos
+     *
+     * @return number of removed geocaches
+     */
+    public synchronized int deleteOfflineAreas() {
+        if (isOfflineAreaDownloading()) return 0;
+        return Controller.getInstance().getDbManager().deleteOfflineGeoCaches();
+    }
+
+    public synchronized void cancelDownloadOfflineArea() {
+        if (isOfflineAreaDownloading()) {
+            offlineAreaDownloader.cancel();
+        }
+    }
+
+    @Override
+    public synchronized void onProgress(int processedCaches, int totalCaches, float cachesPerSecond, float bytesPerSecond) {
+        onOfflineAreaProgress(processedCaches, totalCaches, cachesPerSecond, bytesPerSecond);
+    }
+
+    @Override
+    public synchronized void onFinished(int totalCaches, int failedCaches, boolean listIncomplete, boolean cancelled) {
+        LogManager.d(TAG, "Offline area downloaded: %d caches, %d failed, list incomplete %b, cancelled %b", totalCaches, failedCaches, listIncomplete, cancelled);
+        if (activity != null) {
+            activity.offlineAreaDownloaded(totalCaches, failedCaches, listIncomplete, cancelled);
+        }
+    }
+
+    private synchronized void onOfflineAreaProgress(int processedCaches, int totalCaches, float cachesPerSecond, float bytesPerSecond) {
+        if (activity != null) {
+            activity.showOfflineAreaProgress(processedCaches, totalCaches, cachesPerSecond, bytesPerSecond);
+        }
+    }
+
+    private static boolean isTaskActive(AsyncTask<?, ?, ?> task) {
+        return task != null && !task.isCancelled() && (task.getStatus() != AsyncTask.Status.FINISHED);
+    }
+
     private synchronized void onUpdateGeocacheMarkers() {
         if (activity != null) {
             activity.updateGeoCacheMarkers(currentGeoCacheMarkers);
@@ -109,8 +310,16 @@ public class SelectMapViewModel {
         }
     }
 
-    public Projection getProjection() {
-        return projection;
+    public MercatorProjector getProjector() {
+        return projector;
+    }
+
+    public synchronized GeoRect getViewPort() {
+        return viewPort;
+    }
+
+    public synchronized GeoCacheClusterIndex getClusterIndex() {
+        return clusterQuery != null ? clusterQuery.getIndex() : null;
     }
 
     public int getMapHeight() {
@@ -166,7 +375,13 @@ public class SelectMapViewModel {
             LogManager.e(TAG, "Attempt to unregister activity while activity is null");
         }
         this.activity = null;
+        handler.removeCallbacks(updateRunnable);
+        pendingViewPort = null;
+        // geocaches of the same view port are downloaded again when activity returns, 4ex filter could be changed
+        viewPort = null;
+        clusterArea = null;
         cancelDownloadTask();
         cancelGroupTask();
+        prefetcher.cancel();
     }
 }
\ No newline at end of file
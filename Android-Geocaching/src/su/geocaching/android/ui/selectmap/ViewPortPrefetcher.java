@@ -0,0 +1,203 @@
+package su.geocaching.android.ui.selectmap;
+
+import android.os.Process;
+import android.os.SystemClock;
+import su.geocaching.android.controller.Controller;
+import su.geocaching.android.controller.apimanager.GeoCacheListListener;
+import su.geocaching.android.controller.apimanager.GeoRect;
+import su.geocaching.android.controller.apimanager.NetworkScheduler;
+import su.geocaching.android.controller.managers.LogManager;
+import su.geocaching.android.model.GeoCache;
+import su.geocaching.android.model.GeoPoint;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Tracks movement of select map and downloads geocaches of the view port where map is moving to,
+ * so they are already in memory when user gets there. When map is zoomed out, the larger area around
+ * current view port is downloaded. Downloaded geocaches are only kept in memory storage of api manager.
+ * <p/>
+ * Prefetch is not needed right now, so it is passed to network scheduler as deferrable job
+ * and is sent together with other requests, while radio is active.
+ */
+class ViewPortPrefetcher {
+
+    private static final String TAG = ViewPortPrefetcher.class.getCanonicalName();
+
+    // movement shorter than this part of view port is not treated as panning
+    private static final double MIN_MOVEMENT = 0.1;
+    // view port where map will be in this time is prefetched
+    private static final long LOOKAHEAD_MS = 1000;
+    // prefetched view port is shifted at least by one and at most by two view port sizes
+    private static final double MIN_SHIFT = 1;
+    private static final double MAX_SHIFT = 2;
+    private static final double ZOOM_OUT_RATIO = 1.2;
+    // larger areas are not prefetched, their list is too long
+    private static final double MAX_PREFETCH_SPAN = 4;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+                    runnable.run();
+                }
+            }, "ViewPortPrefetcher");
+        }
+    });
+
+    private GeoRect lastViewPort;
+    private long lastTime;
+    // direction of last prefetch
+    private double lastDirectionLatitude, lastDirectionLongitude;
+    private Future<?> prefetch;
+    private PrefetchListener prefetchListener;
+
+    /**
+     * Called when view port of map is changed
+     */
+    public synchronized void onViewPortChanged(GeoRect viewPort) {
+        long time = SystemClock.uptimeMillis();
+        GeoRect previousViewPort = lastViewPort;
+        long elapsed = Math.max(1, time - lastTime);
+        lastViewPort = viewPort;
+        lastTime = time;
+        if (previousViewPort == null) return;
+
+        double latitudeSpan = getLatitudeSpan(viewPort);
+        double longitudeSpan = getLongitudeSpan(viewPort);
+        if (Math.max(latitudeSpan, longitudeSpan) * 2 > MAX_PREFETCH_SPAN) {
+            cancel();
+            return;
+        }
+
+        if (getLongitudeSpan(viewPort) > getLongitudeSpan(previousViewPort) * ZOOM_OUT_RATIO) {
+            // zooming out, next view port will contain the current one
+            lastDirectionLatitude = lastDirectionLongitude = 0;
+            start(scale(viewPort, 2));
+            return;
+        }
+
+        double movementLatitude = getCenterLatitude(viewPort) - getCenterLatitude(previousViewPort);
+        double movementLongitude = normalizeLongitude(getCenterLongitude(viewPort) - getCenterLongitude(previousViewPort));
+        // movement in view port sizes
+        double relativeLatitude = movementLatitude / latitudeSpan;
+        double relativeLongitude = movementLongitude / longitudeSpan;
+        double distance = Math.sqrt(relativeLatitude * relativeLatitude + relativeLongitude * relativeLongitude);
+        if (distance < MIN_MOVEMENT) return;
+
+        if (relativeLatitude * lastDirectionLatitude + relativeLongitude * lastDirectionLongitude < 0) {
+            LogManager.d(TAG, "Movement is reversed");
+            cancel();
+        }
+        lastDirectionLatitude = relativeLatitude;
+        lastDirectionLongitude = relativeLongitude;
+
+        // the faster map moves, the further view port is prefetched
+        double shift = Math.max(MIN_SHIFT, Math.min(MAX_SHIFT, distance * LOOKAHEAD_MS / elapsed)) / distance;
+        start(shift(viewPort, movementLatitude * shift, movementLongitude * shift));
+    }
+
+    public synchronized void cancel() {
+        if (prefetchListener != null) {
+            // aborts download of list if nobody else waits for it, or prevents its release by network scheduler
+            prefetchListener.cancelled = true;
+            prefetchListener = null;
+        }
+        if (prefetch != null) {
+            prefetch.cancel(true);
+            prefetch = null;
+        }
+    }
+
+    private void start(final GeoRect rect) {
+        cancel();
+        if (!Controller.getInstance().getConnectionManager().isActiveNetworkConnected()) return;
+
+        LogManager.d(TAG, "Prefetch %s", rect);
+        final PrefetchListener listener = new PrefetchListener();
+        prefetchListener = listener;
+        Controller.getInstance().getNetworkScheduler().execute(new Runnable() {
+            @Override
+            public void run() {
+                release(rect, listener);
+            }
+        }, NetworkScheduler.DEFERRABLE);
+    }
+
+    private synchronized void release(final GeoRect rect, final PrefetchListener listener) {
+        if (listener.cancelled) return;
+
+        prefetch = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                // tiles are downloaded by this low priority thread, not by threads which download view port
+                Controller.getInstance().getApiManager().prefetchGeoCacheList(rect, listener);
+            }
+        });
+    }
+
+    /**
+     * Geocaches are only stored in memory storage, listener is used for cancelling of download
+     */
+    private static class PrefetchListener implements GeoCacheListListener {
+        private volatile boolean cancelled;
+
+        @Override
+        public void onGeoCachesParsed(List<GeoCache> geoCaches) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static GeoRect shift(GeoRect rect, double latitude, double longitude) {
+        double maxLatitude = rect.tl.getLatitude() + latitude;
+        double minLatitude = rect.br.getLatitude() + latitude;
+        if (maxLatitude > 90 || minLatitude < -90) {
+            // don't move beyond pole
+            maxLatitude = rect.tl.getLatitude();
+            minLatitude = rect.br.getLatitude();
+        }
+        return new GeoRect(new GeoPoint(maxLatitude, normalizeLongitude(rect.tl.getLongitude() + longitude)),
+                new GeoPoint(minLatitude, normalizeLongitude(rect.br.getLongitude() + longitude)));
+    }
+
+    static GeoRect scale(GeoRect rect, double ratio) {
+        double latitudeDelta = getLatitudeSpan(rect) * (ratio - 1) / 2;
+        double longitudeDelta = getLongitudeSpan(rect) * (ratio - 1) / 2;
+        return new GeoRect(new GeoPoint(Math.min(90, rect.tl.getLatitude() + latitudeDelta), normalizeLongitude(rect.tl.getLongitude() - longitudeDelta)),
+                new GeoPoint(Math.max(-90, rect.br.getLatitude() - latitudeDelta), normalizeLongitude(rect.br.getLongitude() + longitudeDelta)));
+    }
+
+    static double getLatitudeSpan(GeoRect rect) {
+        return rect.tl.getLatitude() - rect.br.getLatitude();
+    }
+
+    static double getLongitudeSpan(GeoRect rect) {
+        double span = rect.br.getLongitude() - rect.tl.getLongitude();
+        return span < 0 ? span + 360 : span;
+    }
+
+    private static double getCenterLatitude(GeoRect rect) {
+        return (rect.tl.getLatitude() + rect.br.getLatitude()) / 2;
+    }
+
+    private static double getCenterLongitude(GeoRect rect) {
+        return normalizeLongitude(rect.tl.getLongitude() + getLongitudeSpan(rect) / 2);
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        while (longitude > 180) longitude -= 360;
+        while (longitude < -180) longitude += 360;
+        return longitude;
+    }
+}